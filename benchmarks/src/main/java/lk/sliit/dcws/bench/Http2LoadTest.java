@@ -0,0 +1,175 @@
+package lk.sliit.dcws.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.Settings;
+import lk.sliit.dcws.heroku.Main;
+
+/**
+ * Compares HTTP/1.1 with h2c for a dashboard that fans out into many small GETs, a doctor or a
+ * hospital by ID each. Like LoadTest it boots heroku.Main on a free local port and seeds it over
+ * HTTP, then loads the same dashboards twice: once over HTTP/1.1 with at most as many connections
+ * as a browser opens to one host, so requests past that wait for a connection to come free, and
+ * once over a single h2c connection that carries them all at once.
+ *
+ * Every dashboard's requests are sent together and it is done when the last response is in; its
+ * load time goes into the table.
+ *
+ * Settings, as system properties or environment variables:
+ * <ul>
+ * <li>LOADTEST_DASHBOARDS - dashboards loaded by each client, one after another (500).</li>
+ * <li>LOADTEST_FANOUT - GETs per dashboard (50).</li>
+ * <li>LOADTEST_CONNECTIONS - connections the HTTP/1.1 client may open (6, as browsers do).</li>
+ * <li>LOADTEST_DOCTORS - doctors created before the run (200).</li>
+ * <li>LOADTEST_URL - test a server that is already running instead of booting one.</li>
+ * <li>LOADTEST_WEBAPP - the webapp directory Main is booted with (src/main/webapp/).</li>
+ * </ul>
+ *
+ * Run from the project directory with: cd benchmarks; mvn -P loadtest package
+ * -Dloadtest.main=lk.sliit.dcws.bench.Http2LoadTest
+ */
+public class Http2LoadTest {
+
+    private static final Pattern NEW_ID = Pattern.compile("new ID: (\\S+)");
+
+    private final String baseUrl;
+    private final List<String> paths = new ArrayList<String>();
+
+    Http2LoadTest(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int dashboards = Settings.getInt("LOADTEST_DASHBOARDS", 500);
+        int fanout = Settings.getInt("LOADTEST_FANOUT", 50);
+        int connections = Settings.getInt("LOADTEST_CONNECTIONS", 6);
+        int doctors = Settings.getInt("LOADTEST_DOCTORS", 200);
+
+        Server server = null;
+        String url = Settings.getString("LOADTEST_URL", null);
+        if(url == null)
+        {
+            if(System.getProperty("DATA_DIR") == null)
+                System.setProperty("DATA_DIR", "none"); // keep the run out of the real data directory
+            server = Main.createServer(0, Settings.getString("LOADTEST_WEBAPP", "src/main/webapp/"));
+            server.start();
+            url = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            System.out.println("Started " + url);
+        }
+
+        HttpClient http1 = new HttpClient(new HttpClientTransportOverHTTP(1), null);
+        http1.setMaxConnectionsPerDestination(connections);
+        http1.setMaxRequestsQueuedPerDestination(Math.max(1024, fanout));
+        HttpClient http2 = new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()), null);
+        http2.setMaxConnectionsPerDestination(1);
+        http2.setMaxRequestsQueuedPerDestination(Math.max(1024, fanout));
+        http1.start();
+        http2.start();
+
+        Http2LoadTest test = new Http2LoadTest(url);
+        test.seed(http1, doctors);
+        System.out.println("Seeded " + doctors + " doctors; loading " + dashboards + " dashboards of " + fanout + " GETs with each client");
+
+        System.out.println();
+        System.out.println(String.format("%-14s %11s %7s %9s %9s %9s %9s", "client", "dashboards", "errors", "GETs/s", "p50 ms", "p99 ms", "max ms"));
+        for(int round = 0; round < 2; round++) // the first round warms both up and is not shown
+        {
+            test.run(round == 1 ? "http/1.1 x" + connections : null, http1, dashboards, fanout);
+            test.run(round == 1 ? "h2c x1" : null, http2, dashboards, fanout);
+        }
+        System.out.println();
+        System.out.println("Load time is from sending a dashboard's first GET to receiving its last response.");
+
+        http1.stop();
+        http2.stop();
+        if(server != null)
+            server.stop();
+    }
+
+    /**
+     * Creates hospitals and doctors and keeps the paths to read them back by ID.
+     */
+    void seed(HttpClient client, int doctors) throws Exception
+    {
+        Random random = new Random(SyntheticData.SEED);
+        List<String> hospitals = new ArrayList<String>();
+        for(int i = 0; i < Math.max(1, doctors / 20); i++)
+            hospitals.add(this.create(client, "/hospitals", "{\"name\":\"" + SyntheticData.hospital(random).name + "\"}"));
+        for(String id : hospitals)
+            this.paths.add("/hospitals/" + id);
+        String[] hospitalIds = hospitals.toArray(new String[hospitals.size()]);
+        for(int i = 0; i < doctors; i++)
+        {
+            Doctor doctor = SyntheticData.doctor(random, hospitalIds);
+            String id = this.create(client, "/doctors", "{\"name\":\"" + doctor.name + "\",\"lastName\":\"" + doctor.lastName + "\",\"specialization\":\""
+                    + doctor.specialization + "\",\"hospitals\":[\"" + doctor.hospitals[0] + "\",\"" + doctor.hospitals[1] + "\"]}");
+            this.paths.add("/doctors/" + id);
+        }
+    }
+
+    /**
+     * Loads the dashboards one after another and prints a row for them, unless name is null.
+     */
+    void run(String name, HttpClient client, int dashboards, int fanout) throws InterruptedException
+    {
+        LatencyHistogram loadTimes = new LatencyHistogram();
+        AtomicInteger errors = new AtomicInteger();
+        Random random = new Random(SyntheticData.SEED);
+        long start = System.nanoTime();
+        for(int d = 0; d < dashboards; d++)
+        {
+            CountDownLatch done = new CountDownLatch(fanout);
+            long sent = System.nanoTime();
+            for(int i = 0; i < fanout; i++)
+            {
+                String path = this.paths.get(random.nextInt(this.paths.size()));
+                client.newRequest(this.baseUrl + path).header("Accept", "application/json").send(new BufferingResponseListener() {
+                    @Override
+                    public void onComplete(Result result) {
+                        if(result.isFailed() || result.getResponse().getStatus() != 200)
+                            errors.incrementAndGet();
+                        done.countDown();
+                    }
+                });
+            }
+            if(!done.await(30, TimeUnit.SECONDS))
+                throw new IllegalStateException("A dashboard took more than 30 seconds to load");
+            loadTimes.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sent));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if(name == null)
+            return;
+        System.out.println(String.format("%-14s %11d %7d %9.0f %9.2f %9.2f %9.2f", name, loadTimes.getCount(), errors.get(), (double) dashboards * fanout / seconds,
+                loadTimes.percentile(0.5) / 1000.0, loadTimes.percentile(0.99) / 1000.0, loadTimes.getMax() / 1000.0));
+    }
+
+    private String create(HttpClient client, String path, String json) throws Exception
+    {
+        ContentResponse response = client.newRequest(this.baseUrl + path).method(HttpMethod.POST).header("Accept", "text/plain")
+                .content(new StringContentProvider(json), "application/json").send();
+        Matcher matcher = NEW_ID.matcher(response.getContentAsString());
+        if(response.getStatus() != 201 || !matcher.find())
+            throw new IllegalStateException("POST " + path + " returned " + response.getStatus() + ": " + response.getContentAsString());
+        return matcher.group(1);
+    }
+}
@@ -0,0 +1,110 @@
+package lk.sliit.dcws.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.store.KeyedStore;
+import lk.sliit.dcws.store.PrefixIndex;
+
+/**
+ * Compares the store's structures with the linear scans the resources used before them: lookup
+ * by ID through KeyedStore against an equalsIgnoreCase() scan, and last name prefix search
+ * through PrefixIndex against a startsWith() scan, for tables of 1k to 1M doctors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+
+    private static final String[] PREFIXES = { "Ja", "Jaya", "Jayase", "Kuma" };
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int size;
+
+    private KeyedStore<Doctor> store;
+    private PrefixIndex<Doctor> lastNames;
+    private List<Doctor> list;
+    private String[] ids;
+
+    /**
+     * Every thread looks up the same sequence of IDs and prefixes on every run.
+     */
+    @State(Scope.Thread)
+    public static class Queries {
+        final Random random = new Random(SyntheticData.SEED);
+    }
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        Doctor[] doctors = SyntheticData.doctors(this.size);
+        this.store = new KeyedStore<Doctor>();
+        this.lastNames = new PrefixIndex<Doctor>();
+        this.list = new ArrayList<Doctor>(this.size);
+        this.ids = new String[this.size];
+        for(int i = 0; i < this.size; i++)
+        {
+            long sequence = this.store.put(doctors[i].id, doctors[i]);
+            this.lastNames.add(doctors[i].lastName, sequence, doctors[i]);
+            this.list.add(doctors[i]);
+            this.ids[i] = doctors[i].id.toUpperCase(Locale.ROOT); // clients don't always send the canonical case
+        }
+    }
+
+    @Benchmark
+    public Doctor getById(Queries queries)
+    {
+        return this.store.get(this.ids[queries.random.nextInt(this.size)]);
+    }
+
+    @Benchmark
+    public Doctor scanById(Queries queries)
+    {
+        String id = this.ids[queries.random.nextInt(this.size)];
+        for(Doctor doctor : this.list)
+        {
+            if(id.equalsIgnoreCase(doctor.id))
+                return doctor;
+        }
+        return null;
+    }
+
+    @Benchmark
+    public List<Doctor> findByLastName(Queries queries)
+    {
+        return this.lastNames.find(SyntheticData.pick(queries.random, PREFIXES));
+    }
+
+    @Benchmark
+    public List<Doctor> scanByLastName(Queries queries)
+    {
+        String prefix = SyntheticData.pick(queries.random, PREFIXES).toUpperCase(Locale.ROOT);
+        ArrayList<Doctor> matches = new ArrayList<Doctor>();
+        for(Doctor doctor : this.list)
+        {
+            if(doctor.lastName.toUpperCase(Locale.ROOT).startsWith(prefix))
+                matches.add(doctor);
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,122 @@
+package lk.sliit.dcws.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import org.eclipse.persistence.jaxb.rs.MOXyJsonProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lk.sliit.dcws.Appointment;
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.json.JsonProvider;
+
+/**
+ * Writes Doctor[] and Appointment[] responses of 1k to 1M elements, and reads a List<Doctor>
+ * bulk request body back, through either MOXy or the JsonProvider that replaced it, so the two
+ * can be compared on the same data. Both give the same bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    private static final Type DOCTOR_LIST = new GenericType<List<Doctor>>() { }.getType();
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int size;
+
+    @Param({ "moxy", "streaming" })
+    public String provider;
+
+    private Doctor[] doctors;
+    private Appointment[] appointments;
+    private byte[] doctorsJson;
+    private MessageBodyWriter<Object> writer;
+    private MessageBodyReader<Object> reader;
+
+    /**
+     * Each thread writes into its own buffer, which is kept between calls like a servlet
+     * response buffer would be.
+     */
+    @State(Scope.Thread)
+    public static class Output {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        this.doctors = SyntheticData.doctors(this.size);
+        this.appointments = SyntheticData.appointments(this.size);
+        if(this.provider.equals("moxy"))
+        {
+            MOXyJsonProvider moxy = new MOXyJsonProvider();
+            this.writer = moxy;
+            this.reader = moxy;
+        }
+        else
+        {
+            JsonProvider streaming = new JsonProvider();
+            this.writer = streaming;
+            this.reader = streaming;
+        }
+        Output output = new Output();
+        this.write(this.doctors, Doctor[].class, output);
+        this.doctorsJson = output.bytes.toByteArray();
+    }
+
+    @Benchmark
+    public int writeDoctors(Output output) throws IOException
+    {
+        return this.write(this.doctors, Doctor[].class, output);
+    }
+
+    @Benchmark
+    public int writeAppointments(Output output) throws IOException
+    {
+        return this.write(this.appointments, Appointment[].class, output);
+    }
+
+    @Benchmark
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public int readDoctors() throws IOException
+    {
+        List<?> doctors = (List<?>) this.reader.readFrom((Class) List.class, DOCTOR_LIST, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE,
+                new MultivaluedHashMap<String, String>(), new ByteArrayInputStream(this.doctorsJson));
+        return doctors.size();
+    }
+
+    private int write(Object entity, Class<?> type, Output output) throws IOException
+    {
+        output.bytes.reset();
+        this.writer.writeTo(entity, type, type, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<String, Object>(), output.bytes);
+        return output.bytes.size();
+    }
+}
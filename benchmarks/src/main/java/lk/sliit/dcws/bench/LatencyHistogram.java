@@ -0,0 +1,79 @@
+package lk.sliit.dcws.bench;
+
+/**
+ * Log-linear histogram of latencies in microseconds, with a relative error under 1.6%. Values
+ * below 128 get a bucket each; above that every power of two is split into 64 buckets, the same
+ * layout HdrHistogram uses with two significant digits. Not thread-safe: each load test worker
+ * keeps its own and they are merged at the end.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 64;
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+
+    private final long[] counts = new long[LINEAR + 58 * SUB_BUCKETS];
+    private long total;
+    private long max;
+
+    public void record(long micros)
+    {
+        long value = Math.max(0, micros);
+        this.counts[index(value)]++;
+        this.total++;
+        this.max = Math.max(this.max, value);
+    }
+
+    public void add(LatencyHistogram other)
+    {
+        for(int i = 0; i < this.counts.length; i++)
+            this.counts[i] += other.counts[i];
+        this.total += other.total;
+        this.max = Math.max(this.max, other.max);
+    }
+
+    public long getCount()
+    {
+        return this.total;
+    }
+
+    public long getMax()
+    {
+        return this.max;
+    }
+
+    /**
+     * @param fraction e.g. 0.99 for the 99th percentile.
+     * @return the highest value that could be in the bucket holding that percentile.
+     */
+    public long percentile(double fraction)
+    {
+        if(this.total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * this.total));
+        long seen = 0;
+        for(int i = 0; i < this.counts.length; i++)
+        {
+            seen += this.counts[i];
+            if(seen >= rank)
+                return Math.min(this.max, highestValue(i));
+        }
+        return this.max;
+    }
+
+    static int index(long value)
+    {
+        if(value < LINEAR)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6; // value >>> shift is in [64, 128)
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long highestValue(int index)
+    {
+        if(index < LINEAR)
+            return index;
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long low = (long) ((index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return low + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,382 @@
+package lk.sliit.dcws.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.Execution;
+import lk.sliit.dcws.Settings;
+import lk.sliit.dcws.heroku.Main;
+
+/**
+ * End-to-end load test of the application as deployed: it boots heroku.Main on a free local port,
+ * so requests go through embedded Jetty, the Jersey ServletContainer from web.xml and the JSON
+ * provider, seeds it over HTTP and then sends a mix of reads, searches and bookings at a fixed
+ * rate.
+ *
+ * The load is open-loop. Request i is due at start + i / rate whether or not earlier requests have
+ * come back, and its latency is measured from when it was due, not from when a worker got round
+ * to sending it. A server that stalls for a second is therefore charged for every request that
+ * should have been sent during that second, which is the coordinated omission correction; the
+ * uncorrected p99 is printed alongside for comparison.
+ *
+ * Settings, as system properties or environment variables:
+ * <ul>
+ * <li>LOADTEST_RATE - requests per second (default 200).</li>
+ * <li>LOADTEST_DURATION and LOADTEST_WARMUP - seconds measured, and seconds run before that (30 and 5).</li>
+ * <li>LOADTEST_MIX - weights of the operations (default read=60,search=30,book=10).</li>
+ * <li>LOADTEST_THREADS - sending threads; enough to keep up with the rate while some wait (64).</li>
+ * <li>LOADTEST_DOCTORS - doctors created before the run (200).</li>
+ * <li>LOADTEST_URL - test a server that is already running instead of booting one.</li>
+ * <li>LOADTEST_WEBAPP - the webapp directory Main is booted with (src/main/webapp/).</li>
+ * <li>LOADTEST_EXECUTION - comma separated EXECUTION modes to compare, e.g. pool,async,virtual
+ * (default the EXECUTION setting); virtual needs the test to run on Java 21 or later. Main is
+ * booted once for each and given the same load. The data is seeded once and shared, so later
+ * modes also see the bookings made by earlier ones.</li>
+ * </ul>
+ *
+ * Run from the project directory with: cd benchmarks; mvn -P loadtest package
+ */
+public class LoadTest {
+
+    private static final Pattern NEW_ID = Pattern.compile("new ID: (\\S+)");
+
+    private enum Operation {
+        READ, SEARCH, BOOK
+    }
+
+    private final String baseUrl;
+    private final List<String> doctorIds = new ArrayList<String>();
+    private final List<String> hospitalIds = new ArrayList<String>();
+    private final Operation[] mix;
+
+    private final Stats[] stats = new Stats[Operation.values().length];
+
+    private static class Stats {
+        final LatencyHistogram corrected = new LatencyHistogram();
+        final LatencyHistogram uncorrected = new LatencyHistogram();
+        long errors;
+
+        synchronized void add(Stats other)
+        {
+            this.corrected.add(other.corrected);
+            this.uncorrected.add(other.uncorrected);
+            this.errors += other.errors;
+        }
+    }
+
+    LoadTest(String baseUrl, Operation[] mix) {
+        this.baseUrl = baseUrl;
+        this.mix = mix;
+        for(int i = 0; i < this.stats.length; i++)
+            this.stats[i] = new Stats();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rate = Settings.getInt("LOADTEST_RATE", 200);
+        int duration = Settings.getInt("LOADTEST_DURATION", 30);
+        int warmup = Settings.getInt("LOADTEST_WARMUP", 5);
+        int threads = Settings.getInt("LOADTEST_THREADS", 64);
+        int doctors = Settings.getInt("LOADTEST_DOCTORS", 200);
+        Operation[] mix = parseMix(Settings.getString("LOADTEST_MIX", "read=60,search=30,book=10"));
+
+        String url = Settings.getString("LOADTEST_URL", null);
+        String[] modes = { null };
+        if(url == null)
+        {
+            if(System.getProperty("DATA_DIR") == null)
+                System.setProperty("DATA_DIR", "none"); // keep the run out of the real data directory
+            modes = Settings.getString("LOADTEST_EXECUTION", Execution.getMode().name().toLowerCase(Locale.ROOT)).split(",");
+        }
+
+        LoadTest seeded = null;
+        for(String mode : modes)
+        {
+            Server server = null;
+            if(mode != null)
+            {
+                Execution.setMode(Execution.Mode.parse(mode));
+                server = Main.createServer(0, Settings.getString("LOADTEST_WEBAPP", "src/main/webapp/"));
+                server.start();
+                url = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+                System.out.println("Started " + url + " with EXECUTION=" + mode.trim());
+            }
+
+            LoadTest test = new LoadTest(url, mix);
+            if(seeded == null)
+            {
+                test.seed(doctors);
+                seeded = test;
+                System.out.println("Seeded " + doctors + " doctors");
+            }
+            else
+            {
+                // every server in this process shares the one store, so the data is already there
+                test.doctorIds.addAll(seeded.doctorIds);
+                test.hospitalIds.addAll(seeded.hospitalIds);
+            }
+            System.out.println("Running " + rate + " requests/s for " + warmup + "s warm-up and " + duration + "s measured");
+            long sent = test.run(rate, warmup, duration, threads);
+            test.report(sent, duration);
+
+            if(server != null)
+                server.stop();
+        }
+    }
+
+    /**
+     * Creates hospitals, doctors and a few appointments to read and search.
+     */
+    void seed(int doctors) throws IOException
+    {
+        Random random = new Random(SyntheticData.SEED);
+        for(int i = 0; i < Math.max(1, doctors / 20); i++)
+            this.hospitalIds.add(this.create("/hospitals", "{\"name\":\"" + SyntheticData.hospital(random).name + "\"}"));
+        String[] hospitals = this.hospitalIds.toArray(new String[this.hospitalIds.size()]);
+        for(int i = 0; i < doctors; i++)
+        {
+            Doctor doctor = SyntheticData.doctor(random, hospitals);
+            this.doctorIds.add(this.create("/doctors", "{\"name\":\"" + doctor.name + "\",\"lastName\":\"" + doctor.lastName + "\",\"specialization\":\"" + doctor.specialization
+                    + "\",\"hospitals\":[\"" + doctor.hospitals[0] + "\",\"" + doctor.hospitals[1] + "\"]}"));
+        }
+        for(int i = 0; i < doctors * 5; i++)
+            this.send(Operation.BOOK, random);
+    }
+
+    /**
+     * Sends requests on schedule until the warm-up and measured periods are over.
+     *
+     * @return the number of requests sent during the measured period.
+     */
+    long run(int rate, int warmupSeconds, int durationSeconds, int threads) throws InterruptedException
+    {
+        final double interval = (double) TimeUnit.SECONDS.toNanos(1) / rate;
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        final long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        final AtomicLong next = new AtomicLong();
+        final AtomicLong measured = new AtomicLong();
+
+        Thread[] workers = new Thread[threads];
+        for(int t = 0; t < threads; t++)
+        {
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Stats[] local = new Stats[LoadTest.this.stats.length];
+                    for(int i = 0; i < local.length; i++)
+                        local[i] = new Stats();
+                    while(true)
+                    {
+                        long i = next.getAndIncrement();
+                        long due = start + (long) (i * interval);
+                        if(due >= end)
+                            break;
+                        long now;
+                        while((now = System.nanoTime()) < due)
+                            LockSupport.parkNanos(due - now);
+
+                        Random random = new Random(mix(SyntheticData.SEED + i)); // the i-th request is the same on every run
+                        Operation operation = LoadTest.this.mix[random.nextInt(LoadTest.this.mix.length)];
+                        boolean ok;
+                        try
+                        {
+                            ok = LoadTest.this.send(operation, random);
+                        }
+                        catch(IOException e)
+                        {
+                            ok = false;
+                        }
+                        long done = System.nanoTime();
+
+                        if(due < measureFrom)
+                            continue;
+                        measured.incrementAndGet();
+                        Stats stats = local[operation.ordinal()];
+                        stats.corrected.record(TimeUnit.NANOSECONDS.toMicros(done - due));
+                        stats.uncorrected.record(TimeUnit.NANOSECONDS.toMicros(done - now));
+                        if(!ok)
+                            stats.errors++;
+                    }
+                    for(int i = 0; i < local.length; i++)
+                        LoadTest.this.stats[i].add(local[i]);
+                }
+            }, "load-" + t);
+            workers[t].start();
+        }
+        for(Thread worker : workers)
+            worker.join();
+        return measured.get();
+    }
+
+    void report(long sent, int durationSeconds)
+    {
+        System.out.println();
+        System.out.println(String.format("%-8s %9s %7s %9s %9s %9s %9s %9s %13s", "op", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "raw p99 ms"));
+        LatencyHistogram all = new LatencyHistogram();
+        LatencyHistogram allUncorrected = new LatencyHistogram();
+        long errors = 0;
+        for(Operation operation : Operation.values())
+        {
+            Stats stats = this.stats[operation.ordinal()];
+            if(stats.corrected.getCount() == 0)
+                continue;
+            row(operation.name().toLowerCase(), stats.corrected, stats.uncorrected, stats.errors, durationSeconds);
+            all.add(stats.corrected);
+            allUncorrected.add(stats.uncorrected);
+            errors += stats.errors;
+        }
+        row("all", all, allUncorrected, errors, durationSeconds);
+        System.out.println();
+        System.out.println("Latency is measured from when each request was due (coordinated omission corrected); raw p99 is from when it was sent.");
+    }
+
+    private static void row(String name, LatencyHistogram corrected, LatencyHistogram uncorrected, long errors, int durationSeconds)
+    {
+        System.out.println(String.format("%-8s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %13.2f", name, corrected.getCount(), errors, (double) corrected.getCount() / durationSeconds,
+                corrected.percentile(0.5) / 1000.0, corrected.percentile(0.99) / 1000.0, corrected.percentile(0.999) / 1000.0, corrected.getMax() / 1000.0,
+                uncorrected.percentile(0.99) / 1000.0));
+    }
+
+    /**
+     * Sends one request of the given kind.
+     *
+     * @return true if it got a 2xx response.
+     */
+    boolean send(Operation operation, Random random) throws IOException
+    {
+        String doctorId = this.doctorIds.get(random.nextInt(this.doctorIds.size()));
+        switch(operation)
+        {
+            case READ:
+                return this.request("GET", "/doctors/" + doctorId, null) / 100 == 2;
+            case SEARCH:
+                String lastName = SyntheticData.pick(random, SyntheticData.LAST_NAMES);
+                switch(random.nextInt(3))
+                {
+                    case 0:
+                        return this.request("GET", "/doctors/lastName/" + encode(lastName.substring(0, 4)) + "?limit=20", null) / 100 == 2;
+                    case 1:
+                        return this.request("GET", "/doctors/specialization/" + encode(SyntheticData.pick(random, SyntheticData.SPECIALIZATIONS)) + "?limit=20", null) / 100 == 2;
+                    default:
+                        return this.request("GET", "/appointments/patientName/" + encode(lastName.substring(1, 5)) + "?limit=20", null) / 100 == 2;
+                }
+            default:
+                String hospitalId = this.hospitalIds.get(random.nextInt(this.hospitalIds.size()));
+                String patientName = SyntheticData.pick(random, SyntheticData.FIRST_NAMES) + " " + SyntheticData.pick(random, SyntheticData.LAST_NAMES);
+                String date = String.format("2014-%02d-%02d", 1 + random.nextInt(12), 1 + random.nextInt(28));
+                return this.request("POST", "/appointments", "{\"patientName\":\"" + patientName + "\",\"doctorId\":\"" + doctorId + "\",\"hospitalId\":\"" + hospitalId
+                        + "\",\"appointmentDate\":\"" + date + "\"}") / 100 == 2;
+        }
+    }
+
+    private String create(String path, String json) throws IOException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int status = this.request("POST", path, json, body);
+        Matcher matcher = NEW_ID.matcher(new String(body.toByteArray(), StandardCharsets.UTF_8));
+        if(status != 201 || !matcher.find())
+            throw new IOException("POST " + path + " returned " + status + ": " + body);
+        return matcher.group(1);
+    }
+
+    private int request(String method, String path, String json) throws IOException
+    {
+        return this.request(method, path, json, null);
+    }
+
+    /**
+     * Sends a request and reads the whole response, so the connection goes back to the
+     * keep-alive pool for the next request on this thread.
+     */
+    private int request(String method, String path, String json, OutputStream body) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(this.baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Accept", json == null ? "application/json" : "text/plain");
+        if(json != null)
+        {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try(OutputStream out = connection.getOutputStream())
+            {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if(in != null)
+        {
+            try
+            {
+                byte[] buffer = new byte[8192];
+                int read;
+                while((read = in.read(buffer)) != -1)
+                {
+                    if(body != null)
+                        body.write(buffer, 0, read);
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        return status;
+    }
+
+    private static String encode(String value) throws IOException
+    {
+        return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+    }
+
+    /**
+     * Expands the weights into a table with one entry per unit of weight.
+     */
+    static Operation[] parseMix(String spec)
+    {
+        List<Operation> table = new ArrayList<Operation>();
+        for(String entry : spec.split(","))
+        {
+            String[] parts = entry.trim().split("=");
+            if(parts.length != 2)
+                throw new IllegalArgumentException("LOADTEST_MIX entries must look like read=60 but found '" + entry + "'");
+            Operation operation = Operation.valueOf(parts[0].trim().toUpperCase());
+            for(int i = Integer.parseInt(parts[1].trim()); i > 0; i--)
+                table.add(operation);
+        }
+        if(table.isEmpty())
+            throw new IllegalArgumentException("LOADTEST_MIX has no operations with a weight above 0");
+        return table.toArray(new Operation[table.size()]);
+    }
+
+    /**
+     * Spreads consecutive request numbers over unrelated seeds (the MurmurHash3 finalizer).
+     */
+    private static long mix(long value)
+    {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+}
@@ -0,0 +1,151 @@
+package lk.sliit.dcws.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lk.sliit.dcws.Appointment;
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.Hospital;
+import lk.sliit.dcws.store.DataStore;
+import lk.sliit.dcws.store.IdAllocator;
+import lk.sliit.dcws.store.Snapshot;
+import lk.sliit.dcws.store.WriteAheadLog;
+
+/**
+ * Measures a cold start that has to replay everything from the write-ahead log against one that
+ * loads a snapshot of the same data, and how long writing that snapshot takes. There is one
+ * doctor per 10 appointments and one hospital per 1000.
+ *
+ * Each call is one start or one snapshot, so these are timed one at a time.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+    private static final int BATCH = 10000;
+
+    @Param({ "100000", "1000000" })
+    public int appointments;
+
+    private File logDir;
+    private File snapshotDir;
+
+    /**
+     * The store writeSnapshot() writes, loaded once and changed before every call.
+     */
+    @State(Scope.Benchmark)
+    public static class Loaded {
+        DataStore store;
+
+        @Setup(Level.Invocation)
+        public void change(SnapshotBenchmark benchmark)
+        {
+            if(this.store == null)
+                this.store = open(benchmark.snapshotDir, new File(benchmark.snapshotDir, "snapshot.bin"));
+            Hospital hospital = new Hospital();
+            hospital.name = "Changed";
+            this.store.hospitals().create(hospital); // a snapshot is only written if something changed
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        this.logDir = Files.createTempDirectory("snapshot-benchmark-log").toFile();
+        this.snapshotDir = Files.createTempDirectory("snapshot-benchmark").toFile();
+        fill(open(this.logDir, null), this.appointments);
+        Files.copy(new File(this.logDir, "wal.log").toPath(), new File(this.snapshotDir, "wal.log").toPath());
+        open(this.snapshotDir, new File(this.snapshotDir, "snapshot.bin")).snapshot();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        for(File dir : new File[] { this.logDir, this.snapshotDir })
+        {
+            for(File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+    @Benchmark
+    public DataStore replayLog()
+    {
+        return open(this.logDir, null);
+    }
+
+    @Benchmark
+    public DataStore loadSnapshot()
+    {
+        return open(this.snapshotDir, new File(this.snapshotDir, "snapshot.bin"));
+    }
+
+    @Benchmark
+    public Snapshot writeSnapshot(Loaded loaded)
+    {
+        return loaded.store.snapshot();
+    }
+
+    private static DataStore open(File dir, File snapshotFile)
+    {
+        WriteAheadLog log = WriteAheadLog.open(new File(dir, "wal.log"), WriteAheadLog.Durability.BATCH, 0);
+        return new DataStore(new IdAllocator("doc", null), new IdAllocator("hos", null), new IdAllocator("app", null), log, snapshotFile);
+    }
+
+    /**
+     * Creates the data in batches, so building it takes one log commit per batch instead of
+     * one per object.
+     */
+    private static void fill(DataStore store, int appointments)
+    {
+        Random random = new Random(SyntheticData.SEED);
+        List<Hospital> hospitals = new ArrayList<Hospital>();
+        for(int i = 0; i < Math.max(1, appointments / 1000); i++)
+            hospitals.add(SyntheticData.hospital(random));
+        List<String> hospitalIds = store.hospitals().createAll(hospitals);
+        String[] hospitalIdArray = hospitalIds.toArray(new String[hospitalIds.size()]);
+
+        List<String> doctorIds = new ArrayList<String>();
+        int doctors = Math.max(1, appointments / 10);
+        while(doctorIds.size() < doctors)
+        {
+            List<Doctor> batch = new ArrayList<Doctor>();
+            for(int i = 0; i < Math.min(BATCH, doctors - doctorIds.size()); i++)
+                batch.add(SyntheticData.doctor(random, hospitalIdArray));
+            doctorIds.addAll(store.doctors().createAll(batch));
+        }
+        String[] doctorIdArray = doctorIds.toArray(new String[doctorIds.size()]);
+
+        for(int created = 0; created < appointments; created += BATCH)
+        {
+            List<Appointment> batch = new ArrayList<Appointment>();
+            for(int i = 0; i < Math.min(BATCH, appointments - created); i++)
+                batch.add(SyntheticData.appointment(random, doctorIdArray, hospitalIdArray));
+            store.appointments().createAll(batch);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package lk.sliit.dcws.bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lk.sliit.dcws.Appointment;
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.store.DataStore;
+import lk.sliit.dcws.store.IdAllocator;
+import lk.sliit.dcws.store.Page;
+
+/**
+ * The store operations behind the resource methods: findDoctor(), the ID generator that replaced
+ * getNextAppointmentId(), the specialization, last name and patient name searches and
+ * createAppointment(). Each is run against stores of 1k to 1M records.
+ *
+ * Searches return one page of up to limit results, as the endpoints do when a client pages
+ * through them. Run with -p limit=0 to time returning every match instead.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class StoreBenchmark {
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int size;
+
+    @Param({ "50" })
+    public int limit;
+
+    private DataStore store;
+    private String[] doctorIds;
+    private IdAllocator appointmentIds;
+
+    /**
+     * What each benchmark thread looks up. Every thread starts from the same seed, so the
+     * sequence of queries is the same on every run.
+     */
+    @State(Scope.Thread)
+    public static class Queries {
+        final Random random = new Random(SyntheticData.SEED);
+        final String[] hospitalIds = { "hos001", "hos002", "hos003" };
+    }
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        this.store = SyntheticData.store(this.size);
+        this.doctorIds = new String[this.size];
+        int i = 0;
+        for(Doctor doctor : this.store.doctors().values())
+            this.doctorIds[i++] = doctor.id.toUpperCase(); // clients don't always send the canonical case
+        this.appointmentIds = new IdAllocator("app", null);
+    }
+
+    @Benchmark
+    public Doctor findDoctor(Queries queries)
+    {
+        return this.store.doctors().get(this.doctorIds[queries.random.nextInt(this.size)]);
+    }
+
+    @Benchmark
+    public String nextAppointmentId()
+    {
+        return this.appointmentIds.next();
+    }
+
+    @Benchmark
+    public List<Doctor> findBySpecialization(Queries queries)
+    {
+        String specialization = SyntheticData.pick(queries.random, SyntheticData.SPECIALIZATIONS);
+        return this.store.doctors().findBySpecialization(specialization.substring(0, 4), null, this.limit).getItems();
+    }
+
+    @Benchmark
+    public List<Doctor> findByLastName(Queries queries)
+    {
+        String lastName = SyntheticData.pick(queries.random, SyntheticData.LAST_NAMES);
+        return this.store.doctors().findByLastName(lastName.substring(0, 4), null, this.limit).getItems();
+    }
+
+    @Benchmark
+    public Page<Appointment> findByPatientName(Queries queries)
+    {
+        String lastName = SyntheticData.pick(queries.random, SyntheticData.LAST_NAMES);
+        return this.store.appointments().findByPatientName(lastName.substring(1, 5), null, this.limit);
+    }
+
+    /**
+     * Keeps adding to the store, so it ends the trial somewhat larger than size.
+     */
+    @Benchmark
+    public Appointment createAppointment(Queries queries)
+    {
+        return this.store.appointments().create(SyntheticData.appointment(queries.random, this.doctorIds, queries.hospitalIds));
+    }
+}
@@ -0,0 +1,107 @@
+package lk.sliit.dcws.bench;
+
+import java.util.Random;
+
+import lk.sliit.dcws.Appointment;
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.Hospital;
+import lk.sliit.dcws.store.DataStore;
+import lk.sliit.dcws.store.IdAllocator;
+
+/**
+ * Builds reproducible data sets for the benchmarks. Everything is drawn from a Random with a
+ * fixed seed, so the same size always gives the same doctors, hospitals and appointments, with
+ * the same IDs, and runs on different machines or commits can be compared.
+ */
+public final class SyntheticData {
+
+    public static final long SEED = 20140501L;
+
+    static final String[] FIRST_NAMES = { "Nimal", "Kamal", "Sunil", "Anura", "Saman", "Chaminda", "Ruwan", "Dilani", "Nadeesha", "Kumari", "Sanduni", "Tharindu", "Ishara", "Lasantha", "Upul", "Malini" };
+    static final String[] LAST_NAMES = { "Perera", "Silva", "Fernando", "Jayasekara", "Jayaratna", "Jayawardena", "Bandara", "Dissanayake", "Wickramasinghe", "Rajapaksa", "Gunawardena", "Herath", "Kumara", "Senanayake", "Ratnayake", "Abeysekara" };
+    static final String[] SPECIALIZATIONS = { "Cardiologist", "Dermatologist", "ENT Surgeon", "Endocrinologist", "Gastroenterologist", "General Physician", "Gynaecologist", "Neurologist", "Oncologist", "Paediatrician", "Psychiatrist", "Radiologist", "Rheumatologist", "Urologist" };
+    static final String[] TOWNS = { "Colombo", "Kandy", "Galle", "Jaffna", "Kurunegala", "Matara", "Negombo", "Anuradhapura" };
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Fills a new in-memory DataStore with the given number of doctors and of appointments,
+     * and one hospital per 50 doctors.
+     */
+    public static DataStore store(int size)
+    {
+        DataStore store = new DataStore(new IdAllocator("doc", null), new IdAllocator("hos", null), new IdAllocator("app", null));
+        Random random = new Random(SEED);
+
+        String[] hospitalIds = new String[Math.max(1, size / 50)];
+        for(int i = 0; i < hospitalIds.length; i++)
+            hospitalIds[i] = store.hospitals().create(hospital(random)).id;
+        String[] doctorIds = new String[size];
+        for(int i = 0; i < size; i++)
+            doctorIds[i] = store.doctors().create(doctor(random, hospitalIds)).id;
+        for(int i = 0; i < size; i++)
+            store.appointments().create(appointment(random, doctorIds, hospitalIds));
+        return store;
+    }
+
+    public static Doctor[] doctors(int count)
+    {
+        Random random = new Random(SEED);
+        String[] hospitalIds = { "hos001", "hos002", "hos003" };
+        Doctor[] doctors = new Doctor[count];
+        for(int i = 0; i < count; i++)
+        {
+            doctors[i] = doctor(random, hospitalIds);
+            doctors[i].id = String.format("doc%03d", i + 1);
+        }
+        return doctors;
+    }
+
+    public static Appointment[] appointments(int count)
+    {
+        Random random = new Random(SEED);
+        String[] doctorIds = { "doc001", "doc002", "doc003", "doc004", "doc005" };
+        String[] hospitalIds = { "hos001", "hos002", "hos003" };
+        Appointment[] appointments = new Appointment[count];
+        for(int i = 0; i < count; i++)
+        {
+            appointments[i] = appointment(random, doctorIds, hospitalIds);
+            appointments[i].id = String.format("app%03d", i + 1);
+        }
+        return appointments;
+    }
+
+    public static Hospital hospital(Random random)
+    {
+        Hospital hospital = new Hospital();
+        hospital.name = pick(random, LAST_NAMES) + " Hospital " + pick(random, TOWNS);
+        return hospital;
+    }
+
+    public static Doctor doctor(Random random, String[] hospitalIds)
+    {
+        Doctor doctor = new Doctor();
+        doctor.lastName = pick(random, LAST_NAMES);
+        doctor.name = "Dr. " + pick(random, FIRST_NAMES) + " " + doctor.lastName;
+        doctor.specialization = pick(random, SPECIALIZATIONS);
+        doctor.hospitals = new String[] { pick(random, hospitalIds), pick(random, hospitalIds) };
+        return doctor;
+    }
+
+    public static Appointment appointment(Random random, String[] doctorIds, String[] hospitalIds)
+    {
+        Appointment appointment = new Appointment();
+        appointment.patientName = pick(random, FIRST_NAMES) + " " + pick(random, LAST_NAMES);
+        appointment.doctorId = pick(random, doctorIds);
+        appointment.hospitalId = pick(random, hospitalIds);
+        appointment.appointmentDate = String.format("2014-%02d-%02d", 1 + random.nextInt(12), 1 + random.nextInt(28));
+        appointment.appointmentNumber = 1 + random.nextInt(40);
+        return appointment;
+    }
+
+    static String pick(Random random, String[] values)
+    {
+        return values[random.nextInt(values.length)];
+    }
+}
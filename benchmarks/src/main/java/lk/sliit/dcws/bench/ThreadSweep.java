@@ -0,0 +1,52 @@
+package lk.sliit.dcws.bench;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for each thread count and prints one table at the end, since JMH
+ * itself takes a single thread count per run.
+ *
+ * Run with: java -cp target/benchmarks.jar lk.sliit.dcws.bench.ThreadSweep [threads] [regex] [size]
+ * e.g. {@code ThreadSweep 1,4,16 StoreBenchmark.find 10000,1000000}. The defaults are 1,2,4,8,
+ * every benchmark and every size.
+ */
+public class ThreadSweep {
+
+    public static void main(String[] args) throws RunnerException {
+        String threads = args.length > 0 ? args[0] : "1,2,4,8";
+        String include = args.length > 1 ? args[1] : "lk.sliit.dcws.bench";
+
+        List<String> rows = new ArrayList<String>();
+        for(String count : threads.split(","))
+        {
+            OptionsBuilder options = new OptionsBuilder();
+            options.include(include).threads(Integer.parseInt(count.trim()));
+            if(args.length > 2)
+                options.param("size", args[2].split(","));
+            Options built = options.build();
+            Collection<RunResult> results = new Runner(built).run();
+            for(RunResult result : results)
+            {
+                rows.add(String.format("%-50s %8s %8s %14.1f %s",
+                        result.getParams().getBenchmark().replace("lk.sliit.dcws.bench.", ""),
+                        result.getParams().getParam("size"),
+                        count.trim(),
+                        result.getPrimaryResult().getScore(),
+                        result.getPrimaryResult().getScoreUnit()));
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-50s %8s %8s %14s %s", "benchmark", "size", "threads", "score", "unit"));
+        for(String row : rows)
+            System.out.println(row);
+    }
+}
@@ -0,0 +1,80 @@
+package lk.sliit.dcws;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import lk.sliit.dcws.json.JsonProvider;
+import lk.sliit.dcws.store.DoctorStore;
+import lk.sliit.dcws.store.IdAllocator;
+
+public class BulkTest {
+
+    /**
+     * An item with a field too long to be logged fails on its own with 400, and the items around
+     * it are still created in one batch.
+     */
+    @Test
+    public void testFieldTooLong() throws IOException {
+        String tooLong = new String(new char[70000]).replace('\0', 'a');
+        String body = "[{\"name\": \"Nimal Perera\"}, {\"name\": \"" + tooLong + "\"}, {\"name\": \"Kamal Silva\"}]";
+        Bulk<Doctor> bulk = Bulk.array(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), Doctor.class, new JsonProviders());
+        assertEquals(2, bulk.getItems().size());
+        assertEquals(1, bulk.getFailed());
+
+        DoctorStore store = new DoctorStore(new IdAllocator("doc", null));
+        List<String> ids = store.createAll(bulk.getItems());
+        BulkResult[] results = (BulkResult[]) bulk.created(ids).getEntity();
+        assertEquals(3, results.length);
+        assertEquals(201, results[0].status);
+        assertEquals(400, results[1].status);
+        assertNull(results[1].id);
+        assertTrue(results[1].error, results[1].error.startsWith("name is longer than"));
+        assertEquals(201, results[2].status);
+        assertEquals(2, store.size());
+    }
+
+    /**
+     * Hands out the application's JSON reader, as Jersey does for the resources.
+     */
+    private static final class JsonProviders implements Providers {
+        private final JsonProvider json = new JsonProvider();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> MessageBodyReader<T> getMessageBodyReader(Class<T> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+            return (MessageBodyReader<T>) this.json;
+        }
+
+        @Override
+        public <T> MessageBodyWriter<T> getMessageBodyWriter(Class<T> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+            return null;
+        }
+
+        @Override
+        public <T extends Throwable> ExceptionMapper<T> getExceptionMapper(Class<T> type) {
+            return null;
+        }
+
+        @Override
+        public <T> ContextResolver<T> getContextResolver(Class<T> contextType, MediaType mediaType) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package lk.sliit.dcws;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionTest {
+
+    @Test
+    public void testNegotiate() {
+        assertEquals("gzip", Compression.negotiate("gzip, deflate, br"));
+        assertEquals("gzip", Compression.negotiate("deflate;q=0.5, gzip;q=0.8"));
+        assertEquals("gzip", Compression.negotiate("*"));
+        assertEquals("deflate", Compression.negotiate("gzip;q=0, deflate"));
+        assertEquals("deflate", Compression.negotiate("gzip;q=0, *"));
+        assertEquals("deflate", Compression.negotiate("GZIP;Q=0, *;q=0.5"));
+        assertNull(Compression.negotiate("gzip;q=0, deflate;q=0, *"));
+        assertNull(Compression.negotiate("*;q=0"));
+        assertEquals("gzip", Compression.negotiate("gzip, *;q=0"));
+        assertNull(Compression.negotiate("identity"));
+        assertNull(Compression.negotiate(null));
+    }
+
+    /**
+     * A body under the threshold goes out as it is; a larger one is compressed, announced in the
+     * headers and comes back the same, in both codings and across flushes.
+     */
+    @Test
+    public void testThreshold() throws IOException {
+        byte[] small = "[{\"id\":\"doc001\"}]".getBytes(StandardCharsets.UTF_8);
+        MultivaluedHashMap<String, Object> headers = new MultivaluedHashMap<String, Object>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressingOutputStream compressing = new CompressingOutputStream(out, Compression.GZIP, 1024, headers);
+        compressing.write(small);
+        compressing.flush();
+        compressing.finish();
+        assertFalse(compressing.isCompressed());
+        assertArrayEquals(small, out.toByteArray());
+        assertNull(headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < 2000; i++)
+            text.append("ID = doc").append(i).append(", Name = Nimal Perera, Specialization = Cardiologist\n");
+        byte[] large = text.toString().getBytes(StandardCharsets.UTF_8);
+        for(String encoding : new String[] { Compression.GZIP, Compression.DEFLATE })
+        {
+            headers.clear();
+            headers.putSingle(HttpHeaders.CONTENT_LENGTH, large.length);
+            out.reset();
+            compressing = new CompressingOutputStream(out, encoding, 1024, headers);
+            compressing.write(large, 0, 500);
+            compressing.write(large, 500, 1000);
+            compressing.flush();
+            compressing.write(large, 1500, large.length - 1500);
+            compressing.finish();
+
+            assertTrue(compressing.isCompressed());
+            assertEquals(encoding, headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+            assertNull(headers.getFirst(HttpHeaders.CONTENT_LENGTH));
+            assertEquals(large.length, compressing.getBytesIn());
+            assertEquals(out.size(), compressing.getBytesOut());
+            assertTrue(out.size() < large.length / 10);
+            assertArrayEquals(large, inflate(encoding, out.toByteArray()));
+        }
+        assertArrayEquals(large, inflate(Compression.GZIP, Compression.gzip(large)));
+    }
+
+    private static byte[] inflate(String encoding, byte[] body) throws IOException
+    {
+        InputStream in = encoding.equals(Compression.GZIP) ? new GZIPInputStream(new ByteArrayInputStream(body)) : new InflaterInputStream(new ByteArrayInputStream(body));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while((read = in.read(buffer)) > 0)
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,203 @@
+package lk.sliit.dcws.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import org.eclipse.persistence.jaxb.rs.MOXyJsonProvider;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import lk.sliit.dcws.Appointment;
+import lk.sliit.dcws.BulkResult;
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.Hospital;
+
+public class JsonProviderTest {
+
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+    private static final Type DOCTOR_LIST = new GenericType<List<Doctor>>() { }.getType();
+
+    private final MOXyJsonProvider moxy = new MOXyJsonProvider();
+    private final JsonProvider provider = new JsonProvider();
+
+    /**
+     * Every character on its own, escaped or not, comes out as MOXy wrote it.
+     */
+    @Test
+    public void testEscapesMatchMoxy() throws IOException {
+        Hospital hospital = new Hospital();
+        for(int c = 0; c < 0x10000; c++)
+        {
+            hospital.name = "a" + (char) c + "b";
+            assertEquals("U+" + Integer.toHexString(c), write(this.moxy, new Hospital[] { hospital }, Hospital[].class, Hospital[].class),
+                    write(this.provider, new Hospital[] { hospital }, Hospital[].class, Hospital[].class));
+        }
+    }
+
+    /**
+     * Random objects, with null and empty members, single, in arrays and in lists, come out as
+     * MOXy wrote them.
+     */
+    @Test
+    public void testObjectsMatchMoxy() throws IOException {
+        Random random = new Random(11);
+        for(int i = 0; i < 500; i++)
+        {
+            Doctor doctor = new Doctor();
+            doctor.id = text(random);
+            doctor.name = text(random);
+            doctor.lastName = text(random);
+            doctor.specialization = text(random);
+            int hospitals = random.nextInt(4);
+            if(hospitals > 0)
+            {
+                doctor.hospitals = new String[hospitals - 1];
+                for(int j = 0; j < doctor.hospitals.length; j++)
+                    doctor.hospitals[j] = text(random);
+            }
+            Appointment appointment = new Appointment();
+            appointment.id = text(random);
+            appointment.patientName = text(random);
+            appointment.appointmentDate = text(random);
+            appointment.appointmentNumber = random.nextInt() >> random.nextInt(32);
+            BulkResult result = new BulkResult();
+            result.index = i;
+            result.status = 201;
+            result.id = text(random);
+            result.error = text(random);
+
+            assertSame(new Doctor[] { doctor, doctor }, Doctor[].class, Doctor[].class);
+            assertSame(doctor, Doctor.class, Doctor.class);
+            assertSame(Arrays.asList(doctor), List.class, DOCTOR_LIST);
+            assertSame(new Appointment[] { appointment }, Appointment[].class, Appointment[].class);
+            assertSame(new BulkResult[] { result }, BulkResult[].class, BulkResult[].class);
+        }
+        assertSame(new Doctor[0], Doctor[].class, Doctor[].class);
+    }
+
+    /**
+     * Request bodies are read the way MOXy read them, quirks included.
+     */
+    @Test
+    public void testReadsLikeMoxy() throws IOException {
+        Doctor doctor = read(Doctor.class, Doctor.class, "{ \"name\" : \"Nimal \\u0050erera\", \"extra\": {\"k\": [1, {}]}, \"lastName\": 5, \"specialization\": null, \"hospitals\": \"hos001\" }");
+        assertEquals("", doctor.id);
+        assertEquals("Nimal Perera", doctor.name);
+        assertEquals("5", doctor.lastName);
+        assertNull(doctor.specialization);
+        assertArrayEquals(new String[] { "hos001" }, doctor.hospitals);
+        assertNull(read(Doctor.class, Doctor.class, "{\"hospitals\": []}").hospitals);
+
+        assertEquals(7, read(Appointment.class, Appointment.class, "{\"appointmentNumber\": \"7\"}").appointmentNumber);
+        assertEquals(-1, read(Appointment.class, Appointment.class, "{\"appointmentNumber\": 7.5}").appointmentNumber);
+
+        List<?> doctors = read(List.class, DOCTOR_LIST, "[{\"name\": \"a\"}, null, 1, {\"name\": \"b\"}]");
+        assertEquals(4, doctors.size());
+        assertEquals("a", ((Doctor) doctors.get(0)).name);
+        assertNull(doctors.get(1));
+        assertNull(doctors.get(2));
+        assertEquals("b", ((Doctor) doctors.get(3)).name);
+    }
+
+    @Test
+    public void testBadSyntax() throws IOException {
+        String[] bodies = { "", "nonsense", "[{\"name\": \"a\"}]", "{\"name\": \"a\" \"id\": \"b\"}", "{\"name\": \"a", "{\"name\": tru}" };
+        for(String body : bodies)
+        {
+            try
+            {
+                read(Doctor.class, Doctor.class, body);
+                fail("read " + body);
+            }
+            catch(BadRequestException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * An array is split into the text of its elements, whatever they hold, and only a body that
+     * is not an array or whose brackets do not match is refused.
+     */
+    @Test
+    public void testArrayReader() throws IOException {
+        String body = " [ {\"name\": \"a\"}, 42,null , {\"name\": {\"x\": [1, \"]}\\\"\"]}},\"s\", {\"name\": tru} ] ";
+        assertEquals(Arrays.asList("{\"name\": \"a\"}", "42", "null", "{\"name\": {\"x\": [1, \"]}\\\"\"]}}", "\"s\"", "{\"name\": tru}"), elements(body));
+        assertEquals(Arrays.asList(), elements("[]"));
+
+        String[] bodies = { "", "{\"name\": \"a\"}", "[{\"a\": [1}]", "[{\"a\": 1}", "[1,]", "[{\"a\": 1} {\"b\": 2}]" };
+        for(String bad : bodies)
+        {
+            try
+            {
+                elements(bad);
+                fail("split " + bad);
+            }
+            catch(BadRequestException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    private static List<String> elements(String body) throws IOException
+    {
+        JsonArrayReader reader = new JsonArrayReader(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        List<String> elements = new ArrayList<String>();
+        while(reader.hasNext())
+            elements.add(reader.next());
+        assertFalse(reader.hasNext());
+        return elements;
+    }
+
+    private void assertSame(Object entity, Class<?> type, Type genericType) throws IOException
+    {
+        assertEquals(write(this.moxy, entity, type, genericType), write(this.provider, entity, type, genericType));
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private <T> T read(Class<T> type, Type genericType, String body) throws IOException
+    {
+        MessageBodyReader reader = this.provider;
+        return (T) reader.readFrom(type, genericType, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<String, String>(),
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String write(MessageBodyWriter<Object> writer, Object entity, Class<?> type, Type genericType) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.writeTo(entity, type, genericType, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<String, Object>(), bytes);
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String text(Random random)
+    {
+        int length = random.nextInt(10) - 1;
+        if(length < 0)
+            return null;
+        StringBuilder text = new StringBuilder(length);
+        for(int i = 0; i < length; i++)
+            text.append(random.nextBoolean() ? (char) ('a' + random.nextInt(26)) : (char) random.nextInt(0x10000));
+        return text.toString();
+    }
+}
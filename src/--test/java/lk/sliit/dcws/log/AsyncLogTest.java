@@ -0,0 +1,105 @@
+package lk.sliit.dcws.log;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncLogTest {
+
+    @Test
+    public void testWritesKeyValueLines() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncLog log = new AsyncLog(16, out);
+        LogEndpoint endpoint = new LogEndpoint("appointments.byPatientName", 1, log);
+
+        endpoint.log("format", "json", "patientName", "Nimal \"Nim\" Perera");
+        endpoint.log("format", "text", "patientName", null);
+        assertEquals(2, log.drain());
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].matches("time=\\d{4}-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\d\\.\\d{3}Z endpoint=appointments.byPatientName format=json patientName=\"Nimal \\\\\"Nim\\\\\" Perera\""));
+        assertTrue(lines[1], lines[1].endsWith(" format=text patientName=null"));
+        assertEquals(2, log.getWritten());
+    }
+
+    /**
+     * A full ring drops new records instead of waiting, and the writer reports how many it lost.
+     */
+    @Test
+    public void testDropsWhenFull() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncLog log = new AsyncLog(8, out);
+        LogEndpoint endpoint = new LogEndpoint("doctors.get", 1, log);
+
+        for(int i = 0; i < 20; i++)
+            endpoint.log("id", i);
+        assertEquals(12, log.getDropped());
+        assertEquals(8, log.drain());
+        assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8).contains(" endpoint=log dropped=12\n"));
+
+        // the slots are handed back, so the ring keeps working after wrapping around
+        for(int round = 0; round < 5; round++)
+        {
+            for(int i = 0; i < 8; i++)
+                assertTrue(log.offer("doctors.get", 1, "id", i, null, null, null, null));
+            assertFalse(log.offer("doctors.get", 1, "id", 8, null, null, null, null));
+            assertEquals(8, log.drain());
+        }
+        assertEquals(48, log.getWritten());
+    }
+
+    /**
+     * Records queued after close(), as a shutdown hook running next to the log's own does, are
+     * still written.
+     */
+    @Test
+    public void testWritesAfterClose() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncLog log = new AsyncLog(16, out);
+        LogEndpoint endpoint = new LogEndpoint("store.snapshot", 1, log);
+        log.start();
+
+        endpoint.log("event", "loaded");
+        log.close();
+        endpoint.log("event", "written");
+        String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(text, text.contains(" event=loaded\n"));
+        assertTrue(text, text.contains(" event=written\n"));
+        assertEquals(2, log.getWritten());
+    }
+
+    @Test
+    public void testSampling() {
+        AsyncLog log = new AsyncLog(1 << 14, new ByteArrayOutputStream());
+        new LogEndpoint("doctors.list", 0, log).log("format", "text");
+        assertEquals(0, log.drain());
+
+        LogEndpoint sampled = new LogEndpoint("doctors.list", 0.1, log);
+        for(int i = 0; i < 10000; i++)
+            sampled.log("format", "text");
+        int written = log.drain();
+        assertTrue(String.valueOf(written), written > 800 && written < 1200);
+    }
+
+    @Test
+    public void testRates() {
+        Map<String, Double> rates = RequestLog.parseRates(" *=0.01, doctors=0.5 ,doctors.create=1,hospitals.get=7");
+        assertEquals(1, RequestLog.rateOf(rates, "doctors.create"), 0);
+        assertEquals(0.5, RequestLog.rateOf(rates, "doctors.list"), 0);
+        assertEquals(0.01, RequestLog.rateOf(rates, "appointments.list"), 0);
+        assertEquals(1, RequestLog.rateOf(rates, "hospitals.get"), 0);
+        assertEquals(1, RequestLog.rateOf(Collections.<String, Double>emptyMap(), "doctors.list"), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadRate() {
+        RequestLog.parseRates("doctors=often");
+    }
+}
@@ -0,0 +1,60 @@
+package lk.sliit.dcws.metrics;
+
+import java.io.StringWriter;
+import java.nio.file.Files;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import lk.sliit.dcws.DoctorResource;
+import lk.sliit.dcws.MyResource;
+
+public class MetricsTest {
+
+    /**
+     * The store metrics come from DataStore.get(); keep its files out of the working tree.
+     */
+    @BeforeClass
+    public static void useTemporaryDataDir() throws Exception {
+        System.setProperty("DATA_DIR", Files.createTempDirectory("data").toString());
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        Histogram histogram = new Histogram(new long[] { 10, 100, 1000 });
+        for(long value : new long[] { 0, 10, 11, 100, 999, 1000, 1001, 50000 })
+            histogram.record(value);
+        assertArrayEquals(new long[] { 2, 2, 2, 2 }, histogram.getCounts());
+        assertEquals(53121, histogram.getSum());
+    }
+
+    @Test
+    public void testPathTemplate() throws Exception {
+        assertEquals("/doctors/{id}", Metrics.path(DoctorResource.class, DoctorResource.class.getMethod("getDoctor", String.class)));
+        assertEquals("/doctors/hospital/{id}", Metrics.path(DoctorResource.class, DoctorResource.class.getMethod("getDoctorsByHospitalJson", String.class, String.class, int.class, javax.ws.rs.core.UriInfo.class)));
+        assertEquals("/myresource", Metrics.path(MyResource.class, MyResource.class.getMethod("getIt")));
+    }
+
+    @Test
+    public void testPrometheusText() throws Exception {
+        EndpointMetrics endpoint = Metrics.forMethod(MyResource.class, MyResource.class.getMethod("getIt"), "GET");
+        endpoint.started();
+        endpoint.finished(3000000, 200, 14); // 3 ms
+        endpoint.started();
+
+        StringWriter out = new StringWriter();
+        Metrics.write(out);
+        String text = out.toString();
+        String labels = "handler=\"MyResource.getIt\",method=\"GET\",path=\"/myresource\"";
+        assertTrue(text, text.contains("\nhttp_request_duration_seconds_bucket{" + labels + ",le=\"0.0025\"} 0\n"));
+        assertTrue(text, text.contains("\nhttp_request_duration_seconds_bucket{" + labels + ",le=\"0.005\"} 1\n"));
+        assertTrue(text, text.contains("\nhttp_request_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} 1\n"));
+        assertTrue(text, text.contains("\nhttp_request_duration_seconds_sum{" + labels + "} 0.003\n"));
+        assertTrue(text, text.contains("\nhttp_response_size_bytes_bucket{" + labels + ",le=\"100\"} 1\n"));
+        assertTrue(text, text.contains("\nhttp_responses_total{" + labels + ",status=\"2xx\"} 1\n"));
+        assertTrue(text, text.contains("\nhttp_requests_in_flight{" + labels + "} 1\n"));
+    }
+}
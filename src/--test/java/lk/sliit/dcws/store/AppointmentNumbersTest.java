@@ -0,0 +1,206 @@
+package lk.sliit.dcws.store;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import lk.sliit.dcws.Appointment;
+
+public class AppointmentNumbersTest {
+
+    private static final String[] DOCTORS = { "doc001", "doc002" };
+    private static final String[] DATES = { "2014-05-01", "2014-05-02" };
+
+    /**
+     * A burst of 8000 bookings from 32 threads released together into four sessions of 1500
+     * places: every session hands out exactly 1..1500 once and the other 2000 are refused.
+     */
+    @Test
+    public void testBurst() throws Exception {
+        final int threads = 32;
+        final int perThread = 250;
+        final AppointmentStore store = new AppointmentStore(new IdAllocator("app", null), WriteAheadLog.disabled(), new AppointmentNumbers(1500));
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger refused = new AtomicInteger();
+        final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+
+        Thread[] workers = new Thread[threads];
+        for(int t = 0; t < threads; t++)
+        {
+            final int worker = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try
+                    {
+                        start.await();
+                        for(int i = 0; i < perThread; i++)
+                        {
+                            int session = (worker + i) % 4;
+                            try
+                            {
+                                // mixed case, as clients send it, must still land in one session
+                                String doctor = i % 2 == 0 ? DOCTORS[session / 2] : DOCTORS[session / 2].toUpperCase();
+                                store.create(appointment(doctor, "hos001", DATES[session % 2], 99));
+                            }
+                            catch(SessionFullException e)
+                            {
+                                refused.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch(Throwable e)
+                    {
+                        errors.add(e);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for(Thread worker : workers)
+            worker.join();
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(2000, refused.get());
+        assertEquals(6000, store.size());
+        ConcurrentHashMap<String, boolean[]> taken = new ConcurrentHashMap<String, boolean[]>();
+        for(Appointment appointment : store.list())
+        {
+            String session = appointment.doctorId.toLowerCase() + " " + appointment.appointmentDate;
+            taken.putIfAbsent(session, new boolean[1501]);
+            boolean[] numbers = taken.get(session);
+            assertTrue(appointment.appointmentNumber >= 1 && appointment.appointmentNumber <= 1500);
+            assertTrue("duplicate number " + appointment.appointmentNumber + " in " + session, !numbers[appointment.appointmentNumber]);
+            numbers[appointment.appointmentNumber] = true;
+        }
+        assertEquals(4, taken.size());
+    }
+
+    /**
+     * Numbers continue after the ones restored from disk, bulk creates take numbers too, and a
+     * full session only refuses its own items.
+     */
+    @Test
+    public void testRestoreAndBulk() {
+        AppointmentStore store = new AppointmentStore(new IdAllocator("app", null), WriteAheadLog.disabled(), new AppointmentNumbers(9));
+        Appointment restored = appointment("doc001", "hos001", "2014-05-01", 7);
+        restored.id = "app001";
+        store.restore(restored);
+
+        List<Appointment> batch = new ArrayList<Appointment>(Arrays.asList(
+                appointment("doc001", "hos001", "2014-05-01", 0),
+                appointment("doc001", "hos001", "2014-05-01", 0),
+                appointment("doc001", "hos001", "2014-05-01", 0),
+                appointment("doc001", "hos002", "2014-05-01", 0)));
+        List<String> ids = store.createAll(batch);
+        assertEquals(Arrays.asList("app002", "app003", null, "app004"), ids);
+        assertEquals(8, batch.get(0).appointmentNumber);
+        assertEquals(9, batch.get(1).appointmentNumber);
+        assertEquals(1, batch.get(3).appointmentNumber);
+        assertNull(store.get("app005"));
+    }
+
+    /**
+     * A date with or without zeros is one session, and a booking that fails after taking its
+     * number hands it back, alone or in a batch.
+     */
+    @Test
+    public void testNoGaps() {
+        AppointmentStore store = new AppointmentStore(new IdAllocator("app", null), WriteAheadLog.disabled(), new AppointmentNumbers(0));
+        assertEquals(1, store.create(appointment("doc001", "hos001", "2014-05-01", 0)).appointmentNumber);
+        assertEquals(2, store.create(appointment("doc001", "hos001", " 2014-5-1", 0)).appointmentNumber);
+
+        Appointment tooLong = appointment("doc001", "hos001", "2014-05-01", 0);
+        tooLong.patientName = new String(new char[70000]).replace('\0', 'a');
+        try
+        {
+            store.create(tooLong);
+            fail();
+        }
+        catch(FieldTooLongException e)
+        {
+        }
+        List<Appointment> batch = Arrays.asList(
+                appointment("doc001", "hos001", "2014-05-01", 0),
+                tooLong,
+                appointment("doc001", "hos001", "2014-05-01", 0));
+        try
+        {
+            store.createAll(batch);
+            fail();
+        }
+        catch(FieldTooLongException e)
+        {
+        }
+        assertEquals(2, store.size());
+        assertEquals(3, store.create(appointment("DOC001", "hos001", "2014-05-01", 0)).appointmentNumber);
+    }
+
+    /**
+     * Sessions of past days are dropped on the first booking of a new day, and a late booking
+     * for a dropped day counts on from the appointments stored for it.
+     */
+    @Test
+    public void testEvictPast() {
+        final Instant[] now = { LocalDate.of(2014, 5, 1).atStartOfDay(ZoneOffset.UTC).toInstant() };
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now[0];
+            }
+        };
+        AppointmentNumbers numbers = new AppointmentNumbers(0, clock);
+        AppointmentStore store = new AppointmentStore(new IdAllocator("app", null), WriteAheadLog.disabled(), numbers);
+        store.create(appointment("doc001", "hos001", "2014-05-01", 0));
+        store.create(appointment("doc001", "hos001", "2014-05-01", 0));
+        store.create(appointment("doc001", "hos002", "2014-05-01", 0));
+        store.create(appointment("doc001", "hos001", "2014-05-03", 0));
+        store.create(appointment("doc001", "hos001", "someday", 0));
+        assertEquals(4, numbers.size());
+
+        now[0] = now[0].plusSeconds(24 * 60 * 60);
+        assertEquals(2, store.create(appointment("doc001", "hos001", "2014-05-03", 0)).appointmentNumber);
+        assertEquals(2, numbers.size());
+        assertTrue(numbers.isEvicted(appointment("doc001", "hos001", "2014-05-01", 0)));
+        assertEquals(3, store.create(appointment("doc001", "hos001", "2014-05-01", 0)).appointmentNumber);
+        assertEquals(2, store.create(appointment("doc001", "hos002", "2014-05-01", 0)).appointmentNumber);
+        assertEquals(2, store.create(appointment("doc001", "hos001", "someday", 0)).appointmentNumber);
+    }
+
+    private static Appointment appointment(String doctorId, String hospitalId, String date, int number)
+    {
+        Appointment appointment = new Appointment();
+        appointment.patientName = "Patient";
+        appointment.doctorId = doctorId;
+        appointment.hospitalId = hospitalId;
+        appointment.appointmentDate = date;
+        appointment.appointmentNumber = number;
+        return appointment;
+    }
+}
@@ -0,0 +1,87 @@
+package lk.sliit.dcws.store;
+
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import lk.sliit.dcws.Doctor;
+
+public class ChangeFeedTest {
+
+    /**
+     * Creates, updates and deletes come out in order, as copies of what was stored at the time.
+     */
+    @Test
+    public void testStoresPublishChanges() {
+        ChangeFeed feed = new ChangeFeed(16);
+        DoctorStore doctors = new DoctorStore(new IdAllocator("doc", null), WriteAheadLog.disabled(), feed);
+
+        Doctor doctor = new Doctor();
+        doctor.name = "Nimal Perera";
+        doctors.create(doctor);
+        Doctor update = new Doctor();
+        update.name = "Nimal Silva";
+        doctors.update(doctor.id, update);
+        doctors.delete(doctor.id);
+        doctors.delete(doctor.id);
+
+        List<ChangeFeed.Change> changes = feed.after(0, 10);
+        assertEquals(3, changes.size());
+        assertEquals(ChangeFeed.CREATED, changes.get(0).getAction());
+        assertEquals(ChangeFeed.UPDATED, changes.get(1).getAction());
+        assertEquals(ChangeFeed.DELETED, changes.get(2).getAction());
+        assertEquals("doctors", changes.get(0).getCollection());
+        assertEquals("Nimal Perera", ((Doctor) changes.get(0).getItem()).name);
+        assertEquals("Nimal Silva", ((Doctor) changes.get(1).getItem()).name);
+        assertNotSame(doctor, changes.get(0).getItem());
+        assertEquals(3, feed.getLast());
+        assertEquals(1, feed.after(2, 10).size());
+        assertEquals(2, feed.after(0, 2).size());
+    }
+
+    /**
+     * Taking a deleted hospital off a doctor publishes the doctor as it was before too, so the
+     * change can still be matched to that hospital.
+     */
+    @Test
+    public void testRemovedHospital() {
+        ChangeFeed feed = new ChangeFeed(16);
+        DoctorStore doctors = new DoctorStore(new IdAllocator("doc", null), WriteAheadLog.disabled(), feed);
+        Doctor doctor = new Doctor();
+        doctor.name = "Nimal Perera";
+        doctor.hospitals = new String[] { "hos001", "hos002" };
+        doctors.create(doctor);
+        doctors.removeHospital("HOS001");
+
+        ChangeFeed.Change change = feed.after(1, 10).get(0);
+        assertEquals(ChangeFeed.UPDATED, change.getAction());
+        assertArrayEquals(new String[] { "hos002" }, ((Doctor) change.getItem()).hospitals);
+        assertArrayEquals(new String[] { "hos001", "hos002" }, ((Doctor) change.getPrevious()).hospitals);
+        assertNull(feed.after(0, 10).get(0).getPrevious());
+    }
+
+    /**
+     * A reader that has fallen more than the capacity behind is told so instead of being given
+     * newer changes in place of the ones it missed.
+     */
+    @Test
+    public void testOverwrittenChanges() {
+        ChangeFeed feed = new ChangeFeed(4);
+        for(int i = 0; i < 10; i++)
+            feed.publish("doctors", ChangeFeed.CREATED, new Doctor());
+        assertEquals(10, feed.getLast());
+        assertEquals(7, feed.getOldest());
+        assertEquals(4, feed.after(6, 10).size());
+        assertNull(feed.after(5, 10));
+
+        ChangeFeed disabled = ChangeFeed.disabled();
+        disabled.publish("doctors", ChangeFeed.CREATED, new Doctor());
+        assertFalse(disabled.isEnabled());
+        assertEquals(0, disabled.getLast());
+    }
+}
@@ -0,0 +1,151 @@
+package lk.sliit.dcws.store;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import lk.sliit.dcws.Appointment;
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.Hospital;
+
+public class DataStoreStressTest {
+
+    /**
+     * Keeps anything that reaches DataStore.get() out of the working tree.
+     */
+    @BeforeClass
+    public static void useTemporaryDataDir() throws Exception {
+        System.setProperty("DATA_DIR", Files.createTempDirectory("data").toString());
+    }
+
+    private static final int WRITERS = 8;
+    private static final int READERS = 4;
+    private static final int PER_WRITER = 5000;
+
+    /**
+     * Writers create appointments and delete every other one they created while readers keep
+     * listing and searching. Nothing may be lost, nothing may throw, and the indexes must end
+     * up agreeing with the table.
+     */
+    @Test
+    public void testConcurrentWritesAreNotLost() throws Exception {
+        final AppointmentStore store = new AppointmentStore(new IdAllocator("app", null));
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(WRITERS + READERS);
+
+        List<Future<List<String>>> writers = new ArrayList<Future<List<String>>>();
+        for(int w = 0; w < WRITERS; w++)
+        {
+            final String doctorId = "doc00" + w;
+            writers.add(pool.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    start.await();
+                    List<String> kept = new ArrayList<String>();
+                    for(int i = 0; i < PER_WRITER; i++)
+                    {
+                        Appointment appointment = new Appointment();
+                        appointment.patientName = "Patient " + doctorId + " " + i;
+                        appointment.doctorId = doctorId;
+                        store.create(appointment);
+                        if(i % 2 == 0)
+                            kept.add(appointment.id);
+                        else
+                            assertNotNull(store.delete(appointment.id));
+                    }
+                    return kept;
+                }
+            }));
+        }
+
+        List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+        for(int r = 0; r < READERS; r++)
+        {
+            readers.add(pool.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    start.await();
+                    int seen = 0;
+                    while(writing.get())
+                    {
+                        for(Appointment appointment : store.values())
+                            seen += appointment.appointmentNumber < 0 ? 1 : 0;
+                        seen += store.findByPatientName("patient doc003").size();
+                        seen += store.findByDoctor("DOC005").size();
+                    }
+                    return seen;
+                }
+            }));
+        }
+
+        start.countDown();
+        List<String> kept = new ArrayList<String>();
+        for(Future<List<String>> writer : writers)
+            kept.addAll(writer.get());
+        writing.set(false);
+        for(Future<Integer> reader : readers)
+            reader.get(); // rethrows anything a reader hit, such as a ConcurrentModificationException
+        pool.shutdown();
+
+        assertEquals(WRITERS * PER_WRITER / 2, store.size());
+        assertEquals(store.size(), store.list().size());
+        for(String id : kept)
+            assertNotNull(id, store.get(id));
+        for(int w = 0; w < WRITERS; w++)
+        {
+            assertEquals(PER_WRITER / 2, store.findByDoctor("doc00" + w).size());
+            assertEquals(PER_WRITER / 2, store.findByPatientName("patient doc00" + w + " ").size());
+        }
+    }
+
+    /**
+     * Deleting a hospital while doctors are being created leaves no doctor indexed under it.
+     */
+    @Test
+    public void testHospitalDeleteRacesDoctorWrites() throws Exception {
+        DataStore data = new DataStore(new IdAllocator("doc", null), new IdAllocator("hos", null), new IdAllocator("app", null));
+        final DoctorStore doctors = data.doctors();
+        final Hospital hospital = new Hospital();
+        data.hospitals().create(hospital);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> tasks = new ArrayList<Future<?>>();
+        for(int t = 0; t < 4; t++)
+        {
+            tasks.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for(int i = 0; i < 2000; i++)
+                    {
+                        Doctor doctor = new Doctor();
+                        doctor.lastName = "Perera";
+                        doctor.hospitals = new String[] { "hos999" };
+                        doctors.create(doctor);
+                    }
+                }
+            }));
+        }
+        data.hospitals().delete(hospital.id);
+        for(Future<?> task : tasks)
+            task.get();
+        pool.shutdown();
+
+        assertNull(data.hospitals().get(hospital.id));
+        assertEquals(0, doctors.findByHospital(hospital.id).size());
+        assertEquals(8000, doctors.findByHospital("hos999").size());
+        assertEquals(8000, doctors.findByLastName("per").size());
+    }
+}
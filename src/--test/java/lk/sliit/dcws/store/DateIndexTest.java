@@ -0,0 +1,83 @@
+package lk.sliit.dcws.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import lk.sliit.dcws.Appointment;
+
+public class DateIndexTest {
+
+    @Test
+    public void testDay() {
+        assertEquals(0, DateIndex.day("1970-01-01"));
+        assertEquals(16191, DateIndex.day(" 2014-05-01 "));
+        assertEquals(16191, DateIndex.day("2014-5-1"));
+        assertEquals(-1, DateIndex.day("1969-12-31"));
+        assertEquals(DateIndex.NO_DAY, DateIndex.day("2014-02-30"));
+        assertEquals(DateIndex.NO_DAY, DateIndex.day("01/05/2014"));
+        assertEquals(DateIndex.NO_DAY, DateIndex.day("+12014-05-01"));
+        assertEquals(DateIndex.NO_DAY, DateIndex.day(""));
+        assertEquals(DateIndex.NO_DAY, DateIndex.day(null));
+    }
+
+    /**
+     * A range holds the appointments of its key on the days in it, both ends included, in date
+     * order and then in creation order, pages through them and follows deletes.
+     */
+    @Test
+    public void testRanges() {
+        AppointmentStore store = new AppointmentStore(new IdAllocator("app", null));
+        Appointment late = create(store, "doc001", "hos001", "2014-05-20");
+        Appointment first = create(store, "doc001", "hos001", "2014-05-01");
+        Appointment second = create(store, "doc001", "hos002", "2014-05-01");
+        Appointment other = create(store, "doc002", "hos001", "2014-05-10");
+        create(store, "doc001", "hos001", "sometime in May");
+        Appointment old = create(store, "doc001", "hos002", "1960-01-01");
+
+        int may1 = DateIndex.day("2014-05-01");
+        int may20 = DateIndex.day("2014-05-20");
+        assertEquals(ids(first, second, late), ids(store.findByDoctorAndDate("DOC001", may1, may20, null, 0).getItems()));
+        assertEquals(ids(first, second), ids(store.findByDoctorAndDate("doc001", may1, may1, null, 0).getItems()));
+        assertEquals(ids(old, first, second), ids(store.findByDoctorAndDate("doc001", DateIndex.NO_DAY, may1, null, 0).getItems()));
+        assertEquals(ids(other, late), ids(store.findByHospitalAndDate("hos001", may1 + 1, DateIndex.NO_DAY, null, 0).getItems()));
+        assertEquals(0, store.findByDoctorAndDate("doc001", may20, may1, null, 0).getItems().size());
+        assertEquals(0, store.findByDoctorAndDate("doc003", may1, may20, null, 0).getItems().size());
+
+        Page<Appointment> page = store.findByDoctorAndDate("doc001", may1, may20, null, 2);
+        assertEquals(ids(first, second), ids(page.getItems()));
+        page = store.findByDoctorAndDate("doc001", may1, may20, page.getNextCursor(), 2);
+        assertEquals(ids(late), ids(page.getItems()));
+        assertNull(page.getNextCursor());
+
+        store.delete(second.id);
+        assertEquals(ids(first, late), ids(store.findByDoctorAndDate("doc001", may1, may20, null, 0).getItems()));
+        assertEquals(ids(old), ids(store.findByHospitalAndDate("hos002", DateIndex.NO_DAY, DateIndex.NO_DAY, null, 0).getItems()));
+    }
+
+    private static Appointment create(AppointmentStore store, String doctorId, String hospitalId, String date)
+    {
+        Appointment appointment = new Appointment();
+        appointment.patientName = "Kamal";
+        appointment.doctorId = doctorId;
+        appointment.hospitalId = hospitalId;
+        appointment.appointmentDate = date;
+        return store.create(appointment);
+    }
+
+    private static List<String> ids(Appointment... appointments)
+    {
+        List<String> ids = new ArrayList<String>();
+        for(Appointment appointment : appointments)
+            ids.add(appointment.id);
+        return ids;
+    }
+
+    private static List<String> ids(List<Appointment> appointments)
+    {
+        return ids(appointments.toArray(new Appointment[appointments.size()]));
+    }
+}
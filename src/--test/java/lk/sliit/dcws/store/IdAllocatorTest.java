@@ -0,0 +1,92 @@
+package lk.sliit.dcws.store;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdAllocatorTest {
+
+    /**
+     * IDs keep the zero padded format the resources have always used.
+     */
+    @Test
+    public void testFormat() {
+        IdAllocator allocator = new IdAllocator("doc", null);
+
+        assertEquals("doc001", allocator.next());
+        assertEquals("doc002", allocator.next());
+        assertEquals("doc1234", allocator.format(1234));
+        assertEquals(7, allocator.parse("DOC007"));
+        assertEquals(-1, allocator.parse("hos007"));
+    }
+
+    /**
+     * Threads racing for IDs never receive the same one.
+     */
+    @Test
+    public void testConcurrentAllocationIsUnique() throws Exception {
+        final IdAllocator allocator = new IdAllocator("app", null);
+        final Set<String> issued = Collections.synchronizedSet(new HashSet<String>());
+        final CountDownLatch start = new CountDownLatch(1);
+        final int threads = 8;
+        final int perThread = 5000;
+
+        Thread[] workers = new Thread[threads];
+        for(int i = 0; i < threads; i++)
+        {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch(InterruptedException e)
+                    {
+                        return;
+                    }
+                    for(int j = 0; j < perThread; j++)
+                        issued.add(allocator.next());
+                }
+            };
+            workers[i].start();
+        }
+        start.countDown();
+        for(Thread worker : workers)
+            worker.join();
+
+        assertEquals(threads * perThread, issued.size());
+    }
+
+    /**
+     * A new allocator on the same file continues past everything the old one issued.
+     */
+    @Test
+    public void testHighWaterMarkSurvivesRestart() throws Exception {
+        File file = File.createTempFile("hos", ".seq");
+        file.delete();
+        try
+        {
+            IdAllocator before = new IdAllocator("hos", file);
+            long last = 0;
+            for(int i = 0; i < 2500; i++)
+                last = before.parse(before.next());
+            before.observe("hos9000");
+
+            IdAllocator after = new IdAllocator("hos", file);
+            long first = after.parse(after.next());
+            assertTrue(first > last);
+            assertTrue(first > 9000);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package lk.sliit.dcws.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import lk.sliit.dcws.Appointment;
+
+public class NGramIndexTest {
+
+    private static final String[] NAMES = { "Nimal Perera", "Kamal Perera", "Sunil Silva", "Anura de Silva", "Ama", "Saman Kumara", "Kumari" };
+    private static final String[] QUERIES = { "perera", "PER", "silva", "de s", "a", "ma", "kumar", "xyz", "mal p", "Ama" };
+
+    /**
+     * After a random mix of creates, renames and deletes the index returns the same
+     * appointments, in the same order, as the contains() scan it replaced.
+     */
+    @Test
+    public void testMatchesScan() {
+        Random random = new Random(7);
+        NGramIndex<Appointment> index = new NGramIndex<Appointment>();
+        LinkedHashMap<String, Appointment> table = new LinkedHashMap<String, Appointment>();
+        HashMap<String, Long> sequences = new HashMap<String, Long>();
+        long nextSequence = 0;
+
+        for(int i = 0; i < 2000; i++)
+        {
+            String id = "app" + random.nextInt(500);
+            Appointment stored = table.get(id);
+            int action = random.nextInt(4);
+            if(stored == null)
+            {
+                Appointment appointment = new Appointment();
+                appointment.id = id;
+                appointment.patientName = NAMES[random.nextInt(NAMES.length)];
+                table.put(id, appointment);
+                sequences.put(id, nextSequence);
+                index.put(nextSequence++, appointment.patientName, appointment);
+            }
+            else if(action == 0)
+            {
+                table.remove(id);
+                index.remove(sequences.remove(id));
+            }
+            else
+            {
+                stored.patientName = NAMES[random.nextInt(NAMES.length)];
+                index.put(sequences.get(id), stored.patientName, stored);
+            }
+        }
+
+        for(String query : QUERIES)
+        {
+            List<Appointment> expected = new ArrayList<Appointment>();
+            for(Appointment appointment : table.values())
+            {
+                if(appointment.patientName.toUpperCase().contains(query.toUpperCase()))
+                    expected.add(appointment);
+            }
+            assertEquals(query, expected, index.find(query));
+        }
+        assertEquals(table.size(), index.size());
+    }
+}
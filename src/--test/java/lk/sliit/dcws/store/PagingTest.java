@@ -0,0 +1,76 @@
+package lk.sliit.dcws.store;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import lk.sliit.dcws.Doctor;
+
+public class PagingTest {
+
+    /**
+     * Walking a list page by page while new doctors are created returns every doctor that
+     * existed when the walk started exactly once, in order, followed by the newcomers.
+     */
+    @Test
+    public void testPagesAreStableUnderInserts() {
+        DoctorStore store = new DoctorStore(new IdAllocator("doc", null));
+        List<String> expected = new ArrayList<String>();
+        for(int i = 0; i < 25; i++)
+            expected.add(create(store, "Perera").id);
+
+        List<String> seen = new ArrayList<String>();
+        String cursor = null;
+        do
+        {
+            Page<Doctor> page = store.page(cursor, 4);
+            for(Doctor doctor : page.getItems())
+                seen.add(doctor.id);
+            cursor = page.getNextCursor();
+            create(store, "Silva"); // arrives during the walk
+        }
+        while(cursor != null);
+
+        assertEquals(expected, seen.subList(0, expected.size()));
+        assertEquals(seen.size(), new HashSet<String>(seen).size());
+    }
+
+    /**
+     * Prefix search pages follow value order and survive inserts before the cursor.
+     */
+    @Test
+    public void testPrefixPages() {
+        DoctorStore store = new DoctorStore(new IdAllocator("doc", null));
+        create(store, "Jayawardena");
+        create(store, "Jayasekara");
+        create(store, "Jayaratna");
+        create(store, "Perera");
+
+        Page<Doctor> first = store.findByLastName("jaya", null, 2);
+        assertEquals("Jayaratna", first.getItems().get(0).lastName);
+        assertEquals("Jayasekara", first.getItems().get(1).lastName);
+
+        create(store, "Jayalath"); // sorts before the cursor, so later pages don't move
+
+        Page<Doctor> second = store.findByLastName("jaya", first.getNextCursor(), 2);
+        assertEquals(1, second.getItems().size());
+        assertEquals("Jayawardena", second.getItems().get(0).lastName);
+        assertNull(second.getNextCursor());
+    }
+
+    @Test(expected = InvalidCursorException.class)
+    public void testRejectsForeignCursor() {
+        new DoctorStore(new IdAllocator("doc", null)).findByLastName("jaya", "not a cursor", 2);
+    }
+
+    private static Doctor create(DoctorStore store, String lastName)
+    {
+        Doctor doctor = new Doctor();
+        doctor.lastName = lastName;
+        return store.create(doctor);
+    }
+}
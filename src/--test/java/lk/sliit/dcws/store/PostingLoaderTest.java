@@ -0,0 +1,53 @@
+package lk.sliit.dcws.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class PostingLoaderTest {
+
+    /**
+     * A posting list filed out of order, with its last position filed twice, reads like a
+     * TreeMap of the same entries, and so do its sub, head and tail maps and theirs.
+     */
+    @Test
+    public void testViewsMatchTreeMap() {
+        Random random = new Random(42);
+        ArrayList<Long> positions = new ArrayList<Long>();
+        for(long position = 0; position < 1000; position += 1 + random.nextInt(9))
+            positions.add(position);
+        Collections.shuffle(positions, random);
+        PostingLoader<String> loader = new PostingLoader<String>();
+        TreeMap<Long, String> expected = new TreeMap<Long, String>();
+        for(long position : positions)
+        {
+            loader.add("key", position, "item" + position);
+            expected.put(position, "item" + position);
+        }
+        long last = positions.get(positions.size() - 1);
+        loader.add("key", last, "replaced");
+        expected.put(last, "replaced");
+
+        SortedMap<Long, String> run = loader.postings().get("key");
+        assertEquals(expected, run);
+        assertEquals(expected.firstKey(), run.firstKey());
+        assertEquals(expected.lastKey(), run.lastKey());
+        for(int i = 0; i < 50; i++)
+        {
+            long from = random.nextInt(1100) - 50;
+            long to = from + random.nextInt(600);
+            assertEquals(expected.subMap(from, to), run.subMap(from, to));
+            assertEquals(expected.headMap(to), run.headMap(to));
+            assertEquals(expected.tailMap(from), run.tailMap(from));
+            assertEquals(expected.subMap(from, to).headMap(to - 10), run.subMap(from, to).headMap(to - 10));
+            assertEquals(expected.tailMap(from).subMap(from + 5, to), run.tailMap(from).subMap(from + 5, to));
+            assertEquals(expected.get(from), run.get(from));
+            assertEquals(expected.containsKey(to), run.containsKey(to));
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package lk.sliit.dcws.store;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import lk.sliit.dcws.Appointment;
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.Hospital;
+
+public class SnapshotTest {
+
+    /**
+     * Keeps anything that reaches DataStore.get() out of the working tree.
+     */
+    @BeforeClass
+    public static void useTemporaryDataDir() throws Exception {
+        System.setProperty("DATA_DIR", Files.createTempDirectory("data").toString());
+    }
+
+    /**
+     * A snapshot plus the changes logged after it gives back the same stores, in the same order,
+     * including nulls, IDs not in the allocator's format and non-ASCII text.
+     */
+    @Test
+    public void testSnapshotThenLog() throws Exception {
+        File dir = Files.createTempDirectory("snapshot").toFile();
+
+        DataStore store = open(dir);
+        Hospital general = store.hospitals().create(hospital("General"));
+        Hospital asiri = store.hospitals().create(hospital("Asiri"));
+        Doctor perera = store.doctors().create(doctor("Nimal Perera", "Perera", general.id, asiri.id, "HOS-LEGACY"));
+        Doctor silva = doctor("Sunil Silva", null);
+        silva.hospitals = null;
+        store.doctors().create(silva);
+        store.appointments().create(appointment("\u0dc3\u0db8\u0db1\u0dca Kum\u0101ra", perera.id, asiri.id));
+
+        Snapshot written = store.snapshot();
+        assertEquals(2, written.getHospitals());
+        assertEquals(2, written.getDoctors());
+        assertEquals(1, written.getAppointments());
+        assertNull(store.snapshot()); // nothing changed since
+        assertFalse(new File(dir, "wal.log.prev").exists());
+
+        store.doctors().update(perera.id, doctor("Nimal K. Perera", "ignored"));
+        store.doctors().create(doctor("Kamal Fernando", "Fernando"));
+        store.hospitals().delete(general.id);
+
+        DataStore restored = open(dir);
+        assertEquals(2, restored.getLoadedSnapshot().getDoctors());
+        assertEquals(names(store.doctors().list()), names(restored.doctors().list()));
+        assertEquals("Nimal K. Perera", restored.doctors().get(perera.id).name);
+        assertArrayEquals(new String[] { asiri.id, "HOS-LEGACY" }, restored.doctors().get(perera.id).hospitals);
+        assertNull(restored.doctors().get(silva.id).hospitals);
+        assertNull(restored.doctors().get(silva.id).lastName);
+        assertNull(restored.hospitals().get(general.id));
+        assertEquals("\u0dc3\u0db8\u0db1\u0dca Kum\u0101ra", restored.appointments().findByDoctor(perera.id).get(0).patientName);
+        assertEquals(asiri.id, restored.appointments().list().get(0).hospitalId);
+        assertEquals(1, restored.doctors().findByLastName("fern").size());
+        assertEquals("doc004", restored.doctors().create(doctor("Ruwan Herath", "Herath")).id);
+
+        restored.snapshot();
+        DataStore again = open(dir);
+        assertEquals(names(restored.doctors().list()), names(again.doctors().list()));
+        assertArrayEquals(new String[] { asiri.id, "HOS-LEGACY" }, again.doctors().get(perera.id).hospitals);
+    }
+
+    /**
+     * If the process dies after the log was rotated but before the snapshot replaced the old one,
+     * startup replays both log files on top of the old snapshot.
+     */
+    @Test
+    public void testUnfinishedSnapshot() throws Exception {
+        File dir = Files.createTempDirectory("snapshot").toFile();
+
+        DataStore store = open(dir);
+        store.doctors().create(doctor("Nimal Perera", "Perera"));
+        store.snapshot();
+        store.doctors().create(doctor("Sunil Silva", "Silva"));
+        assertTrue(new File(dir, "wal.log").renameTo(new File(dir, "wal.log.prev")));
+
+        DataStore restored = open(dir);
+        restored.doctors().create(doctor("Kamal Fernando", "Fernando"));
+        assertEquals(3, open(dir).doctors().size());
+
+        restored.snapshot(); // finishes the job: the previous file is folded in and deleted
+        assertFalse(new File(dir, "wal.log.prev").exists());
+        assertEquals(names(restored.doctors().list()), names(open(dir).doctors().list()));
+    }
+
+    /**
+     * The appointment indexes built in bulk from a snapshot answer searches the same way as
+     * indexes built one appointment at a time, and keep working after further changes.
+     */
+    @Test
+    public void testIndexesAfterLoad() throws Exception {
+        File dir = Files.createTempDirectory("snapshot").toFile();
+
+        DataStore store = open(dir);
+        String[] names = { "Ananda Banana", "Nimal Perera", "Kamal Anan", "Saman Kumara", "Ana" };
+        String[] dates = { "2014-05-20", "2014-05-01", "sometime", "2014-04-30", "2014-05-01" };
+        for(int i = 0; i < 20; i++)
+        {
+            Appointment appointment = appointment(names[i % names.length], "doc00" + (i % 3), "hos00" + (i % 2));
+            appointment.appointmentDate = dates[i % dates.length];
+            store.appointments().create(appointment);
+        }
+        store.snapshot();
+
+        DataStore restored = open(dir);
+        int may1 = DateIndex.day("2014-05-01");
+        for(String query : new String[] { "ana", "ANAN", "nana", "an", "perera", "xyz" })
+            assertEquals(query, ids(store.appointments().findByPatientName(query)), ids(restored.appointments().findByPatientName(query)));
+        for(String doctor : new String[] { "doc000", "DOC001", "doc002" })
+        {
+            assertEquals(ids(store.appointments().findByDoctor(doctor)), ids(restored.appointments().findByDoctor(doctor)));
+            assertEquals(ids(store.appointments().findByDoctorAndDate(doctor, may1, DateIndex.NO_DAY, null, 0).getItems()),
+                    ids(restored.appointments().findByDoctorAndDate(doctor, may1, DateIndex.NO_DAY, null, 0).getItems()));
+        }
+        assertEquals(ids(store.appointments().findByHospitalAndDate("hos001", DateIndex.NO_DAY, may1, null, 0).getItems()),
+                ids(restored.appointments().findByHospitalAndDate("hos001", DateIndex.NO_DAY, may1, null, 0).getItems()));
+
+        for(Appointment appointment : restored.appointments().findByPatientName("anan"))
+            restored.appointments().delete(appointment.id);
+        assertEquals(0, restored.appointments().findByPatientName("anan").size());
+        assertEquals(4, restored.appointments().findByPatientName("ana").size());
+        Appointment booked = restored.appointments().create(appointment("Banana", "doc000", "hos000"));
+        assertEquals(booked.id, restored.appointments().findByPatientName("anan").get(0).id);
+        assertEquals(2, booked.appointmentNumber); // one appointment of that session was loaded
+    }
+
+    @Test
+    public void testTruncatedSnapshotIsRejected() throws Exception {
+        File dir = Files.createTempDirectory("snapshot").toFile();
+
+        DataStore store = open(dir);
+        store.doctors().create(doctor("Nimal Perera", "Perera"));
+        store.snapshot();
+        try(RandomAccessFile raf = new RandomAccessFile(new File(dir, "snapshot.bin"), "rw"))
+        {
+            raf.setLength(raf.length() - 1);
+        }
+
+        try
+        {
+            open(dir);
+            fail("a truncated snapshot must not load");
+        }
+        catch(IllegalStateException e)
+        {
+            assertTrue(e.getCause().getMessage().contains("truncated"));
+        }
+    }
+
+    private static DataStore open(File dir)
+    {
+        WriteAheadLog log = WriteAheadLog.open(new File(dir, "wal.log"), WriteAheadLog.Durability.BATCH, 0);
+        return new DataStore(new IdAllocator("doc", null), new IdAllocator("hos", null), new IdAllocator("app", null), log, new File(dir, "snapshot.bin"));
+    }
+
+    private static List<String> ids(List<Appointment> appointments)
+    {
+        List<String> ids = new ArrayList<String>();
+        for(Appointment appointment : appointments)
+            ids.add(appointment.id);
+        return ids;
+    }
+
+    private static List<String> names(List<Doctor> doctors)
+    {
+        List<String> names = new ArrayList<String>();
+        for(Doctor doctor : doctors)
+            names.add(doctor.id + " " + doctor.name + " " + doctor.specialization);
+        return names;
+    }
+
+    private static Hospital hospital(String name)
+    {
+        Hospital hospital = new Hospital();
+        hospital.name = name;
+        return hospital;
+    }
+
+    private static Doctor doctor(String name, String lastName, String... hospitals)
+    {
+        Doctor doctor = new Doctor();
+        doctor.name = name;
+        doctor.lastName = lastName;
+        doctor.specialization = "General";
+        doctor.hospitals = hospitals;
+        return doctor;
+    }
+
+    private static Appointment appointment(String patientName, String doctorId, String hospitalId)
+    {
+        Appointment appointment = new Appointment();
+        appointment.patientName = patientName;
+        appointment.doctorId = doctorId;
+        appointment.hospitalId = hospitalId;
+        appointment.appointmentDate = "2014-05-01";
+        return appointment;
+    }
+}
@@ -0,0 +1,49 @@
+package lk.sliit.dcws.store;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.Hospital;
+
+public class VersionTest {
+
+    /**
+     * Every change moves the version of the store it touches, and only that store.
+     */
+    @Test
+    public void testChangesBumpVersion() {
+        DataStore store = new DataStore(new IdAllocator("doc", null), new IdAllocator("hos", null), new IdAllocator("app", null));
+        Version doctors = store.doctors().getVersion();
+        Version hospitals = store.hospitals().getVersion();
+
+        Doctor doctor = new Doctor();
+        doctor.name = "Nimal Perera";
+        store.doctors().create(doctor);
+        assertEquals(1, doctors.get());
+        assertEquals(0, hospitals.get());
+
+        Hospital hospital = new Hospital();
+        hospital.name = "General";
+        store.hospitals().create(hospital);
+        assertEquals(1, doctors.get());
+        assertEquals(1, hospitals.get());
+
+        store.doctors().createAll(Arrays.asList(new Doctor(), new Doctor()));
+        assertEquals(2, doctors.get());
+
+        store.doctors().delete("nope");
+        assertEquals(2, doctors.get());
+        store.doctors().delete(doctor.id);
+        assertEquals(3, doctors.get());
+    }
+
+    @Test
+    public void testTagChangesWithVersion() {
+        assertFalse(Version.tag("doctors", 1).equals(Version.tag("doctors", 2)));
+        assertFalse(Version.tag("doctors", 1).equals(Version.tag("hospitals", 1)));
+    }
+}
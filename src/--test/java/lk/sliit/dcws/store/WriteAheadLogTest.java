@@ -0,0 +1,258 @@
+package lk.sliit.dcws.store;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import lk.sliit.dcws.Appointment;
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.Hospital;
+
+public class WriteAheadLogTest {
+
+    /**
+     * Keeps anything that reaches DataStore.get() out of the working tree.
+     */
+    @BeforeClass
+    public static void useTemporaryDataDir() throws Exception {
+        System.setProperty("DATA_DIR", Files.createTempDirectory("data").toString());
+    }
+
+    /**
+     * Creates, updates and deletes, including a hospital delete that changes doctors, come back
+     * the same after a restart, in the same order, and new IDs carry on after the old ones.
+     */
+    @Test
+    public void testReplay() throws Exception {
+        File dir = Files.createTempDirectory("wal").toFile();
+        File file = new File(dir, "wal.log");
+
+        DataStore store = open(file, WriteAheadLog.Durability.SYNC);
+        Hospital general = store.hospitals().create(hospital("General"));
+        Hospital asiri = store.hospitals().create(hospital("Asiri"));
+        Doctor perera = store.doctors().create(doctor("Nimal Perera", "Perera", general.id, asiri.id));
+        Doctor silva = store.doctors().create(doctor("Sunil Silva", "Silva", asiri.id));
+        store.doctors().create(doctor("Kamal Fernando", "Fernando", general.id));
+        store.doctors().update(perera.id, doctor("Nimal K. Perera", "ignored"));
+        store.doctors().delete(silva.id);
+        store.hospitals().delete(general.id);
+        Appointment booked = store.appointments().create(appointment("Saman Kumara", perera.id));
+        store.appointments().create(appointment("Ama Silva", perera.id));
+        store.appointments().update(booked.id, appointment("Saman Kumarasinghe", null));
+
+        DataStore restored = open(file, WriteAheadLog.Durability.BATCH);
+        assertEquals(names(store.doctors().list()), names(restored.doctors().list()));
+        assertEquals("Nimal K. Perera", restored.doctors().get(perera.id).name);
+        assertArrayEquals(new String[] { asiri.id }, restored.doctors().get(perera.id).hospitals);
+        assertNull(restored.doctors().get(silva.id));
+        assertNull(restored.hospitals().get(general.id));
+        assertEquals(1, restored.doctors().findByHospital(asiri.id).size());
+        assertEquals(1, restored.doctors().findByLastName("fern").size());
+        assertEquals(2, restored.appointments().findByDoctor(perera.id).size());
+        assertEquals(booked.id, restored.appointments().findByPatientName("kumarasinghe").get(0).id);
+        assertEquals(booked.id, restored.appointments().list().get(0).id);
+        assertEquals("doc004", restored.doctors().create(doctor("Ruwan Herath", "Herath")).id);
+    }
+
+    /**
+     * A record cut short by a crash is dropped and the log carries on after the last whole one.
+     */
+    @Test
+    public void testTornTail() throws Exception {
+        File dir = Files.createTempDirectory("wal").toFile();
+        File file = new File(dir, "wal.log");
+
+        DataStore store = open(file, WriteAheadLog.Durability.BATCH);
+        store.doctors().create(doctor("Nimal Perera", "Perera"));
+        store.doctors().create(doctor("Sunil Silva", "Silva"));
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.setLength(raf.length() - 3);
+        }
+
+        DataStore restored = open(file, WriteAheadLog.Durability.BATCH);
+        assertEquals(1, restored.doctors().size());
+        restored.doctors().create(doctor("Kamal Fernando", "Fernando"));
+
+        DataStore again = open(file, WriteAheadLog.Durability.BATCH);
+        assertEquals(names(restored.doctors().list()), names(again.doctors().list()));
+    }
+
+    /**
+     * Every write made by concurrent threads under group commit is there after a restart.
+     */
+    @Test
+    public void testGroupCommit() throws Exception {
+        File dir = Files.createTempDirectory("wal").toFile();
+        File file = new File(dir, "wal.log");
+        final DataStore store = open(file, WriteAheadLog.Durability.BATCH);
+
+        Thread[] workers = new Thread[8];
+        for(int t = 0; t < workers.length; t++)
+        {
+            final String doctorId = "doc00" + t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for(int i = 0; i < 200; i++)
+                        store.appointments().create(appointment("Patient " + i, doctorId));
+                }
+            });
+            workers[t].start();
+        }
+        for(Thread worker : workers)
+            worker.join();
+
+        DataStore restored = open(file, WriteAheadLog.Durability.BATCH);
+        assertEquals(1600, restored.appointments().size());
+        assertEquals(200, restored.appointments().findByDoctor("doc003").size());
+    }
+
+    /**
+     * A bulk create takes one range of IDs and, even in SYNC mode, is written as one batch that
+     * replays like single creates.
+     */
+    @Test
+    public void testCreateAll() throws Exception {
+        File dir = Files.createTempDirectory("wal").toFile();
+        File file = new File(dir, "wal.log");
+
+        DataStore store = open(file, WriteAheadLog.Durability.SYNC);
+        store.doctors().create(doctor("Nimal Perera", "Perera"));
+        List<Doctor> batch = new ArrayList<Doctor>();
+        batch.add(doctor("Sunil Silva", "Silva"));
+        batch.add(doctor("Kamal Fernando", "Fernando"));
+        batch.add(doctor("Ruwan Herath", "Herath"));
+        assertEquals(Arrays.asList("doc002", "doc003", "doc004"), store.doctors().createAll(batch));
+        assertEquals("doc003", batch.get(1).id);
+        assertEquals(0, store.doctors().createAll(new ArrayList<Doctor>()).size());
+        store.doctors().create(doctor("Ajith Bandara", "Bandara"));
+
+        DataStore restored = open(file, WriteAheadLog.Durability.SYNC);
+        assertEquals(names(store.doctors().list()), names(restored.doctors().list()));
+        assertEquals(1, restored.doctors().findByLastName("her").size());
+    }
+
+    /**
+     * A field too long for the log is refused before anything changes, so the store and the log
+     * still agree after a restart.
+     */
+    @Test
+    public void testFieldTooLong() throws Exception {
+        File dir = Files.createTempDirectory("wal").toFile();
+        File file = new File(dir, "wal.log");
+        char[] chars = new char[30000];
+        Arrays.fill(chars, '\u0dc3'); // 3 bytes each in UTF-8
+        String tooLong = new String(chars);
+
+        DataStore store = open(file, WriteAheadLog.Durability.SYNC);
+        Doctor perera = store.doctors().create(doctor("Nimal Perera", "Perera"));
+        try
+        {
+            store.doctors().update(perera.id, doctor(tooLong, null));
+            fail();
+        }
+        catch(FieldTooLongException e)
+        {
+        }
+        List<Doctor> batch = new ArrayList<Doctor>();
+        batch.add(doctor("Sunil Silva", "Silva"));
+        batch.add(doctor("Kamal Fernando", tooLong));
+        try
+        {
+            store.doctors().createAll(batch);
+            fail();
+        }
+        catch(FieldTooLongException e)
+        {
+        }
+        assertEquals("Nimal Perera", store.doctors().get(perera.id).name);
+        assertEquals(1, store.doctors().size());
+        assertEquals(0, store.doctors().findByLastName("silva").size());
+
+        DataStore restored = open(file, WriteAheadLog.Durability.SYNC);
+        assertEquals(names(store.doctors().list()), names(restored.doctors().list()));
+    }
+
+    /**
+     * After a failed write the log refuses every further change instead of queuing the failed
+     * records again, and a restart finds only what was on disk before the failure.
+     */
+    @Test
+    public void testFailedWrite() throws Exception {
+        File dir = Files.createTempDirectory("wal").toFile();
+        File file = new File(dir, "wal.log");
+
+        WriteAheadLog log = WriteAheadLog.open(file, WriteAheadLog.Durability.BATCH, 0);
+        DataStore store = new DataStore(new IdAllocator("doc", null), new IdAllocator("hos", null), new IdAllocator("app", null), log);
+        Doctor perera = store.doctors().create(doctor("Nimal Perera", "Perera"));
+        Field channel = WriteAheadLog.class.getDeclaredField("channel");
+        channel.setAccessible(true);
+        ((FileChannel) channel.get(log)).close(); // every write fails from here on
+        for(String name : new String[] { "Sunil Silva", "Kamal Fernando" })
+        {
+            try
+            {
+                store.doctors().create(doctor(name, null));
+                fail();
+            }
+            catch(IllegalStateException e)
+            {
+            }
+        }
+        assertEquals(2, store.doctors().size()); // the first failed create was already visible; the second never got in
+
+        DataStore restored = open(file, WriteAheadLog.Durability.BATCH);
+        assertEquals(Arrays.asList(perera.id + " Nimal Perera"), names(restored.doctors().list()));
+    }
+
+    private static DataStore open(File file, WriteAheadLog.Durability durability)
+    {
+        return new DataStore(new IdAllocator("doc", null), new IdAllocator("hos", null), new IdAllocator("app", null), WriteAheadLog.open(file, durability, 0));
+    }
+
+    private static List<String> names(List<Doctor> doctors)
+    {
+        List<String> names = new ArrayList<String>();
+        for(Doctor doctor : doctors)
+            names.add(doctor.id + " " + doctor.name);
+        return names;
+    }
+
+    private static Hospital hospital(String name)
+    {
+        Hospital hospital = new Hospital();
+        hospital.name = name;
+        return hospital;
+    }
+
+    private static Doctor doctor(String name, String lastName, String... hospitals)
+    {
+        Doctor doctor = new Doctor();
+        doctor.name = name;
+        doctor.lastName = lastName;
+        doctor.specialization = "General";
+        doctor.hospitals = hospitals;
+        return doctor;
+    }
+
+    private static Appointment appointment(String patientName, String doctorId)
+    {
+        Appointment appointment = new Appointment();
+        appointment.patientName = patientName;
+        appointment.doctorId = doctorId;
+        return appointment;
+    }
+}
@@ -1,18 +1,34 @@
 package lk.sliit.dcws;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Providers;
 import javax.inject.Singleton;
-import java.util.ArrayList;
-import java.text.DecimalFormat;
+
+import lk.sliit.dcws.log.LogEndpoint;
+import lk.sliit.dcws.log.RequestLog;
+import lk.sliit.dcws.store.AppointmentStore;
+import lk.sliit.dcws.store.DataStore;
+import lk.sliit.dcws.store.DateIndex;
+import lk.sliit.dcws.store.Page;
 
 /**
  * Root resource (exposed at "appointments" path)
@@ -22,7 +38,17 @@ import java.text.DecimalFormat;
 @Singleton
 public class AppointmentResource {
 
-    private ArrayList<Appointment> appointments = new ArrayList<Appointment>();
+    private static final LogEndpoint LIST = RequestLog.endpoint("appointments.list");
+    private static final LogEndpoint BY_PATIENT_NAME = RequestLog.endpoint("appointments.byPatientName");
+    private static final LogEndpoint BY_DOCTOR = RequestLog.endpoint("appointments.byDoctor");
+    private static final LogEndpoint BY_DOCTOR_AND_DATE = RequestLog.endpoint("appointments.byDoctorAndDate");
+    private static final LogEndpoint BY_HOSPITAL_AND_DATE = RequestLog.endpoint("appointments.byHospitalAndDate");
+    private static final LogEndpoint CREATE = RequestLog.endpoint("appointments.create");
+    private static final LogEndpoint CREATE_BULK = RequestLog.endpoint("appointments.createBulk");
+    private static final LogEndpoint UPDATE = RequestLog.endpoint("appointments.update");
+    private static final LogEndpoint DELETE = RequestLog.endpoint("appointments.delete");
+
+    private AppointmentStore appointments = DataStore.get().appointments();
 
     // TODO: Add annotations to make this class match the path /ichannel/appointment/ and be a Singleton.
     // 5% credit
@@ -33,24 +59,24 @@ public class AppointmentResource {
 
  @GET
     @Produces(MediaType.TEXT_PLAIN)
-    public String getAppointments() {
-        System.out.println("GET all Appointments (text)");
-        String result = "";
-        if(this.appointments.size() == 0)
-            result = "none";
-        for(Appointment appointment: this.appointments)
-        {
-            result += "ID = " + appointment.id + ", Patient Name = " + appointment.patientName + ", Doctor ID = " + appointment.doctorId + ", Hospital ID = " + appointment.hospitalId + ", Appointment Date = " + appointment.appointmentDate + ", Appointment Number = " + appointment.appointmentNumber +System.getProperty("line.separator");
-        }
-        return result;
+    public Response getAppointments(@QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        LIST.log("format", "text", "cursor", cursor);
+        Page<Appointment> page = this.appointments.page(cursor, Paging.limit(limit));
+        return Paging.ok(new TextListOutput<Appointment>(page.getItems(), this.appointments.isEmpty()) {
+            @Override
+            protected void appendRow(StringBuilder row, Appointment appointment) {
+                row.append("ID = ").append(appointment.id).append(", Patient Name = ").append(appointment.patientName).append(", Doctor ID = ").append(appointment.doctorId).append(", Hospital ID = ").append(appointment.hospitalId).append(", Appointment Date = ").append(appointment.appointmentDate).append(", Appointment Number = ").append(appointment.appointmentNumber);
+            }
+        }, page, uriInfo);
     }
 
  @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Appointment[] getAppointmentsJson() {
-        System.out.println("GET all Appointments (JSON)");
-        Appointment[] result = new Appointment[1];
-        return this.appointments.toArray(result);
+    public Response getAppointmentsJson(@QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        LIST.log("format", "json", "cursor", cursor);
+        Page<Appointment> page = this.appointments.page(cursor, Paging.limit(limit));
+        Appointment[] result = page.getItems().toArray(new Appointment[page.getItems().size()]);
+        return Paging.ok(result, page, uriInfo);
     }
 
 
@@ -62,41 +88,42 @@ public class AppointmentResource {
     // 5% credit
 
 
-@GET
+    /**
+     * Runs on the executor selected by EXECUTION (see Execution) and resumes the suspended response with one page of the
+     * appointments whose patient name contains {name} as text/plain, one row per object.
+     */
+    @GET
     @Produces(MediaType.TEXT_PLAIN)
     @Path("patientName/{name}")
-    public String getAppointmentsByPatientName(@PathParam("name") String patientName) {
-        System.out.println("GET Appointments by patient name (text): " + patientName);
-        String result = "";
-        
-        if(this.appointments.size() == 0)
-            result = "none";
-        
-        for(Appointment appointment: this.appointments)
-        {
-            if(appointment.patientName.toUpperCase().contains(patientName.toUpperCase()))
-                result += "ID = " + appointment.id + ", Patient Name = " + appointment.patientName + System.getProperty("line.separator");
-        }
-        return result;
+    public void getAppointmentsByPatientName(@PathParam("name") String patientName, @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo, @Suspended AsyncResponse response) {
+        Execution.search(response, () -> {
+            BY_PATIENT_NAME.log("format", "text", "patientName", patientName);
+            Page<Appointment> page = this.appointments.findByPatientName(patientName, cursor, Paging.limit(limit));
+            return Paging.ok(new TextListOutput<Appointment>(page.getItems(), this.appointments.isEmpty()) {
+                @Override
+                protected void appendRow(StringBuilder row, Appointment appointment) {
+                    row.append("ID = ").append(appointment.id).append(", Patient Name = ").append(appointment.patientName);
+                }
+            }, page, uriInfo);
+        });
     }
 
 
 
- @GET
+    /**
+     * Runs on the executor selected by EXECUTION (see Execution) and resumes the suspended response with one page of the
+     * appointments whose patient name contains {name} as an application/json array.
+     */
+    @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("patientName/{name}")
-    public Appointment[] getAppointmentsByPatientNameJson(@PathParam("name") String patientName) {
-        System.out.println("GET Appointments by patient name (JSON): " + patientName);
-        ArrayList<Appointment> matches = new ArrayList<Appointment>();
-        Appointment[] result = new Appointment[1];
-
-        for(Appointment appointment: this.appointments)
-        {
-            if(appointment.patientName.toUpperCase().contains(patientName.toUpperCase()))
-                matches.add(appointment);
-        }
-
-        return matches.toArray(result);
+    public void getAppointmentsByPatientNameJson(@PathParam("name") String patientName, @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo, @Suspended AsyncResponse response) {
+        Execution.search(response, () -> {
+            BY_PATIENT_NAME.log("format", "json", "patientName", patientName);
+            Page<Appointment> page = this.appointments.findByPatientName(patientName, cursor, Paging.limit(limit));
+            Appointment[] result = page.getItems().toArray(new Appointment[page.getItems().size()]);
+            return Paging.ok(result, page, uriInfo);
+        });
     }
 
  /** 
@@ -114,19 +141,15 @@ public class AppointmentResource {
 @GET
     @Produces(MediaType.TEXT_PLAIN)
     @Path("doctor/{doc}")
-    public String getAppointmentsByDoctor(@PathParam("doc") String doctorId) {
-        System.out.println("GET Appointments by doctor (text): " + doctorId);
-        String result = "";
-        
-        if(this.appointments.size() == 0)
-            result = "none";
-        
-        for(Appointment appointment: this.appointments)
-        {
-            if(appointment.doctorId.toUpperCase().contains(doctorId.toUpperCase()))
-                result += "ID = " + appointment.id + ", Doctor = " + appointment.doctorId + System.getProperty("line.separator");
-        }
-        return result;
+    public Response getAppointmentsByDoctor(@PathParam("doc") String doctorId, @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        BY_DOCTOR.log("format", "text", "doctorId", doctorId);
+        Page<Appointment> page = this.appointments.findByDoctor(doctorId, cursor, Paging.limit(limit));
+        return Paging.ok(new TextListOutput<Appointment>(page.getItems(), this.appointments.isEmpty()) {
+            @Override
+            protected void appendRow(StringBuilder row, Appointment appointment) {
+                row.append("ID = ").append(appointment.id).append(", Doctor = ").append(appointment.doctorId);
+            }
+        }, page, uriInfo);
     }
 
 
@@ -134,18 +157,71 @@ public class AppointmentResource {
  @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("doctor/{doc}")
-    public Appointment[] getAppointmentsByDoctorJson(@PathParam("doc") String doctorId) {
-        System.out.println("GET Appointments by doctor (JSON): " + doctorId);
-        ArrayList<Appointment> matches = new ArrayList<Appointment>();
-        Appointment[] result = new Appointment[1];
+    public Response getAppointmentsByDoctorJson(@PathParam("doc") String doctorId, @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        BY_DOCTOR.log("format", "json", "doctorId", doctorId);
+        Page<Appointment> page = this.appointments.findByDoctor(doctorId, cursor, Paging.limit(limit));
+        Appointment[] result = page.getItems().toArray(new Appointment[page.getItems().size()]);
+        return Paging.ok(result, page, uriInfo);
+    }
 
-        for(Appointment appointment: this.appointments)
-        {
-            if(appointment.doctorId.toUpperCase().equals(doctorId.toUpperCase()))
-                matches.add(appointment);
-        }
+    /**
+     * Method handling HTTP GET requests for a doctor's appointments between two dates. from and
+     * to are ISO dates (2014-05-01), both included, and either may be left out for an open range.
+     *
+     * @return Response streaming one page of the appointments as text/plain, in date order.
+     */
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    @Path("doctor/{doc}/dates")
+    public Response getAppointmentsByDoctorAndDate(@PathParam("doc") String doctorId, @QueryParam("from") String from, @QueryParam("to") String to,
+            @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        BY_DOCTOR_AND_DATE.log("doctorId", doctorId, "from", from, "to", to);
+        Page<Appointment> page = this.appointments.findByDoctorAndDate(doctorId, day("from", from), day("to", to), cursor, Paging.limit(limit));
+        return Paging.ok(dateRows(page.getItems()), page, uriInfo);
+    }
+
+    /**
+     * Same as getAppointmentsByDoctorAndDate() as an application/json array.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("doctor/{doc}/dates")
+    public Response getAppointmentsByDoctorAndDateJson(@PathParam("doc") String doctorId, @QueryParam("from") String from, @QueryParam("to") String to,
+            @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        BY_DOCTOR_AND_DATE.log("doctorId", doctorId, "from", from, "to", to);
+        Page<Appointment> page = this.appointments.findByDoctorAndDate(doctorId, day("from", from), day("to", to), cursor, Paging.limit(limit));
+        Appointment[] result = page.getItems().toArray(new Appointment[page.getItems().size()]);
+        return Paging.ok(result, page, uriInfo);
+    }
+
+    /**
+     * Method handling HTTP GET requests for the appointments at a hospital between two dates,
+     * with from and to as in getAppointmentsByDoctorAndDate().
+     *
+     * @return Response streaming one page of the appointments as text/plain, in date order.
+     */
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    @Path("hospital/{hos}/dates")
+    public Response getAppointmentsByHospitalAndDate(@PathParam("hos") String hospitalId, @QueryParam("from") String from, @QueryParam("to") String to,
+            @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        BY_HOSPITAL_AND_DATE.log("hospitalId", hospitalId, "from", from, "to", to);
+        Page<Appointment> page = this.appointments.findByHospitalAndDate(hospitalId, day("from", from), day("to", to), cursor, Paging.limit(limit));
+        return Paging.ok(dateRows(page.getItems()), page, uriInfo);
+    }
 
-        return matches.toArray(result);
+    /**
+     * Same as getAppointmentsByHospitalAndDate() as an application/json array.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("hospital/{hos}/dates")
+    public Response getAppointmentsByHospitalAndDateJson(@PathParam("hos") String hospitalId, @QueryParam("from") String from, @QueryParam("to") String to,
+            @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        BY_HOSPITAL_AND_DATE.log("hospitalId", hospitalId, "from", from, "to", to);
+        Page<Appointment> page = this.appointments.findByHospitalAndDate(hospitalId, day("from", from), day("to", to), cursor, Paging.limit(limit));
+        Appointment[] result = page.getItems().toArray(new Appointment[page.getItems().size()]);
+        return Paging.ok(result, page, uriInfo);
     }
 
 
@@ -159,15 +235,42 @@ public class AppointmentResource {
     @Produces(MediaType.TEXT_PLAIN)
     @Consumes(MediaType.APPLICATION_JSON)
     public Response createAppointment(Appointment appointment) { 
-        appointment.id = this.getNextAppointmentId();
+        this.appointments.create(appointment);
         
         String message = "POST Appointment: " + appointment.patientName + " with new ID: " + appointment.id + " doctor ID: " + appointment.doctorId  + " hospital ID: " + appointment.hospitalId + " appointment date: " + appointment.appointmentDate + " appointment number: " + appointment.appointmentNumber;
-        System.out.println(message);
+        CREATE.log("id", appointment.id, "doctorId", appointment.doctorId, "number", appointment.appointmentNumber);
 
-        this.appointments.add(appointment);
         return Response.status(201).entity(message).build();
     }
 
+    /**
+     * Method handling HTTP POST requests with many appointments at once, as a JSON array. They are all
+     * created under one write with one range of new IDs.
+     * Elements that cannot be read are reported in their BulkResult and the others are still
+     * created.
+     *
+     * @return Response holding a BulkResult for every item, in request order, as application/json.
+     */
+    @POST
+    @Path("bulk")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response createAppointments(InputStream body, @Context Providers providers) throws IOException {
+        return this.createAppointments(Bulk.array(body, Appointment.class, providers), "json");
+    }
+
+    /**
+     * Same as createAppointments() for an NDJSON body, one Appointment object per line. Lines that cannot
+     * be read are reported in their BulkResult and the others are still created.
+     */
+    @POST
+    @Path("bulk")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(Bulk.NDJSON)
+    public Response createAppointmentsNdjson(InputStream body, @Context Providers providers) throws IOException {
+        return this.createAppointments(Bulk.lines(body, Appointment.class, providers), "ndjson");
+    }
+
 
 
 
@@ -179,19 +282,16 @@ public class AppointmentResource {
   @Produces(MediaType.TEXT_PLAIN)
   @Consumes(MediaType.APPLICATION_JSON)
    public Response updateAppointment(Appointment appointment, @PathParam("id") String id) {
-        System.out.println("PUT Appointment: " + id + " with " + appointment.patientName);
-        Appointment stored = this.findAppointment(id);
-        if(stored != null)
+        Appointment before = this.appointments.update(id, appointment);
+        if(before != null)
         {
-            String oldName = stored.patientName;
-            stored.patientName = appointment.patientName;
-            String message = oldName + " renamed to " + appointment.patientName;
-
-            System.out.println(message);
+            String message = before.patientName + " renamed to " + appointment.patientName;
+            UPDATE.log("id", id, "status", 200);
             return Response.status(200).entity(message).build();
         }
         else
         {
+            UPDATE.log("id", id, "status", 404);
             return Response.status(404).entity(appointment.id + " is not found. Use PUT with a correct ID to modify or use POST to create new entry.").build();
         }
     }
@@ -206,17 +306,16 @@ public class AppointmentResource {
     @Produces(MediaType.TEXT_PLAIN)
     public Response deleteAppointment(@PathParam("id") String id) {
         //return "POST name: " + appointment.patientName; 
-        System.out.println("DELETE Appointment: " + id);
-        Appointment appointment = this.findAppointment(id);
+        Appointment appointment = this.appointments.delete(id);
         if(appointment != null)
         {
-            this.appointments.remove(appointment);
             String message = "Deleted Appointment " + appointment.patientName;
-            System.out.println(message);
+            DELETE.log("id", id, "status", 200);
             return Response.status(200).entity(message).build();
         }
         else
         {
+            DELETE.log("id", id, "status", 404);
             return Response.status(404).entity(id + " is not found. Use DELETE with a correct ID to delete.").build();     
         }
     }
@@ -226,33 +325,41 @@ public class AppointmentResource {
 
 
 
-    private Appointment findAppointment(String id)
+    private Response createAppointments(Bulk<Appointment> bulk, String format)
     {
-        for(Appointment appointment : this.appointments)
+        List<String> ids = this.appointments.createAll(bulk.getItems());
+        int created = 0;
+        for(String id: ids)
         {
-            if(id.equalsIgnoreCase(appointment.id))
-            {
-                return appointment; 
-            }
+            if(id != null)
+                created++;
         }
-        return null;
+        CREATE_BULK.log("format", format, "created", created, "failed", ids.size() - created + bulk.getFailed());
+        return bulk.created(ids, "the session is full");
     }
 
-    private String getNextAppointmentId()
+    private TextListOutput<Appointment> dateRows(List<Appointment> appointments)
     {
-        DecimalFormat formatter = new DecimalFormat("app000"); // we generate ID numbers and send it through this formatter to generate ID's
+        return new TextListOutput<Appointment>(appointments, this.appointments.isEmpty()) {
+            @Override
+            protected void appendRow(StringBuilder row, Appointment appointment) {
+                row.append("ID = ").append(appointment.id).append(", Appointment Date = ").append(appointment.appointmentDate).append(", Doctor ID = ")
+                        .append(appointment.doctorId).append(", Hospital ID = ").append(appointment.hospitalId).append(", Appointment Number = ").append(appointment.appointmentNumber);
+            }
+        };
+    }
 
-        int test = this.appointments.size() + 1; // start with 1 when we're empty, or with the most likely next value in sequence
-        
-        // loop until we find the next unused ID to return
-        while(true)
-        {
-            String testId = formatter.format(test);
-            if(this.findAppointment(testId) == null)
-                return testId; // this ID is not in use so it's available!
-            else
-                test++; // it's in use, test the next value
-        }
+    /**
+     * @return the epoch day of a date query parameter, or DateIndex.NO_DAY if it was left out.
+     */
+    private static int day(String name, String value)
+    {
+        if(value == null || value.isEmpty())
+            return DateIndex.NO_DAY;
+        int day = DateIndex.day(value);
+        if(day == DateIndex.NO_DAY)
+            throw new WebApplicationException(Response.status(400).entity(name + " must be a date like 2014-05-01 but was '" + value + "'").type(MediaType.TEXT_PLAIN).build());
+        return day;
     }
 
 }
@@ -0,0 +1,182 @@
+package lk.sliit.dcws;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.annotation.Annotation;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Providers;
+
+import lk.sliit.dcws.json.JsonArrayReader;
+import lk.sliit.dcws.store.FieldTooLongException;
+import lk.sliit.dcws.store.WriteAheadLog;
+
+/**
+ * One bulk POST: the entities that could be read, in request order, and a BulkResult for every
+ * item. The body is either a JSON array or NDJSON, one JSON object per line. Both are read one
+ * item at a time: items that cannot be read, or have a field too long to be stored, are
+ * answered with a 400 result and the rest are still created, and a body with more than
+ * BULK_MAX_ITEMS items (default 10000) is refused as a whole as soon as the item past the limit
+ * begins. Only a JSON array whose brackets do not match, so that its items cannot be told
+ * apart, is refused as a whole with 400.
+ *
+ * The resource hands getItems() to the store's createAll(), which gives them their IDs, and then
+ * answers with created().
+ */
+final class Bulk<T> {
+
+    static final String NDJSON = "application/x-ndjson";
+
+    private static final int MAX_ITEMS = Settings.getInt("BULK_MAX_ITEMS", 10000);
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    private final ArrayList<T> items = new ArrayList<T>();
+    private final ArrayList<BulkResult> results = new ArrayList<BulkResult>();
+    private final ArrayList<BulkResult> pending = new ArrayList<BulkResult>(); // one per item, same order
+
+    private Bulk() {
+    }
+
+    /**
+     * Reads a JSON array body with the application's JSON reader, one element at a time.
+     */
+    static <T> Bulk<T> array(InputStream body, Class<T> type, Providers providers) throws IOException
+    {
+        MessageBodyReader<T> reader = providers.getMessageBodyReader(type, type, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE);
+        Bulk<T> bulk = new Bulk<T>();
+        JsonArrayReader elements = new JsonArrayReader(body);
+        while(elements.hasNext())
+        {
+            checkSize(bulk.results.size() + 1); // before the element is read
+            bulk.read(reader, type, elements.next());
+        }
+        return bulk;
+    }
+
+    /**
+     * Reads an NDJSON body with the application's JSON reader, one entity per non-blank line.
+     */
+    static <T> Bulk<T> lines(InputStream body, Class<T> type, Providers providers) throws IOException
+    {
+        MessageBodyReader<T> reader = providers.getMessageBodyReader(type, type, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE);
+        Bulk<T> bulk = new Bulk<T>();
+        BufferedReader lines = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while((line = lines.readLine()) != null)
+        {
+            if(line.trim().isEmpty())
+                continue;
+            checkSize(bulk.results.size() + 1);
+            bulk.read(reader, type, line);
+        }
+        return bulk;
+    }
+
+    List<T> getItems()
+    {
+        return this.items;
+    }
+
+    int getFailed()
+    {
+        return this.results.size() - this.items.size();
+    }
+
+    /**
+     * Builds the 200 response once the items were created, with the new ID of each created item
+     * and the error of each failed one, in request order.
+     *
+     * @param ids the IDs the store gave getItems(), in the same order.
+     */
+    Response created(List<String> ids)
+    {
+        return this.created(ids, null);
+    }
+
+    /**
+     * Same as created(List) for a store that may refuse some items, which it marks with a null ID.
+     * They are answered with 409 and the given reason.
+     */
+    Response created(List<String> ids, String refused)
+    {
+        for(int i = 0; i < ids.size(); i++)
+        {
+            BulkResult result = this.pending.get(i);
+            result.id = ids.get(i);
+            result.status = result.id == null ? 409 : 201;
+            if(result.id == null)
+                result.error = refused;
+        }
+        return Response.ok(this.results.toArray(new BulkResult[this.results.size()]), MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    /**
+     * Reads one item, adding it or reporting it as failed.
+     */
+    private void read(MessageBodyReader<T> reader, Class<T> type, String json)
+    {
+        if(json.trim().equals("null"))
+        {
+            this.fail("item is null");
+            return;
+        }
+        try
+        {
+            T entity = reader.readFrom(type, type, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<String, String>(),
+                    new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+            if(entity == null)
+            {
+                this.fail("item is null");
+                return;
+            }
+            WriteAheadLog.validate(entity); // here, so one such item cannot fail the store's whole batch
+            this.add(entity);
+        }
+        catch(FieldTooLongException e)
+        {
+            this.fail(e.getMessage());
+        }
+        catch(IOException | WebApplicationException e)
+        {
+            this.fail("not a valid " + type.getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    private void add(T entity)
+    {
+        BulkResult result = this.result();
+        this.items.add(entity);
+        this.pending.add(result);
+    }
+
+    private void fail(String error)
+    {
+        BulkResult result = this.result();
+        result.status = 400;
+        result.error = error;
+    }
+
+    private BulkResult result()
+    {
+        BulkResult result = new BulkResult();
+        result.index = this.results.size();
+        this.results.add(result);
+        return result;
+    }
+
+    private static void checkSize(int size)
+    {
+        if(size > MAX_ITEMS)
+            throw new WebApplicationException(Response.status(413).entity("A bulk request may hold at most " + MAX_ITEMS + " items").type(MediaType.TEXT_PLAIN).build());
+    }
+}
@@ -0,0 +1,13 @@
+package lk.sliit.dcws;
+
+/**
+ * The outcome for one item of a bulk POST: its position in the request, an HTTP style status
+ * (201 when it was created, 400 when it could not be read, 409 when the store refused it, such
+ * as an appointment for a full session) and either the new ID or the error.
+ */
+public class BulkResult {
+    public int index;
+    public int status;
+    public String id = null;
+    public String error = null;
+}
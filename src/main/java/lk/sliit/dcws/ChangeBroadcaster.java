@@ -0,0 +1,436 @@
+package lk.sliit.dcws;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.ws.rs.core.MediaType;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import lk.sliit.dcws.json.JsonProvider;
+import lk.sliit.dcws.store.ChangeFeed;
+import lk.sliit.dcws.store.DataStore;
+
+/**
+ * Pushes the changes in the store's ChangeFeed to the clients subscribed through
+ * ChangeFeedResource, as Server-Sent Events.
+ *
+ * Writers only publish to the feed. One thread waits on the feed and turns every change into
+ * the bytes of its event once, whatever the number of subscribers, and then hands the
+ * subscribers that are behind to a pool of CHANGE_FEED_THREADS threads (default 4) that filter
+ * and write the events. A subscriber is written by one pool thread at a time and gets all the
+ * events it missed in one write, so a slow client catches up in one go. A subscriber that falls
+ * more than CHANGE_FEED_SIZE changes behind gets a "reset" event, telling it to load the lists
+ * again, and carries on from the latest change.
+ *
+ * Writes block while the client's connection is full. A write that takes longer than
+ * CHANGE_FEED_WRITE_TIMEOUT_MS (default 10000) is interrupted by a watchdog and the client is
+ * unsubscribed, so a client that stops reading holds a pool thread for that long at most and
+ * the others are only held up while every pool thread is stuck on such clients.
+ *
+ * Every CHANGE_FEED_HEARTBEAT_SECONDS without changes (default 15) each subscriber gets a
+ * comment line, which keeps the connection from timing out and finds the clients that left.
+ * At most CHANGE_FEED_MAX_SUBSCRIBERS clients (default 10000) are subscribed at once.
+ */
+final class ChangeBroadcaster {
+
+    static final String EVENT_STREAM = "text/event-stream";
+
+    private static final int THREADS = Settings.getInt("CHANGE_FEED_THREADS", 4);
+    private static final long HEARTBEAT_MILLIS = TimeUnit.SECONDS.toMillis(Settings.getInt("CHANGE_FEED_HEARTBEAT_SECONDS", 15));
+    private static final int MAX_SUBSCRIBERS = Settings.getInt("CHANGE_FEED_MAX_SUBSCRIBERS", 10000);
+    private static final long WRITE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Settings.getLong("CHANGE_FEED_WRITE_TIMEOUT_MS", 10000));
+
+    private static final byte[] RETRY = ascii("retry: 3000\n\n");
+    private static final byte[] HEARTBEAT = ascii(":\n\n");
+
+    private static final ChangeFeed FEED = DataStore.get().changes();
+    private static final AtomicReferenceArray<Frame> FRAMES = new AtomicReferenceArray<Frame>(Math.max(1, FEED.getCapacity()));
+    private static final Set<Subscriber> SUBSCRIBERS = ConcurrentHashMap.newKeySet();
+    private static final AtomicInteger SUBSCRIBER_COUNT = new AtomicInteger();
+    private static final ExecutorService WRITERS = Executors.newFixedThreadPool(THREADS, daemon("change-feed-writer"));
+    private static final JsonProvider JSON = new JsonProvider();
+
+    private static volatile long encoded; // the latest change with a frame; the dispatcher starts with those kept before it
+
+    static
+    {
+        if(FEED.isEnabled())
+        {
+            daemon("change-feed").newThread(ChangeBroadcaster::dispatch).start();
+            long period = Math.max(100, TimeUnit.NANOSECONDS.toMillis(WRITE_TIMEOUT_NANOS) / 4);
+            ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(daemon("change-feed-watchdog"));
+            watchdog.scheduleWithFixedDelay(ChangeBroadcaster::interruptStalled, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private ChangeBroadcaster() {
+    }
+
+    /**
+     * Subscribes a client.
+     *
+     * @param collection "doctors", "appointments" or null for both.
+     * @param doctorId only changes to this doctor and its appointments, or null.
+     * @param hospitalId only changes to doctors and appointments of this hospital, or null.
+     * @param lastEventId the ID of the last event the client has, to get what came after it, or
+     *     null for only what comes from now on.
+     * @return the stream to send, or null if there are too many subscribers already.
+     */
+    static ChunkedOutput<byte[]> subscribe(String collection, String doctorId, String hospitalId, String lastEventId) throws IOException
+    {
+        if(!FEED.isEnabled())
+            return null;
+        if(SUBSCRIBER_COUNT.incrementAndGet() > MAX_SUBSCRIBERS)
+        {
+            SUBSCRIBER_COUNT.decrementAndGet();
+            return null;
+        }
+        ChunkedOutput<byte[]> output = new ChunkedOutput<byte[]>(byte[].class);
+        Subscriber subscriber = new Subscriber(output, collection, doctorId, hospitalId);
+        long last = FEED.getLast();
+        subscriber.position = last;
+        if(lastEventId != null)
+        {
+            long sequence = sequenceOf(lastEventId);
+            if(sequence >= 0 && sequence <= last)
+                subscriber.position = sequence;
+            else
+                subscriber.reset = true;
+        }
+        try
+        {
+            output.write(RETRY); // sent as soon as the response starts
+        }
+        catch(IOException | RuntimeException e)
+        {
+            SUBSCRIBER_COUNT.decrementAndGet();
+            throw e;
+        }
+        SUBSCRIBERS.add(subscriber);
+        schedule(subscriber);
+        return output;
+    }
+
+    static int getSubscribers()
+    {
+        return SUBSCRIBER_COUNT.get();
+    }
+
+    /**
+     * @return the sequence number in an event ID of this run, or -1 if it is from another run or
+     *     not an event ID.
+     */
+    static long sequenceOf(String eventId)
+    {
+        String prefix = ChangeFeed.getBoot() + "-";
+        if(!eventId.startsWith(prefix))
+            return -1;
+        try
+        {
+            return Long.parseLong(eventId.substring(prefix.length()));
+        }
+        catch(NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Runs on the one thread that waits on the feed.
+     */
+    private static void dispatch()
+    {
+        long seen = encoded;
+        while(true)
+        {
+            long last;
+            try
+            {
+                last = FEED.awaitAfter(seen, HEARTBEAT_MILLIS);
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+            if(last == seen)
+            {
+                for(Subscriber subscriber : SUBSCRIBERS)
+                {
+                    subscriber.heartbeat = true;
+                    schedule(subscriber);
+                }
+                continue;
+            }
+
+            // if this thread fell a whole ring behind the changes in between are gone; subscribers that
+            // needed them find no frame and get a reset
+            List<ChangeFeed.Change> changes = FEED.after(Math.max(seen, last - FRAMES.length()), FRAMES.length());
+            if(changes != null)
+            {
+                for(ChangeFeed.Change change : changes)
+                    FRAMES.set((int) (change.getSequence() % FRAMES.length()), encode(change));
+            }
+            seen = last;
+            encoded = last;
+            for(Subscriber subscriber : SUBSCRIBERS)
+            {
+                if(subscriber.position < last)
+                    schedule(subscriber);
+            }
+        }
+    }
+
+    private static void schedule(Subscriber subscriber)
+    {
+        if(subscriber.busy.compareAndSet(false, true))
+            WRITERS.execute(() -> deliver(subscriber));
+    }
+
+    /**
+     * Runs on a pool thread: writes everything the subscriber has not had yet in one go.
+     */
+    private static void deliver(Subscriber subscriber)
+    {
+        do
+        {
+            ByteArrayOutputStream events = new ByteArrayOutputStream();
+            long last = encoded;
+            if(subscriber.reset)
+            {
+                writeReset(events, last);
+                subscriber.position = last;
+                subscriber.reset = false;
+            }
+            while(subscriber.position < last)
+            {
+                Frame frame = FRAMES.get((int) ((subscriber.position + 1) % FRAMES.length()));
+                if(frame == null || frame.sequence != subscriber.position + 1)
+                {
+                    writeReset(events, last);
+                    subscriber.position = last;
+                    break;
+                }
+                if(subscriber.wants(frame))
+                    events.write(frame.bytes, 0, frame.bytes.length);
+                subscriber.position = frame.sequence;
+            }
+            if(events.size() == 0 && subscriber.heartbeat)
+                events.write(HEARTBEAT, 0, HEARTBEAT.length);
+            subscriber.heartbeat = false;
+            try
+            {
+                if(events.size() > 0)
+                    write(subscriber, events.toByteArray());
+            }
+            catch(IOException | RuntimeException e)
+            {
+                unsubscribe(subscriber);
+                return;
+            }
+            subscriber.busy.set(false);
+        }
+        while((subscriber.position < encoded || subscriber.heartbeat || subscriber.reset) && subscriber.busy.compareAndSet(false, true));
+    }
+
+    /**
+     * Writes to a subscriber where the watchdog can see how long it is taking.
+     */
+    private static void write(Subscriber subscriber, byte[] events) throws IOException
+    {
+        synchronized(subscriber)
+        {
+            subscriber.writer = Thread.currentThread();
+            subscriber.writeStarted = System.nanoTime();
+        }
+        try
+        {
+            subscriber.output.write(events);
+        }
+        finally
+        {
+            synchronized(subscriber)
+            {
+                subscriber.writer = null;
+            }
+            Thread.interrupted(); // an interrupt meant for this write must not fail the next one
+        }
+    }
+
+    /**
+     * Runs on the watchdog thread: interrupts the writes that have taken too long, which makes
+     * them fail so their subscribers are dropped and the pool threads are free again.
+     */
+    private static void interruptStalled()
+    {
+        long now = System.nanoTime();
+        for(Subscriber subscriber : SUBSCRIBERS)
+        {
+            synchronized(subscriber)
+            {
+                if(subscriber.writer != null && now - subscriber.writeStarted > WRITE_TIMEOUT_NANOS)
+                    subscriber.writer.interrupt();
+            }
+        }
+    }
+
+    private static void unsubscribe(Subscriber subscriber)
+    {
+        if(!SUBSCRIBERS.remove(subscriber))
+            return;
+        SUBSCRIBER_COUNT.decrementAndGet();
+        try
+        {
+            subscriber.output.close();
+        }
+        catch(IOException e)
+        {
+            // the client is gone already
+        }
+    }
+
+    private static Frame encode(ChangeFeed.Change change)
+    {
+        Object item = change.getItem();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        write(bytes, "id: " + ChangeFeed.getBoot() + "-" + change.getSequence() + "\nevent: " + change.getCollection() + "." + change.getAction() + "\ndata: ");
+        try
+        {
+            JSON.writeTo(item, item.getClass(), item.getClass(), new Annotation[0], MediaType.APPLICATION_JSON_TYPE, null, bytes);
+        }
+        catch(IOException e)
+        {
+            throw new IllegalStateException(e); // not thrown by a ByteArrayOutputStream
+        }
+        write(bytes, "\n\n");
+
+        String doctorId;
+        String[] hospitalIds;
+        if(item instanceof Appointment)
+        {
+            doctorId = ((Appointment) item).doctorId;
+            hospitalIds = new String[] { ((Appointment) item).hospitalId };
+        }
+        else
+        {
+            doctorId = ((Doctor) item).id;
+            hospitalIds = ((Doctor) item).hospitals;
+            if(change.getPrevious() != null && ((Doctor) change.getPrevious()).hospitals != null)
+            {
+                // a doctor leaving a hospital is still news to that hospital's subscribers
+                List<String> both = new ArrayList<String>(Arrays.asList(((Doctor) change.getPrevious()).hospitals));
+                if(hospitalIds != null)
+                    both.addAll(Arrays.asList(hospitalIds));
+                hospitalIds = both.toArray(new String[both.size()]);
+            }
+        }
+        return new Frame(change.getSequence(), change.getCollection(), doctorId, hospitalIds, bytes.toByteArray());
+    }
+
+    private static void writeReset(ByteArrayOutputStream events, long last)
+    {
+        write(events, "id: " + ChangeFeed.getBoot() + "-" + last + "\nevent: reset\ndata: {}\n\n");
+    }
+
+    private static void write(ByteArrayOutputStream out, String text)
+    {
+        byte[] bytes = ascii(text);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] ascii(String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ThreadFactory daemon(String name)
+    {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * The event of one change, made once and written to every subscriber that wants it.
+     */
+    private static final class Frame
+    {
+        final long sequence;
+        final String collection;
+        final String doctorId;
+        final String[] hospitalIds;
+        final byte[] bytes;
+
+        Frame(long sequence, String collection, String doctorId, String[] hospitalIds, byte[] bytes)
+        {
+            this.sequence = sequence;
+            this.collection = collection;
+            this.doctorId = doctorId;
+            this.hospitalIds = hospitalIds;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Subscriber
+    {
+        final ChunkedOutput<byte[]> output;
+        final String collection;
+        final String doctorId;
+        final String hospitalId;
+        final AtomicBoolean busy = new AtomicBoolean();
+
+        // only changed by the pool thread holding busy, or before the subscriber is scheduled
+        long position;
+        volatile boolean reset;
+        volatile boolean heartbeat;
+
+        // the thread writing to the client and since when, guarded by the subscriber
+        Thread writer;
+        long writeStarted;
+
+        Subscriber(ChunkedOutput<byte[]> output, String collection, String doctorId, String hospitalId)
+        {
+            this.output = output;
+            this.collection = collection;
+            this.doctorId = doctorId;
+            this.hospitalId = hospitalId;
+        }
+
+        boolean wants(Frame frame)
+        {
+            if(this.collection != null && !this.collection.equals(frame.collection))
+                return false;
+            if(this.doctorId != null && !this.doctorId.equalsIgnoreCase(frame.doctorId))
+                return false;
+            if(this.hospitalId == null)
+                return true;
+            if(frame.hospitalIds != null)
+            {
+                for(String hospitalId : frame.hospitalIds)
+                {
+                    if(this.hospitalId.equalsIgnoreCase(hospitalId))
+                        return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package lk.sliit.dcws;
+
+import java.io.IOException;
+
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import lk.sliit.dcws.log.LogEndpoint;
+import lk.sliit.dcws.log.RequestLog;
+
+/**
+ * Root resource (exposed at "changes" path)
+ *
+ * Streams the creates, updates and deletes of doctors and appointments as Server-Sent Events,
+ * so a client can keep its lists current without polling them. Each event is named after its
+ * collection and action, e.g. "appointments.created", and carries the item as JSON; a "reset"
+ * event means changes were missed and the lists should be loaded again.
+ */
+@Path("changes")
+@Singleton
+public class ChangeFeedResource {
+
+    private static final LogEndpoint SUBSCRIBE = RequestLog.endpoint("changes.subscribe");
+
+    /**
+     * Method handling HTTP GET requests for the change feed. The stream stays open until the
+     * client goes away.
+     *
+     * @param collection "doctors" or "appointments" for the changes of one collection only.
+     * @param doctorId only the changes of this doctor and its appointments.
+     * @param hospitalId only the changes of doctors and appointments at this hospital.
+     * @param since the ID of the last event the client has seen, to resume from it; the
+     *     Last-Event-ID header that browsers send on reconnecting does the same.
+     * @return the event stream.
+     */
+    @GET
+    @Produces(ChangeBroadcaster.EVENT_STREAM)
+    public ChunkedOutput<byte[]> getChanges(@QueryParam("collection") String collection, @QueryParam("doctorId") String doctorId,
+            @QueryParam("hospitalId") String hospitalId, @QueryParam("since") String since, @HeaderParam("Last-Event-ID") String lastEventId) throws IOException {
+        SUBSCRIBE.log("collection", collection, "doctorId", doctorId, "hospitalId", hospitalId);
+        if(collection != null && !collection.equals("doctors") && !collection.equals("appointments"))
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).entity("collection must be doctors or appointments").type(MediaType.TEXT_PLAIN).build());
+        ChunkedOutput<byte[]> output = ChangeBroadcaster.subscribe(collection, doctorId, hospitalId, since != null ? since : lastEventId);
+        if(output == null)
+            throw new WebApplicationException(Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", 30).entity("Too many subscribers to the change feed. Try again later.")
+                    .type(MediaType.TEXT_PLAIN).build());
+        return output;
+    }
+}
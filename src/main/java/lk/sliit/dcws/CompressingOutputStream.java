@@ -0,0 +1,211 @@
+package lk.sliit.dcws;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * Compresses a response body with gzip or deflate once it has grown past a threshold. Until
+ * then the body is held back, so a body that ends smaller goes out as it is; when it passes the
+ * threshold the Content-Encoding header is set, which still works because nothing has been
+ * written and the headers are not yet sent.
+ *
+ * The Deflater comes from the pool in Compression and goes back to it when the body is finished.
+ * Only the time spent in the Deflater is counted, not the time spent making the body.
+ */
+final class CompressingOutputStream extends OutputStream {
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+    private static final byte[] NO_INPUT = new byte[0];
+
+    private final OutputStream out;
+    private final String encoding;
+    private final MultivaluedMap<String, Object> headers;
+    private final byte[] pending;
+    private int pendingLength;
+
+    private Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[8192];
+    private boolean finished;
+
+    private long bytesIn;
+    private long bytesOut;
+    private long nanos;
+
+    /**
+     * @param threshold the number of bytes after which compression starts, 0 to compress anything.
+     * @param headers the response headers to put Content-Encoding in, or null if there are none.
+     */
+    CompressingOutputStream(OutputStream out, String encoding, int threshold, MultivaluedMap<String, Object> headers) {
+        this.out = out;
+        this.encoding = encoding;
+        this.headers = headers;
+        this.pending = new byte[threshold];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if(this.finished)
+            throw new IOException("The response body has already been finished");
+        if(this.deflater == null)
+        {
+            if(this.pendingLength + len <= this.pending.length)
+            {
+                System.arraycopy(b, off, this.pending, this.pendingLength, len);
+                this.pendingLength += len;
+                return;
+            }
+            this.start();
+        }
+        this.deflate(b, off, len, Deflater.NO_FLUSH);
+    }
+
+    /**
+     * Pushes out what has been compressed so far. A body still under the threshold is kept back.
+     */
+    @Override
+    public void flush() throws IOException {
+        if(this.deflater != null && !this.finished)
+            this.deflate(NO_INPUT, 0, 0, Deflater.SYNC_FLUSH);
+        if(this.deflater != null)
+            this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.finish();
+        this.out.close();
+    }
+
+    /**
+     * Ends the body: writes out a body still under the threshold as it is, or the end of the
+     * compressed stream, and gives the Deflater back. Calling it again does nothing.
+     */
+    void finish() throws IOException
+    {
+        if(this.finished)
+            return;
+        this.finished = true;
+        if(this.deflater == null)
+        {
+            this.out.write(this.pending, 0, this.pendingLength);
+            return;
+        }
+        try
+        {
+            this.deflater.finish();
+            while(!this.deflater.finished())
+                this.drain(Deflater.NO_FLUSH);
+            if(this.encoding.equals(Compression.GZIP))
+            {
+                int crc = (int) this.crc.getValue();
+                int size = (int) this.bytesIn;
+                byte[] trailer = { (byte) crc, (byte) (crc >> 8), (byte) (crc >> 16), (byte) (crc >> 24), (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24) };
+                this.out.write(trailer);
+                this.bytesOut += trailer.length;
+            }
+        }
+        finally
+        {
+            Compression.give(this.encoding, this.deflater);
+        }
+    }
+
+    /**
+     * Gives the Deflater back without ending the body, after writing it failed.
+     */
+    void release()
+    {
+        if(this.finished)
+            return;
+        this.finished = true;
+        if(this.deflater != null)
+            Compression.give(this.encoding, this.deflater);
+    }
+
+    boolean isCompressed()
+    {
+        return this.deflater != null;
+    }
+
+    long getBytesIn()
+    {
+        return this.bytesIn;
+    }
+
+    long getBytesOut()
+    {
+        return this.bytesOut;
+    }
+
+    long getNanos()
+    {
+        return this.nanos;
+    }
+
+    private void start() throws IOException
+    {
+        if(this.headers != null)
+        {
+            this.headers.putSingle(HttpHeaders.CONTENT_ENCODING, this.encoding);
+            this.headers.remove(HttpHeaders.CONTENT_LENGTH);
+        }
+        this.deflater = Compression.take(this.encoding);
+        if(this.encoding.equals(Compression.GZIP))
+        {
+            this.out.write(GZIP_HEADER);
+            this.bytesOut += GZIP_HEADER.length;
+        }
+        this.deflate(this.pending, 0, this.pendingLength, Deflater.NO_FLUSH);
+    }
+
+    private void deflate(byte[] b, int off, int len, int flush) throws IOException
+    {
+        this.bytesIn += len;
+        if(this.encoding.equals(Compression.GZIP))
+        {
+            long start = System.nanoTime();
+            this.crc.update(b, off, len);
+            this.nanos += System.nanoTime() - start;
+        }
+        this.deflater.setInput(b, off, len);
+        while(!this.deflater.needsInput())
+            this.drain(Deflater.NO_FLUSH);
+        if(flush != Deflater.NO_FLUSH)
+        {
+            int length;
+            do
+            {
+                length = this.drain(flush);
+            }
+            while(length == this.buffer.length);
+        }
+    }
+
+    /**
+     * Takes what the Deflater has ready and writes it out. Only the deflate call is timed, not
+     * the write.
+     */
+    private int drain(int flush) throws IOException
+    {
+        long start = System.nanoTime();
+        int length = this.deflater.deflate(this.buffer, 0, this.buffer.length, flush);
+        this.nanos += System.nanoTime() - start;
+        if(length > 0)
+        {
+            this.out.write(this.buffer, 0, length);
+            this.bytesOut += length;
+        }
+        return length;
+    }
+}
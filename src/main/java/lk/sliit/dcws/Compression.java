@@ -0,0 +1,161 @@
+package lk.sliit.dcws;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Settings and shared pieces of response compression: which content coding a client gets,
+ * which responses are worth compressing, and the pools of Deflaters, which hold native memory
+ * and are too costly to make for every response.
+ *
+ * COMPRESSION turns it on or off (default on), COMPRESSION_MIN_BYTES is the smallest body that
+ * is compressed (default 1024; smaller ones gain little and can come out larger),
+ * COMPRESSION_LEVEL the deflate level from 1 to 9 (default 6) and COMPRESSION_POOL how many idle
+ * Deflaters of each kind are kept (default 32).
+ */
+final class Compression {
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    static final boolean ENABLED = Settings.getBoolean("COMPRESSION", true);
+    static final int MIN_BYTES = Settings.getInt("COMPRESSION_MIN_BYTES", 1024);
+
+    private static final int LEVEL = Settings.getInt("COMPRESSION_LEVEL", 6);
+    private static final int POOL_SIZE = Settings.getInt("COMPRESSION_POOL", 32);
+
+    private static final Pool GZIP_POOL = new Pool(true); // raw deflate, the gzip framing is written around it
+    private static final Pool DEFLATE_POOL = new Pool(false); // zlib framing, which is what "deflate" means in HTTP
+
+    private Compression() {
+    }
+
+    /**
+     * Picks the content coding for an Accept-Encoding header: gzip if it is accepted, else
+     * deflate, else none. A coding with q=0 is refused, and "*" stands for every coding the
+     * header does not name, so "gzip;q=0, *" still refuses gzip.
+     *
+     * @return GZIP, DEFLATE or null.
+     */
+    static String negotiate(String acceptEncoding)
+    {
+        if(!ENABLED || acceptEncoding == null)
+            return null;
+        Boolean gzip = null; // null while the header has not named it
+        Boolean deflate = null;
+        boolean any = false;
+        for(String coding : acceptEncoding.split(","))
+        {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            boolean accepted = !refused(parts);
+            if(name.equals(GZIP) || name.equals("x-gzip"))
+                gzip = Boolean.TRUE.equals(gzip) || accepted;
+            else if(name.equals(DEFLATE))
+                deflate = Boolean.TRUE.equals(deflate) || accepted;
+            else if(name.equals("*"))
+                any = any || accepted;
+        }
+        if(gzip == null ? any : gzip)
+            return GZIP;
+        return (deflate == null ? any : deflate) ? DEFLATE : null;
+    }
+
+    /**
+     * Only JSON and plain text are compressed; anything else may already be compressed or, like
+     * an event stream, must go out as soon as it is written.
+     */
+    static boolean isCompressible(MediaType type)
+    {
+        if(type == null)
+            return false;
+        String subtype = type.getSubtype();
+        return (type.getType().equals("application") && (subtype.equals("json") || subtype.endsWith("+json") || subtype.equals("x-ndjson")))
+                || (type.getType().equals("text") && subtype.equals("plain"));
+    }
+
+    static Deflater take(String encoding)
+    {
+        return (encoding.equals(GZIP) ? GZIP_POOL : DEFLATE_POOL).take();
+    }
+
+    static void give(String encoding, Deflater deflater)
+    {
+        (encoding.equals(GZIP) ? GZIP_POOL : DEFLATE_POOL).give(deflater);
+    }
+
+    /**
+     * Compresses a whole body at once, for bodies that are kept and sent many times.
+     */
+    static byte[] gzip(byte[] body)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4 + 64);
+        try(CompressingOutputStream out = new CompressingOutputStream(bytes, GZIP, 0, null))
+        {
+            out.write(body);
+        }
+        catch(IOException e)
+        {
+            throw new IllegalStateException(e); // not thrown by a ByteArrayOutputStream
+        }
+        return bytes.toByteArray();
+    }
+
+    private static boolean refused(String[] parameters)
+    {
+        for(int i = 1; i < parameters.length; i++)
+        {
+            String parameter = parameters[i].trim().toLowerCase(Locale.ROOT);
+            if(!parameter.startsWith("q="))
+                continue;
+            try
+            {
+                return Double.parseDouble(parameter.substring(2)) <= 0;
+            }
+            catch(NumberFormatException e)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Pool
+    {
+        private final ConcurrentLinkedQueue<Deflater> idle = new ConcurrentLinkedQueue<Deflater>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final boolean nowrap;
+
+        Pool(boolean nowrap)
+        {
+            this.nowrap = nowrap;
+        }
+
+        Deflater take()
+        {
+            Deflater deflater = this.idle.poll();
+            if(deflater == null)
+                return new Deflater(LEVEL, this.nowrap);
+            this.size.decrementAndGet();
+            return deflater;
+        }
+
+        void give(Deflater deflater)
+        {
+            deflater.reset();
+            if(this.size.incrementAndGet() <= POOL_SIZE)
+            {
+                this.idle.offer(deflater);
+                return;
+            }
+            this.size.decrementAndGet();
+            deflater.end(); // frees the native memory now rather than at finalization
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package lk.sliit.dcws;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import lk.sliit.dcws.metrics.EndpointMetrics;
+import lk.sliit.dcws.metrics.Metrics;
+
+/**
+ * Compresses JSON and text response bodies with gzip, or deflate for clients that only take
+ * that, once they pass COMPRESSION_MIN_BYTES (see Compression). What it saves and costs is
+ * recorded for each endpoint and shown on /metrics.
+ *
+ * As an entity coder it is the outermost writer interceptor, so MetricsFilter still counts and
+ * ResponseCacheFilter still keeps the body before compression. A response that already has a
+ * Content-Encoding, such as a gzipped body from the response cache, is left alone.
+ */
+@Provider
+@Priority(Priorities.ENTITY_CODER)
+public class CompressionFilter implements ContainerResponseFilter, WriterInterceptor {
+
+    private static final String ENCODING = CompressionFilter.class.getName() + ".encoding";
+    private static final String ENDPOINT = CompressionFilter.class.getName() + ".endpoint";
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+        if(!Compression.ENABLED || !response.hasEntity() || !Compression.isCompressible(response.getMediaType()))
+            return;
+        MultivaluedMap<String, Object> headers = response.getHeaders();
+        vary(headers);
+        if(headers.containsKey(HttpHeaders.CONTENT_ENCODING) || "HEAD".equals(request.getMethod()))
+            return;
+        String encoding = Compression.negotiate(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if(encoding == null)
+            return;
+        request.setProperty(ENCODING, encoding);
+        EndpointMetrics endpoint = endpoint(this.resourceInfo, request.getMethod());
+        if(endpoint != null)
+            request.setProperty(ENDPOINT, endpoint);
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        String encoding = (String) context.getProperty(ENCODING);
+        if(encoding == null)
+        {
+            context.proceed();
+            return;
+        }
+        context.removeProperty(ENCODING);
+        CompressingOutputStream out = new CompressingOutputStream(context.getOutputStream(), encoding, Compression.MIN_BYTES, context.getHeaders());
+        context.setOutputStream(out);
+        try
+        {
+            context.proceed();
+            out.finish();
+        }
+        catch(IOException | RuntimeException e)
+        {
+            out.release();
+            throw e;
+        }
+
+        EndpointMetrics endpoint = (EndpointMetrics) context.getProperty(ENDPOINT);
+        if(endpoint != null && out.isCompressed())
+            endpoint.compressed(out.getBytesIn(), out.getBytesOut(), out.getNanos());
+    }
+
+    /**
+     * @return the metrics of the matched resource method, or null if no method was matched.
+     */
+    static EndpointMetrics endpoint(ResourceInfo resourceInfo, String httpMethod)
+    {
+        if(resourceInfo.getResourceMethod() == null)
+            return null;
+        return Metrics.forMethod(resourceInfo.getResourceClass(), resourceInfo.getResourceMethod(), httpMethod);
+    }
+
+    /**
+     * Tells caches that the body depends on Accept-Encoding, whether or not this one was compressed.
+     */
+    private static void vary(MultivaluedMap<String, Object> headers)
+    {
+        List<Object> vary = headers.get(HttpHeaders.VARY);
+        if(vary != null)
+        {
+            for(Object value : vary)
+            {
+                if(value.toString().toLowerCase(Locale.ROOT).contains("accept-encoding"))
+                    return;
+            }
+        }
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    }
+}
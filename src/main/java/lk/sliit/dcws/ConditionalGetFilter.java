@@ -0,0 +1,152 @@
+package lk.sliit.dcws;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+import lk.sliit.dcws.store.DataStore;
+import lk.sliit.dcws.store.Version;
+
+/**
+ * Conditional GET for the doctor, hospital and appointment resources. Every GET answer carries
+ * a weak ETag made from the version of the store it reads, plus Last-Modified and
+ * "Cache-Control: no-cache" so clients come back to revalidate. A GET whose If-None-Match (or,
+ * without one, If-Modified-Since) still matches the store is answered with 304 before the
+ * resource method runs, so nothing is looked up or serialized.
+ *
+ * The tag covers the whole collection: any change to a store invalidates every URL under its
+ * resource. Last-Modified only has whole seconds, so it is left out of answers given in the
+ * same second as the last change; otherwise a second change within that second would go unseen
+ * by clients that only send If-Modified-Since.
+ *
+ * Runs after MetricsFilter so 304 answers are still counted.
+ */
+@Provider
+@Priority(Priorities.USER + 100)
+public class ConditionalGetFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String TAG = ConditionalGetFilter.class.getName() + ".tag";
+    private static final String LAST_MODIFIED = ConditionalGetFilter.class.getName() + ".lastModified";
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext request) throws IOException {
+        if(!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod()))
+            return;
+        String collection = collectionOf(this.resourceInfo.getResourceClass());
+        if(collection == null)
+            return;
+
+        // taken before the resource reads anything, so the data is never older than the tag
+        Version version = versionOf(collection);
+        String tag = Version.tag(collection, version.get());
+        long lastModified = version.getLastModified();
+        request.setProperty(TAG, tag);
+        if(lastModified / 1000 < System.currentTimeMillis() / 1000)
+            request.setProperty(LAST_MODIFIED, lastModified);
+
+        if(notModified(request, tag, lastModified))
+        {
+            Response.ResponseBuilder response = Response.notModified(new EntityTag(tag, true)).header(HttpHeaders.CACHE_CONTROL, "no-cache");
+            if(request.getProperty(LAST_MODIFIED) != null)
+                response.lastModified(new Date(lastModified));
+            request.abortWith(response.build());
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+        String tag = (String) request.getProperty(TAG);
+        if(tag == null || response.getStatus() != 200)
+            return;
+        MultivaluedMap<String, Object> headers = response.getHeaders();
+        headers.putSingle(HttpHeaders.ETAG, new EntityTag(tag, true));
+        headers.putSingle(HttpHeaders.CACHE_CONTROL, "no-cache");
+        Long lastModified = (Long) request.getProperty(LAST_MODIFIED);
+        if(lastModified != null)
+            headers.putSingle(HttpHeaders.LAST_MODIFIED, new Date(lastModified));
+    }
+
+    private static boolean notModified(ContainerRequestContext request, String tag, long lastModified)
+    {
+        String ifNoneMatch = request.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+        if(ifNoneMatch != null)
+        {
+            for(String candidate : ifNoneMatch.split(","))
+            {
+                candidate = candidate.trim();
+                if(candidate.startsWith("W/"))
+                    candidate = candidate.substring(2);
+                if(candidate.equals("*") || candidate.equals("\"" + tag + "\""))
+                    return true;
+            }
+            return false;
+        }
+
+        String ifModifiedSince = request.getHeaderString(HttpHeaders.IF_MODIFIED_SINCE);
+        if(ifModifiedSince == null || request.getProperty(LAST_MODIFIED) == null)
+            return false;
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try
+        {
+            return lastModified / 1000 <= format.parse(ifModifiedSince).getTime() / 1000;
+        }
+        catch(ParseException e)
+        {
+            return false; // an unreadable date is ignored, as RFC 7232 asks
+        }
+    }
+
+    /**
+     * @return the tag the data behind the given resource class has right now, or null if the class
+     *         does not read a store.
+     */
+    static String currentTag(Class<?> resource)
+    {
+        String collection = collectionOf(resource);
+        if(collection == null)
+            return null;
+        return Version.tag(collection, versionOf(collection).get());
+    }
+
+    private static String collectionOf(Class<?> resource)
+    {
+        if(resource == DoctorResource.class)
+            return "doctors";
+        if(resource == HospitalResource.class)
+            return "hospitals";
+        if(resource == AppointmentResource.class)
+            return "appointments";
+        return null;
+    }
+
+    private static Version versionOf(String collection)
+    {
+        DataStore store = DataStore.get();
+        if(collection.equals("doctors"))
+            return store.doctors().getVersion();
+        if(collection.equals("hospitals"))
+            return store.hospitals().getVersion();
+        return store.appointments().getVersion();
+    }
+}
@@ -1,18 +1,32 @@
 package lk.sliit.dcws;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Providers;
 import javax.inject.Singleton;
-import java.util.ArrayList;
-import java.text.DecimalFormat;
+
+import lk.sliit.dcws.log.LogEndpoint;
+import lk.sliit.dcws.log.RequestLog;
+import lk.sliit.dcws.store.DataStore;
+import lk.sliit.dcws.store.Page;
+import lk.sliit.dcws.store.DoctorStore;
 
 /**
  * Root resource (exposed at "doctors" path)
@@ -21,89 +35,90 @@ import java.text.DecimalFormat;
 @Singleton
 public class DoctorResource {
 
-    private ArrayList<Doctor> doctors = new ArrayList<Doctor>();
+    private static final LogEndpoint LIST = RequestLog.endpoint("doctors.list");
+    private static final LogEndpoint GET = RequestLog.endpoint("doctors.get");
+    private static final LogEndpoint BY_SPECIALIZATION = RequestLog.endpoint("doctors.bySpecialization");
+    private static final LogEndpoint BY_LAST_NAME = RequestLog.endpoint("doctors.byLastName");
+    private static final LogEndpoint BY_HOSPITAL = RequestLog.endpoint("doctors.byHospital");
+    private static final LogEndpoint CREATE = RequestLog.endpoint("doctors.create");
+    private static final LogEndpoint CREATE_BULK = RequestLog.endpoint("doctors.createBulk");
+    private static final LogEndpoint UPDATE = RequestLog.endpoint("doctors.update");
+    private static final LogEndpoint DELETE = RequestLog.endpoint("doctors.delete");
+
+    private DoctorStore doctors = DataStore.get().doctors();
 
     /**
      * Method handling HTTP GET requests for all Doctors. All available Doctor objects will be 
      * concatenated together and sent to the client as "text/plain" media type.
      *
-     * @return String that will be returned as a text/plain response.
+     * @return Response streaming one page of the list as text/plain, one row per object.
      */
     @GET
     @Produces(MediaType.TEXT_PLAIN)
-    public String getDoctors() {
-        System.out.println("GET all Doctors (text)");
-        String result = "";
-        
-        if(this.doctors.size() == 0)
-            result = "none";
-        
-        for(Doctor doctor: this.doctors)
-        {
-            result += "ID = " + doctor.id + ", Name = " + doctor.name + ", Specialization = " + doctor.specialization + System.getProperty("line.separator");
-        }
-        return result;
+    public Response getDoctors(@QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        LIST.log("format", "text", "cursor", cursor);
+        Page<Doctor> page = this.doctors.page(cursor, Paging.limit(limit));
+        return Paging.ok(new TextListOutput<Doctor>(page.getItems(), this.doctors.isEmpty()) {
+            @Override
+            protected void appendRow(StringBuilder row, Doctor doctor) {
+                row.append("ID = ").append(doctor.id).append(", Name = ").append(doctor.name).append(", Specialization = ").append(doctor.specialization);
+            }
+        }, page, uriInfo);
     }
 
     /**
      * Method handling HTTP GET requests for all Doctors. The returned array of Doctor objects will be sent
      * to the client as "application/json" media type.
      *
-     * @return Array of Doctor objects that will be returned as an application/json response.
+     * @return Response holding one page of Doctor objects as an application/json array.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Doctor[] getDoctorsJson() {
-        System.out.println("GET all Doctors (JSON)");
-        Doctor[] result = new Doctor[1];
-        return this.doctors.toArray(result);
+    public Response getDoctorsJson(@QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        LIST.log("format", "json", "cursor", cursor);
+        Page<Doctor> page = this.doctors.page(cursor, Paging.limit(limit));
+        Doctor[] result = page.getItems().toArray(new Doctor[page.getItems().size()]);
+        return Paging.ok(result, page, uriInfo);
     }
 
     /**
      * Method handling HTTP GET requests for all Doctors of the specified Specialization. 
      * All matching Doctor objects will be concatenated together and sent to the client as "text/plain" media type.
      *
-     * @return String that will be returned as a text/plain response.
+     * Runs on the executor selected by EXECUTION (see Execution) and resumes the suspended response with one page of the list as text/plain, one row per object.
      */
     @GET
     @Produces(MediaType.TEXT_PLAIN)
     @Path("specialization/{sp}")
-    public String getDoctorsBySpecialization(@PathParam("sp") String specialization) {
-        System.out.println("GET all Doctors by specialization (text): " + specialization);
-        String result = "";
-        
-        if(this.doctors.size() == 0)
-            result = "none";
-        
-        for(Doctor doctor: this.doctors)
-        {
-            if(doctor.specialization.toUpperCase().startsWith(specialization.toUpperCase()))
-                result += "ID = " + doctor.id + ", Name = " + doctor.name + System.getProperty("line.separator");
-        }
-        return result;
+    public void getDoctorsBySpecialization(@PathParam("sp") String specialization, @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo, @Suspended AsyncResponse response) {
+        Execution.search(response, () -> {
+            BY_SPECIALIZATION.log("format", "text", "specialization", specialization);
+            Page<Doctor> page = this.doctors.findBySpecialization(specialization, cursor, Paging.limit(limit));
+            return Paging.ok(new TextListOutput<Doctor>(page.getItems(), this.doctors.isEmpty()) {
+                @Override
+                protected void appendRow(StringBuilder row, Doctor doctor) {
+                    row.append("ID = ").append(doctor.id).append(", Name = ").append(doctor.name);
+                }
+            }, page, uriInfo);
+        });
     }
 
     /**
      * Method handling HTTP GET requests for all Doctors of the specified Specialization. 
      * All matching Doctor objects will be concatenated together and sent to the client as "application/json" media type.
      *
-     * @return Array of Doctor objects that will be returned as an application/json response.
+     * Runs on the executor selected by EXECUTION (see Execution) and resumes the suspended response with one page of Doctor objects as an application/json array.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("specialization/{sp}")
-    public Doctor[] getDoctorsBySpecializationJson(@PathParam("sp") String specialization) {
-        System.out.println("GET all Doctors by specialization (JSON): " + specialization);
-        ArrayList<Doctor> matches = new ArrayList<Doctor>();
-        Doctor[] result = new Doctor[1];
-
-        for(Doctor doctor: this.doctors)
-        {
-            if(doctor.specialization.toUpperCase().startsWith(specialization.toUpperCase()))
-                matches.add(doctor);
-        }
-
-        return matches.toArray(result);
+    public void getDoctorsBySpecializationJson(@PathParam("sp") String specialization, @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo, @Suspended AsyncResponse response) {
+        Execution.search(response, () -> {
+            BY_SPECIALIZATION.log("format", "json", "specialization", specialization);
+            Page<Doctor> page = this.doctors.findBySpecialization(specialization, cursor, Paging.limit(limit));
+            Doctor[] result = page.getItems().toArray(new Doctor[page.getItems().size()]);
+            return Paging.ok(result, page, uriInfo);
+        });
     }
 
 
@@ -112,7 +127,7 @@ public class DoctorResource {
     @GET
     @Produces(MediaType.TEXT_PLAIN)
     public String getDoctor(@PathParam("id") String id) {
-        System.out.println("GET Doctor " + id + " (text)");
+        GET.log("format", "text", "id", id);
        Doctor doctor = this.findDoctor(id);
         if(doctor == null)
             return "None";
@@ -126,7 +141,7 @@ public class DoctorResource {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     public Doctor[] getDoctorJSON(@PathParam("id") String id) {
-        System.out.println("GET Doctor " + id + " (JSON)");
+        GET.log("format", "json", "id", id);
        Doctor doctor = this.findDoctor(id);
         if(doctor == null)
             return new Doctor[0]; // return empty
@@ -149,19 +164,17 @@ public class DoctorResource {
   @GET
     @Produces(MediaType.TEXT_PLAIN)
     @Path("lastName/{lastname}")
-    public String getDoctorsByLastName(@PathParam("lastname") String lastName) {
-        System.out.println("GET all Doctors by last name (text): " + lastName);
-        String result = "";
-        
-        if(this.doctors.size() == 0)
-            result = "none";
-        
-        for(Doctor doctor: this.doctors)
-        {
-            if(doctor.lastName.toUpperCase().startsWith(lastName.toUpperCase()))
-                result += "ID = " + doctor.id + ", Name = " + doctor.name + System.getProperty("line.separator");
-        }
-        return result;
+    public void getDoctorsByLastName(@PathParam("lastname") String lastName, @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo, @Suspended AsyncResponse response) {
+        Execution.search(response, () -> {
+            BY_LAST_NAME.log("format", "text", "lastName", lastName);
+            Page<Doctor> page = this.doctors.findByLastName(lastName, cursor, Paging.limit(limit));
+            return Paging.ok(new TextListOutput<Doctor>(page.getItems(), this.doctors.isEmpty()) {
+                @Override
+                protected void appendRow(StringBuilder row, Doctor doctor) {
+                    row.append("ID = ").append(doctor.id).append(", Name = ").append(doctor.name);
+                }
+            }, page, uriInfo);
+        });
     }
 
 
@@ -169,18 +182,13 @@ public class DoctorResource {
  @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("lastName/{lastname}")
-    public Doctor[] getDoctorsByLastNameJson(@PathParam("lastname") String lastName) {
-        System.out.println("GET all Doctors by last name (JSON): " + lastName);
-        ArrayList<Doctor> matches = new ArrayList<Doctor>();
-        Doctor[] result = new Doctor[1];
-
-        for(Doctor doctor: this.doctors)
-        {
-            if(doctor.lastName.toUpperCase().startsWith(lastName.toUpperCase()))
-                matches.add(doctor);
-        }
-
-        return matches.toArray(result);
+    public void getDoctorsByLastNameJson(@PathParam("lastname") String lastName, @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo, @Suspended AsyncResponse response) {
+        Execution.search(response, () -> {
+            BY_LAST_NAME.log("format", "json", "lastName", lastName);
+            Page<Doctor> page = this.doctors.findByLastName(lastName, cursor, Paging.limit(limit));
+            Doctor[] result = page.getItems().toArray(new Doctor[page.getItems().size()]);
+            return Paging.ok(result, page, uriInfo);
+        });
     }
    
 
@@ -196,47 +204,26 @@ public class DoctorResource {
     @GET
     @Produces(MediaType.TEXT_PLAIN)
 @Path("hospital/{id}/")	
-    public String getDoctorsByHospital(@PathParam("id") String id) {
-        System.out.println("GET Doctor by Hospital " + id + " (text)");
-        String result = "";
-        
-        if(this.doctors.size() == 0)
-            result = "none";
-        
-        for(Doctor doctor: this.doctors)
-        {
-            for(String hospital: doctor.hospitals)
-            {
-                if(hospital.toUpperCase().contains(id.toUpperCase()))
-                    result += "ID = " + doctor.id + ", Name = " + doctor.name + System.getProperty("line.separator");
+    public Response getDoctorsByHospital(@PathParam("id") String id, @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        BY_HOSPITAL.log("format", "text", "hospitalId", id);
+        Page<Doctor> page = this.doctors.findByHospital(id, cursor, Paging.limit(limit));
+        return Paging.ok(new TextListOutput<Doctor>(page.getItems(), this.doctors.isEmpty()) {
+            @Override
+            protected void appendRow(StringBuilder row, Doctor doctor) {
+                row.append("ID = ").append(doctor.id).append(", Name = ").append(doctor.name);
             }
-            
-        }
-		return result;
+        }, page, uriInfo);
     }
 
 
     @Path("hospital/{id}/")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Doctor[] getDoctorsByHospitalJson(@PathParam("id") String id) {
-        System.out.println("GET Doctor by Hospital " + id + " (JSON)");
-       ArrayList<Doctor> matches = new ArrayList<Doctor>();
-        
-		Doctor[] result = new Doctor[1];
-		
-
-      for(Doctor doctor: this.doctors)
-        {
-            for(String hospital: doctor.hospitals)
-            {
-                if(hospital.toUpperCase().contains(id.toUpperCase()))
-                 matches.add(doctor);
-            }
-            
-        }
-
-        return matches.toArray(result);
+    public Response getDoctorsByHospitalJson(@PathParam("id") String id, @QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        BY_HOSPITAL.log("format", "json", "hospitalId", id);
+        Page<Doctor> page = this.doctors.findByHospital(id, cursor, Paging.limit(limit));
+        Doctor[] result = page.getItems().toArray(new Doctor[page.getItems().size()]);
+        return Paging.ok(result, page, uriInfo);
     }
 
 
@@ -254,14 +241,41 @@ public class DoctorResource {
     @Produces(MediaType.TEXT_PLAIN)
     @Consumes(MediaType.APPLICATION_JSON)
     public Response createDoctor(Doctor doctor) { 
-        doctor.id = this.getNextDoctorId();
+        this.doctors.create(doctor);
         
         String message = "POST Doctor: " + doctor.name + " with new ID: " + doctor.id + " specialization: " + doctor.specialization;
-        System.out.println(message);
+        CREATE.log("id", doctor.id, "name", doctor.name, "specialization", doctor.specialization);
 
-        this.doctors.add(doctor);
         return Response.status(201).entity(message).build();
     }
+
+    /**
+     * Method handling HTTP POST requests with many doctors at once, as a JSON array. They are all
+     * created under one write with one range of new IDs.
+     * Elements that cannot be read are reported in their BulkResult and the others are still
+     * created.
+     *
+     * @return Response holding a BulkResult for every item, in request order, as application/json.
+     */
+    @POST
+    @Path("bulk")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response createDoctors(InputStream body, @Context Providers providers) throws IOException {
+        return this.createDoctors(Bulk.array(body, Doctor.class, providers), "json");
+    }
+
+    /**
+     * Same as createDoctors() for an NDJSON body, one Doctor object per line. Lines that cannot
+     * be read are reported in their BulkResult and the others are still created.
+     */
+    @POST
+    @Path("bulk")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(Bulk.NDJSON)
+    public Response createDoctorsNdjson(InputStream body, @Context Providers providers) throws IOException {
+        return this.createDoctors(Bulk.lines(body, Doctor.class, providers), "ndjson");
+    }
   
 
 
@@ -273,18 +287,16 @@ public class DoctorResource {
     @Produces(MediaType.TEXT_PLAIN)
     @Consumes(MediaType.APPLICATION_JSON)
     public Response updateDoctor(Doctor doctor, @PathParam("id") String id) {
-        System.out.println("PUT Doctor: " + id + " with " + doctor.name);
-        Doctor stored = this.findDoctor(id);
-        if(stored != null)
+        Doctor before = this.doctors.update(id, doctor);
+        if(before != null)
         {
-            String oldName = stored.name;
-            stored.name = doctor.name;
-            String message = oldName + " renamed to " + doctor.name;
-            System.out.println(message);
+            String message = before.name + " renamed to " + doctor.name;
+            UPDATE.log("id", id, "name", doctor.name, "status", 200);
             return Response.status(200).entity(message).build();
         }
         else
         {
+            UPDATE.log("id", id, "name", doctor.name, "status", 404);
             return Response.status(404).entity(doctor.id + " is not found. Use PUT with a correct ID to modify or use POST to create new entry.").build();
         }
     }
@@ -299,17 +311,16 @@ public class DoctorResource {
     @Produces(MediaType.TEXT_PLAIN)
     public Response deleteDoctor(@PathParam("id") String id) {
         //return "POST name: " + doctor.name; 
-        System.out.println("DELETE Doctor: " + id);
-        Doctor doctor = this.findDoctor(id);
+        Doctor doctor = this.doctors.delete(id);
         if(doctor != null)
         {
-            this.doctors.remove(doctor);
             String message = "Deleted Doctor " + doctor.name;
-            System.out.println(message);
+            DELETE.log("id", id, "status", 200);
             return Response.status(200).entity(message).build();
         }
         else
         {
+            DELETE.log("id", id, "status", 404);
             return Response.status(404).entity(id + " is not found. Use DELETE with a correct ID to delete.").build();     
         }
     }
@@ -319,37 +330,16 @@ public class DoctorResource {
 
 
 
-    private Doctor findDoctor(String id)
+    private Response createDoctors(Bulk<Doctor> bulk, String format)
     {
-        for(Doctor doctor : this.doctors)
-        {
-            if(id.equalsIgnoreCase(doctor.id))
-            {
-                return doctor; 
-            }
-        }
-        return null;
+        List<String> ids = this.doctors.createAll(bulk.getItems());
+        CREATE_BULK.log("format", format, "created", ids.size(), "failed", bulk.getFailed());
+        return bulk.created(ids);
     }
-	
-
-	
-
 
-    private String getNextDoctorId()
+    private Doctor findDoctor(String id)
     {
-        DecimalFormat formatter = new DecimalFormat("doc000"); // we generate ID numbers and send it through this formatter to generate ID's
-
-        int test = this.doctors.size() + 1; // start with 1 when we're empty, or with the most likely next value in sequence
-        
-        // loop until we find the next unused ID to return
-        while(true)
-        {
-            String testId = formatter.format(test);
-            if(this.findDoctor(testId) == null)
-                return testId; // this ID is not in use so it's available!
-            else
-                test++; // it's in use, test the next value
-        }
+        return this.doctors.get(id);
     }
 
 }
@@ -0,0 +1,155 @@
+package lk.sliit.dcws;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Where requests run, chosen with EXECUTION:
+ * <ul>
+ * <li>pool (the default) - every request runs start to finish on a thread of Jetty's bounded pool.</li>
+ * <li>async - the same pool, but the search endpoints hand their work to a separate pool of
+ * SEARCH_THREADS threads (default one per processor) with SEARCH_QUEUE places (default 256),
+ * so slow searches cannot take every Jetty thread away from reads and bookings. A search that
+ * finds the queue full is answered with 503 and Retry-After.</li>
+ * <li>virtual - every request runs on its own virtual thread. This needs Java 21 or later and
+ * is looked up by reflection, so the application still builds and runs on Java 8.</li>
+ * </ul>
+ * The deployed runtime is Java 8 (java.runtime.version in system.properties), where virtual
+ * mode is not available and the server fails at startup with EXECUTION=virtual. It is there for
+ * running the same build on Java 21 or later, for example to compare the three modes with
+ * LOADTEST_EXECUTION=pool,async,virtual in the load test; raising the deployed runtime would
+ * first need the application's dependencies checked on Java 21.
+ * heroku.Main builds Jetty's thread pool to match.
+ */
+public final class Execution {
+
+    public enum Mode {
+        POOL, ASYNC, VIRTUAL;
+
+        public static Mode parse(String value)
+        {
+            try
+            {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            }
+            catch(IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException("EXECUTION must be pool, async or virtual but was '" + value + "'", e);
+            }
+        }
+    }
+
+    private static final int SEARCH_THREADS = Settings.getInt("SEARCH_THREADS", Runtime.getRuntime().availableProcessors());
+    private static final int SEARCH_QUEUE = Settings.getInt("SEARCH_QUEUE", 256);
+
+    private static volatile Mode mode = Mode.parse(Settings.getString("EXECUTION", "pool"));
+    private static volatile ExecutorService searches; // made on first use in async mode
+
+    private Execution() {
+    }
+
+    public static Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Switches the mode, e.g. to compare them in one process. Takes effect for servers made and
+     * searches started afterwards; searches already queued still finish.
+     */
+    public static synchronized void setMode(Mode newMode)
+    {
+        mode = newMode;
+        if(searches != null)
+        {
+            searches.shutdown();
+            searches = null;
+        }
+    }
+
+    /**
+     * @return an executor that starts a new virtual thread for each task.
+     * @throws IllegalStateException if this Java has no virtual threads.
+     */
+    public static ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new IllegalStateException("EXECUTION=virtual needs Java 21 or later but this is Java " + System.getProperty("java.version"), e);
+        }
+        catch(IllegalAccessException | InvocationTargetException e)
+        {
+            throw new IllegalStateException("Could not make a virtual thread executor", e);
+        }
+    }
+
+    /**
+     * Runs a search and resumes the suspended request with its response, or with the exception
+     * it threw so that the exception mappers still apply. In async mode the search runs on the
+     * search pool; otherwise it runs here, on the request's own thread.
+     */
+    static void search(AsyncResponse response, Callable<Response> search)
+    {
+        ExecutorService executor = searches;
+        if(executor == null && mode == Mode.ASYNC)
+            executor = searchExecutor();
+        if(executor == null)
+        {
+            run(response, search);
+            return;
+        }
+        try
+        {
+            executor.execute(() -> run(response, search));
+        }
+        catch(RejectedExecutionException e)
+        {
+            response.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", 1).type(MediaType.TEXT_PLAIN)
+                    .entity("Too many searches in progress. Try again shortly.").build());
+        }
+    }
+
+    private static void run(AsyncResponse response, Callable<Response> search)
+    {
+        try
+        {
+            response.resume(search.call());
+        }
+        catch(Exception e)
+        {
+            response.resume(e);
+        }
+    }
+
+    private static synchronized ExecutorService searchExecutor()
+    {
+        if(searches == null && mode == Mode.ASYNC)
+        {
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory threads = runnable -> {
+                Thread thread = new Thread(runnable, "search-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            searches = new ThreadPoolExecutor(SEARCH_THREADS, SEARCH_THREADS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(SEARCH_QUEUE), threads);
+        }
+        return searches;
+    }
+}
@@ -0,0 +1,20 @@
+package lk.sliit.dcws;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+import lk.sliit.dcws.store.FieldTooLongException;
+
+/**
+ * Answers a create or update with a field too long to store with 400 Bad Request.
+ */
+@Provider
+public class FieldTooLongMapper implements ExceptionMapper<FieldTooLongException> {
+
+    @Override
+    public Response toResponse(FieldTooLongException exception) {
+        return Response.status(400).type(MediaType.TEXT_PLAIN).entity(exception.getMessage() + ".").build();
+    }
+}
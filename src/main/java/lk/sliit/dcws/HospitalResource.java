@@ -1,18 +1,30 @@
 package lk.sliit.dcws;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Providers;
 import javax.inject.Singleton;
-import java.util.ArrayList;
-import java.text.DecimalFormat;
+
+import lk.sliit.dcws.log.LogEndpoint;
+import lk.sliit.dcws.log.RequestLog;
+import lk.sliit.dcws.store.DataStore;
+import lk.sliit.dcws.store.Page;
+import lk.sliit.dcws.store.HospitalStore;
 
 /**
  * Root resource (exposed at "hospitals" path)
@@ -21,40 +33,47 @@ import java.text.DecimalFormat;
 @Singleton
 public class HospitalResource {
 
-    private ArrayList<Hospital> hospitals = new ArrayList<Hospital>();
+    private static final LogEndpoint LIST = RequestLog.endpoint("hospitals.list");
+    private static final LogEndpoint GET = RequestLog.endpoint("hospitals.get");
+    private static final LogEndpoint CREATE = RequestLog.endpoint("hospitals.create");
+    private static final LogEndpoint CREATE_BULK = RequestLog.endpoint("hospitals.createBulk");
+    private static final LogEndpoint UPDATE = RequestLog.endpoint("hospitals.update");
+    private static final LogEndpoint DELETE = RequestLog.endpoint("hospitals.delete");
+
+    private HospitalStore hospitals = DataStore.get().hospitals();
 
     /**
      * Method handling HTTP GET requests for all objects. All available objects will be 
      * concatenated together and sent to the client as "text/plain" media type.
      *
-     * @return String that will be returned as a text/plain response.
+     * @return Response streaming one page of the list as text/plain, one row per object.
      */
     @GET
     @Produces(MediaType.TEXT_PLAIN)
-    public String getHospitals() {
-        System.out.println("GET all Hospitals (text)");
-        String result = "";
-        if(this.hospitals.size() == 0)
-            result = "none";
-        for(Hospital hospital: this.hospitals)
-        {
-            result += "ID = " + hospital.id + ", Name = " + hospital.name + System.getProperty("line.separator");
-        }
-        return result;
+    public Response getHospitals(@QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        LIST.log("format", "text", "cursor", cursor);
+        Page<Hospital> page = this.hospitals.page(cursor, Paging.limit(limit));
+        return Paging.ok(new TextListOutput<Hospital>(page.getItems(), this.hospitals.isEmpty()) {
+            @Override
+            protected void appendRow(StringBuilder row, Hospital hospital) {
+                row.append("ID = ").append(hospital.id).append(", Name = ").append(hospital.name);
+            }
+        }, page, uriInfo);
     }
 
     /**
      * Method handling HTTP GET requests for all objects. The returned array object will be sent
      * to the client as "application/json" media type.
      *
-     * @return Array of Hospital objects that will be returned as an application/json response.
+     * @return Response holding one page of Hospital objects as an application/json array.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Hospital[] getHospitalsJson() {
-        System.out.println("GET all Hospitals (JSON)");
-        Hospital[] result = new Hospital[1];
-        return this.hospitals.toArray(result);
+    public Response getHospitalsJson(@QueryParam("cursor") String cursor, @QueryParam("limit") int limit, @Context UriInfo uriInfo) {
+        LIST.log("format", "json", "cursor", cursor);
+        Page<Hospital> page = this.hospitals.page(cursor, Paging.limit(limit));
+        Hospital[] result = page.getItems().toArray(new Hospital[page.getItems().size()]);
+        return Paging.ok(result, page, uriInfo);
     }
 
     /**
@@ -67,7 +86,7 @@ public class HospitalResource {
     @GET
     @Produces(MediaType.TEXT_PLAIN)
     public String getHospital(@PathParam("id") String id) {
-        System.out.println("GET Hospital " + id + " (text)");
+        GET.log("format", "text", "id", id);
         Hospital hospital = this.findHospital(id);
         if(hospital == null)
             return "None";
@@ -85,7 +104,7 @@ public class HospitalResource {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     public Hospital[] getHospitalJson(@PathParam("id") String id) {
-        System.out.println("GET Hospital " + id + " (JSON)");
+        GET.log("format", "json", "id", id);
         Hospital hospital = this.findHospital(id);
         if(hospital == null)
             return new Hospital[0]; // return empty
@@ -108,15 +127,42 @@ public class HospitalResource {
     @Produces(MediaType.TEXT_PLAIN)
     @Consumes(MediaType.APPLICATION_JSON)
     public Response createHospital(Hospital hospital) { 
-        hospital.id = this.getNextHospitalId();
+        this.hospitals.create(hospital);
         
         String message = "POST Hospital: " + hospital.name + " with new ID: " + hospital.id;
-        System.out.println(message);
+        CREATE.log("id", hospital.id, "name", hospital.name);
 
-        this.hospitals.add(hospital);
         return Response.status(201).entity(message).build();
     }
 
+    /**
+     * Method handling HTTP POST requests with many hospitals at once, as a JSON array. They are all
+     * created under one write with one range of new IDs.
+     * Elements that cannot be read are reported in their BulkResult and the others are still
+     * created.
+     *
+     * @return Response holding a BulkResult for every item, in request order, as application/json.
+     */
+    @POST
+    @Path("bulk")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response createHospitals(InputStream body, @Context Providers providers) throws IOException {
+        return this.createHospitals(Bulk.array(body, Hospital.class, providers), "json");
+    }
+
+    /**
+     * Same as createHospitals() for an NDJSON body, one Hospital object per line. Lines that cannot
+     * be read are reported in their BulkResult and the others are still created.
+     */
+    @POST
+    @Path("bulk")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(Bulk.NDJSON)
+    public Response createHospitalsNdjson(InputStream body, @Context Providers providers) throws IOException {
+        return this.createHospitals(Bulk.lines(body, Hospital.class, providers), "ndjson");
+    }
+
     /**
      * Method handling HTTP PUT requests.
      * This can be used to update an existing object.
@@ -128,18 +174,16 @@ public class HospitalResource {
     @Produces(MediaType.TEXT_PLAIN)
     @Consumes(MediaType.APPLICATION_JSON)
     public Response updateHospital(Hospital hospital, @PathParam("id") String id) {
-        System.out.println("PUT Hospital: " + id + " with " + hospital.name);
-        Hospital stored = this.findHospital(id);
-        if(stored != null)
+        Hospital before = this.hospitals.update(id, hospital);
+        if(before != null)
         {
-            String oldName = stored.name;
-            stored.name = hospital.name;
-            String message = oldName + " renamed to " + hospital.name;
-            System.out.println(message);
+            String message = before.name + " renamed to " + hospital.name;
+            UPDATE.log("id", id, "name", hospital.name, "status", 200);
             return Response.status(200).entity(message).build();
         }
         else
         {
+            UPDATE.log("id", id, "name", hospital.name, "status", 404);
             return Response.status(404).entity(hospital.id + " is not found. Use PUT with a correct ID to modify or use POST to create new entry.").build();
         }
     }
@@ -155,50 +199,31 @@ public class HospitalResource {
     @Produces(MediaType.TEXT_PLAIN)
     public Response deleteHospital(@PathParam("id") String id) {
         //return "POST name: " + hospital.name; 
-        System.out.println("DELETE Hospital: " + id);
-        Hospital hospital = this.findHospital(id);
+        Hospital hospital = this.hospitals.delete(id);
         if(hospital != null)
         {
-            this.hospitals.remove(hospital);
             String message = "Deleted Hospital " + hospital.name;
-            System.out.println(message);
+            DELETE.log("id", id, "status", 200);
             return Response.status(200).entity(message).build();
         }
         else
         {
+            DELETE.log("id", id, "status", 404);
             return Response.status(404).entity(id + " is not found. Use DELETE with a correct ID to delete.").build();     
         }
     }
 
 
-    private Hospital findHospital(String id)
+    private Response createHospitals(Bulk<Hospital> bulk, String format)
     {
-        for(Hospital hospital : this.hospitals)
-        {
-            if(id.equalsIgnoreCase(hospital.id))
-            {
-                return hospital; 
-            }
-        }
-        return null;
+        List<String> ids = this.hospitals.createAll(bulk.getItems());
+        CREATE_BULK.log("format", format, "created", ids.size(), "failed", bulk.getFailed());
+        return bulk.created(ids);
     }
 
-
-    private String getNextHospitalId()
+    private Hospital findHospital(String id)
     {
-        DecimalFormat formatter = new DecimalFormat("hos000"); // we generate ID numbers and send it through this formatter to generate ID's
-
-        int test = this.hospitals.size() + 1; // start with 1 when we're empty, or with the most likely next value in sequence
-        
-        // loop until we find the next unused ID to return
-        while(true)
-        {
-            String testId = formatter.format(test);
-            if(this.findHospital(testId) == null)
-                return testId; // this ID is not in use so it's available!
-            else
-                test++; // it's in use, test the next value
-        }
+        return this.hospitals.get(id);
     }
 
 }
\ No newline at end of file
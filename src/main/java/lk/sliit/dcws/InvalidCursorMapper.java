@@ -0,0 +1,20 @@
+package lk.sliit.dcws;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+import lk.sliit.dcws.store.InvalidCursorException;
+
+/**
+ * Answers a request carrying a cursor we didn't hand out with 400 Bad Request.
+ */
+@Provider
+public class InvalidCursorMapper implements ExceptionMapper<InvalidCursorException> {
+
+    @Override
+    public Response toResponse(InvalidCursorException exception) {
+        return Response.status(400).type(MediaType.TEXT_PLAIN).entity(exception.getMessage() + ". Use the X-Next-Cursor value from the previous page.").build();
+    }
+}
@@ -0,0 +1,49 @@
+package lk.sliit.dcws;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import lk.sliit.dcws.store.Page;
+
+/**
+ * Helpers for the cursor and limit query parameters taken by every list and search endpoint.
+ *
+ * An endpoint returns at most limit items, PAGE_DEFAULT_LIMIT (default 100) if the parameter is
+ * left out and never more than PAGE_MAX_LIMIT (default 1000), so no request makes a list of a
+ * whole table. If there are more, it puts the cursor for the next page in the X-Next-Cursor
+ * header along with a Link: rel="next" header holding the full URI of the next page.
+ */
+final class Paging {
+
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final int MAX_LIMIT = Settings.getInt("PAGE_MAX_LIMIT", 1000);
+    private static final int DEFAULT_LIMIT = Math.min(Math.max(1, Settings.getInt("PAGE_DEFAULT_LIMIT", 100)), MAX_LIMIT);
+
+    private Paging() {
+    }
+
+    /**
+     * Clamps the limit a client asked for. 0 (the parameter was left out) gets the default page size.
+     */
+    static int limit(int requested)
+    {
+        if(requested <= 0)
+            return DEFAULT_LIMIT;
+        return Math.min(requested, MAX_LIMIT);
+    }
+
+    /**
+     * Builds a 200 response for one page, adding the next page headers when there is one.
+     */
+    static Response ok(Object entity, Page<?> page, UriInfo uriInfo)
+    {
+        Response.ResponseBuilder response = Response.ok(entity);
+        if(page.getNextCursor() != null)
+        {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+            response.link(uriInfo.getRequestUriBuilder().replaceQueryParam("cursor", page.getNextCursor()).build(), "next");
+        }
+        return response.build();
+    }
+}
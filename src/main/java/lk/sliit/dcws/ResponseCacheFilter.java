@@ -0,0 +1,315 @@
+package lk.sliit.dcws;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import lk.sliit.dcws.metrics.EndpointMetrics;
+
+/**
+ * Keeps the encoded bytes of GET answers from the doctor, hospital and appointment resources,
+ * so asking again for the same URL in the same format sends the stored bytes instead of looking
+ * the data up and serializing it once more.
+ *
+ * Every answer is stored with the tag (see ConditionalGetFilter) its store had before it was
+ * read, and is only kept if the store still has that tag once the body has been written. An
+ * entry is served only while its store's tag is unchanged, so any create, update or delete
+ * makes the entries of that store stale at once; stale entries are dropped when they are next
+ * looked up or when the cache is full.
+ *
+ * RESPONSE_CACHE_ENTRIES is how many answers are kept (default 256, 0 turns the cache off),
+ * RESPONSE_CACHE_MAX_BYTES the largest body that is kept (default 4 MiB) and
+ * RESPONSE_CACHE_TOTAL_BYTES how many bytes all entries may hold together, gzipped copies
+ * included (default 64 MiB). When a new answer does not fit, stale entries are dropped first
+ * and then the least recently used ones until it does. The entries are kept in an
+ * access-ordered LinkedHashMap, so a lookup holds the cache's lock for one get().
+ *
+ * Answers given from the cache skip the resource method, so they are not in the request log;
+ * they are still counted in the metrics. A gzipped copy of an entry is made the first time a
+ * client that takes gzip asks for it and is sent as it is from then on.
+ */
+@Provider
+@Priority(Priorities.USER + 200)
+public class ResponseCacheFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+    private static final int MAX_ENTRIES = Settings.getInt("RESPONSE_CACHE_ENTRIES", 256);
+    private static final int MAX_BYTES = Settings.getInt("RESPONSE_CACHE_MAX_BYTES", 4 * 1024 * 1024);
+    private static final long TOTAL_BYTES = Settings.getLong("RESPONSE_CACHE_TOTAL_BYTES", 64L * 1024 * 1024);
+
+    private static final String MISS = ResponseCacheFilter.class.getName() + ".miss";
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    // static because Jersey makes a separate instance for each of the filter and interceptor roles;
+    // guarded by its own lock, along with bytes
+    private static final LinkedHashMap<String, Entry> CACHE = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private static long bytes;
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    public static long hits()
+    {
+        return HITS.get();
+    }
+
+    public static long misses()
+    {
+        return MISSES.get();
+    }
+
+    /**
+     * @return how many bytes the entries hold, gzipped copies included.
+     */
+    public static long bytes()
+    {
+        synchronized(CACHE)
+        {
+            return bytes;
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) throws IOException {
+        if(MAX_ENTRIES <= 0 || !"GET".equals(request.getMethod()) || this.resourceInfo.getResourceMethod() == null)
+            return;
+        Class<?> resource = this.resourceInfo.getResourceClass();
+        String tag = ConditionalGetFilter.currentTag(resource);
+        if(tag == null)
+            return;
+
+        // the matched method fixes the format, as every format has a method of its own; the host is
+        // part of the key because the next page Link header holds the full URI
+        String key = this.resourceInfo.getResourceMethod().getName() + " " + request.getUriInfo().getRequestUri().toASCIIString();
+        Entry entry;
+        synchronized(CACHE)
+        {
+            entry = CACHE.get(key);
+            if(entry != null && !entry.tag.equals(tag))
+            {
+                remove(entry);
+                entry = null;
+            }
+        }
+        if(entry != null)
+        {
+            HITS.incrementAndGet();
+            Response.ResponseBuilder response;
+            if(entry.body.length > Compression.MIN_BYTES && Compression.isCompressible(entry.type)
+                    && Compression.GZIP.equals(Compression.negotiate(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING))))
+                response = Response.ok(this.gzipped(entry), entry.type).header(HttpHeaders.CONTENT_ENCODING, Compression.GZIP);
+            else
+                response = Response.ok(entry.body, entry.type);
+            for(String[] header : entry.headers)
+                response.header(header[0], header[1]);
+            request.abortWith(response.build());
+            return;
+        }
+        MISSES.incrementAndGet();
+        request.setProperty(MISS, new Entry(key, resource, tag));
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+        Entry entry = (Entry) request.getProperty(MISS);
+        if(entry == null)
+            return;
+        if(response.getStatus() != 200 || !response.hasEntity() || response.getMediaType() == null)
+        {
+            request.removeProperty(MISS);
+            return;
+        }
+        entry.type = response.getMediaType();
+        for(Map.Entry<String, List<String>> header : response.getStringHeaders().entrySet())
+        {
+            if(header.getKey().equalsIgnoreCase(HttpHeaders.CONTENT_TYPE) || header.getKey().equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH))
+                continue;
+            for(String value : header.getValue())
+                entry.headers.add(new String[] { header.getKey(), value });
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        Entry entry = (Entry) context.getProperty(MISS);
+        if(entry == null)
+        {
+            context.proceed();
+            return;
+        }
+        context.removeProperty(MISS);
+        CapturingOutputStream capture = new CapturingOutputStream(context.getOutputStream());
+        context.setOutputStream(capture);
+        context.proceed();
+
+        if(capture.buffer == null || !entry.tag.equals(ConditionalGetFilter.currentTag(entry.resource)))
+            return; // too large, or the store changed while the body was written
+        entry.body = capture.buffer.toByteArray();
+        if(entry.body.length > TOTAL_BYTES)
+            return;
+        synchronized(CACHE)
+        {
+            Entry old = CACHE.get(entry.key);
+            if(old != null)
+                remove(old);
+            if(!fits(entry.body.length))
+                dropStale();
+            Iterator<Entry> eldest = CACHE.values().iterator();
+            while(!fits(entry.body.length) && eldest.hasNext())
+            {
+                bytes -= eldest.next().size();
+                eldest.remove();
+            }
+            if(fits(entry.body.length))
+            {
+                CACHE.put(entry.key, entry);
+                bytes += entry.size();
+            }
+        }
+    }
+
+    /**
+     * Gzips the body of an entry the first time a client that takes gzip asks for it, and keeps
+     * the result, so later hits send it without compressing again.
+     */
+    private byte[] gzipped(Entry entry)
+    {
+        EndpointMetrics endpoint = CompressionFilter.endpoint(this.resourceInfo, "GET");
+        byte[] gzipped = entry.gzipped;
+        long nanos = 0;
+        if(gzipped == null)
+        {
+            long start = System.nanoTime();
+            gzipped = Compression.gzip(entry.body);
+            nanos = System.nanoTime() - start;
+            synchronized(CACHE)
+            {
+                // two threads may both compress it, which does no harm; only the first copy is counted
+                if(entry.gzipped == null && CACHE.get(entry.key) == entry)
+                {
+                    entry.gzipped = gzipped;
+                    bytes += gzipped.length;
+                }
+            }
+        }
+        if(endpoint != null)
+            endpoint.compressed(entry.body.length, gzipped.length, nanos);
+        return gzipped;
+    }
+
+    /**
+     * @return true if one more entry with a body of the given length stays within both limits.
+     *     Called holding the cache's lock.
+     */
+    private static boolean fits(int length)
+    {
+        return CACHE.size() < MAX_ENTRIES && bytes + length <= TOTAL_BYTES;
+    }
+
+    /**
+     * Called holding the cache's lock.
+     */
+    private static void remove(Entry entry)
+    {
+        if(CACHE.remove(entry.key) != null)
+            bytes -= entry.size();
+    }
+
+    /**
+     * Called holding the cache's lock.
+     */
+    private static void dropStale()
+    {
+        Iterator<Entry> entries = CACHE.values().iterator();
+        while(entries.hasNext())
+        {
+            Entry entry = entries.next();
+            if(!entry.tag.equals(ConditionalGetFilter.currentTag(entry.resource)))
+            {
+                bytes -= entry.size();
+                entries.remove();
+            }
+        }
+    }
+
+    private static final class Entry
+    {
+        final String key;
+        final Class<?> resource;
+        final String tag;
+        final List<String[]> headers = new ArrayList<String[]>(2);
+        MediaType type;
+        byte[] body;
+        volatile byte[] gzipped;
+
+        Entry(String key, Class<?> resource, String tag)
+        {
+            this.key = key;
+            this.resource = resource;
+            this.tag = tag;
+        }
+
+        long size()
+        {
+            byte[] gzipped = this.gzipped;
+            return this.body.length + (gzipped == null ? 0 : gzipped.length);
+        }
+    }
+
+    /**
+     * Passes the body on to the client and keeps a copy of it, unless it grows past MAX_BYTES.
+     */
+    private static final class CapturingOutputStream extends FilterOutputStream
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+
+        CapturingOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            if(this.fits(1))
+                this.buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            if(this.fits(len))
+                this.buffer.write(b, off, len);
+        }
+
+        private boolean fits(int len)
+        {
+            if(this.buffer != null && this.buffer.size() + len > MAX_BYTES)
+                this.buffer = null;
+            return this.buffer != null;
+        }
+    }
+}
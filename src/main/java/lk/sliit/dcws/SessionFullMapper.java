@@ -0,0 +1,20 @@
+package lk.sliit.dcws;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+import lk.sliit.dcws.store.SessionFullException;
+
+/**
+ * Answers a booking for a session that has no numbers left with 409 Conflict.
+ */
+@Provider
+public class SessionFullMapper implements ExceptionMapper<SessionFullException> {
+
+    @Override
+    public Response toResponse(SessionFullException exception) {
+        return Response.status(409).type(MediaType.TEXT_PLAIN).entity(exception.getMessage() + ". Book another date.").build();
+    }
+}
@@ -0,0 +1,59 @@
+package lk.sliit.dcws;
+
+/**
+ * Reads configuration values. A JVM system property wins over an environment variable of the
+ * same name, so a setting exported on Heroku can still be overridden with -D on the command line.
+ */
+public final class Settings {
+
+    private Settings() {
+    }
+
+    public static String getString(String name, String defaultValue)
+    {
+        String value = System.getProperty(name);
+        if(value == null || value.isEmpty())
+            value = System.getenv(name);
+        if(value == null || value.isEmpty())
+            return defaultValue;
+        return value.trim();
+    }
+
+    public static int getInt(String name, int defaultValue)
+    {
+        String value = getString(name, null);
+        if(value == null)
+            return defaultValue;
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException(name + " must be a whole number but was '" + value + "'", e);
+        }
+    }
+
+    public static long getLong(String name, long defaultValue)
+    {
+        String value = getString(name, null);
+        if(value == null)
+            return defaultValue;
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException(name + " must be a whole number but was '" + value + "'", e);
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue)
+    {
+        String value = getString(name, null);
+        if(value == null)
+            return defaultValue;
+        return value.equalsIgnoreCase("true") || value.equals("1") || value.equalsIgnoreCase("yes");
+    }
+}
@@ -0,0 +1,60 @@
+package lk.sliit.dcws;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Streams a text/plain list response one row at a time instead of concatenating the whole
+ * result into a String first. Each row is formatted into the same StringBuilder, which is
+ * cleared and reused for the next row, and written through a buffered writer straight to the
+ * response, so memory use stays flat however many rows there are.
+ */
+public abstract class TextListOutput<T> implements StreamingOutput {
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private final Iterable<T> rows;
+    private final boolean none;
+
+    /**
+     * @param rows the objects to write, one per line.
+     * @param none true to start the response with "none", which the list endpoints have always
+     *             done when the whole table is empty.
+     */
+    public TextListOutput(Iterable<T> rows, boolean none) {
+        this.rows = rows;
+        this.none = none;
+    }
+
+    /**
+     * Formats one object into the row buffer, without the line separator.
+     */
+    protected abstract void appendRow(StringBuilder row, T item);
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        StringBuilder row = new StringBuilder(128);
+        char[] chars = new char[128];
+
+        if(this.none)
+            out.write("none");
+        for(T item: this.rows)
+        {
+            row.setLength(0);
+            this.appendRow(row, item);
+            row.append(LINE_SEPARATOR);
+            if(chars.length < row.length())
+                chars = new char[row.capacity()];
+            row.getChars(0, row.length(), chars, 0); // out.append(row) would make a String per row
+            out.write(chars, 0, row.length());
+        }
+        out.flush();
+    }
+}
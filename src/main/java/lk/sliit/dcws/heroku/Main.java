@@ -1,8 +1,23 @@
 package lk.sliit.dcws.heroku;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.eclipse.jetty.webapp.WebAppContext;
 
+import lk.sliit.dcws.Execution;
+import lk.sliit.dcws.Settings;
+
 /**
  * This class launches the web application in an embedded Jetty container. This is the entry point to your application. The Java
  * command that is used for launching should fire this main method.
@@ -17,7 +32,40 @@ public class Main {
             webPort = "8080";
         }
 
-        final Server server = new Server(Integer.valueOf(webPort));
+        final Server server = createServer(Integer.valueOf(webPort), "src/main/webapp/");
+
+        server.start();
+        server.join();
+    }
+
+    /**
+     * Sets up the server without starting it, so that other launchers such as the load test
+     * can run exactly what main() runs. A port of 0 picks a free one once started.
+     *
+     * The threads it runs on follow the EXECUTION mode (see Execution). In pool and async mode
+     * Jetty gets a pool of THREADS_MIN to THREADS_MAX threads (8 and 200) that end after
+     * THREADS_IDLE_MS of idleness (60000), and at most THREADS_QUEUE requests wait for one
+     * (1024); past that Jetty turns connections away instead of queueing without end. In
+     * virtual mode every task gets its own virtual thread and none of these apply.
+     *
+     * The one connector speaks HTTP/1.1 and, unless HTTP2 is false, cleartext HTTP/2 (h2c) to
+     * clients that upgrade to it or start with it, so one connection can carry many requests at
+     * once. It is tuned with:
+     * <ul>
+     * <li>CONNECTOR_ACCEPTORS and CONNECTOR_SELECTORS - threads accepting connections and
+     * watching them for input (default -1, Jetty's choice from the number of processors).</li>
+     * <li>CONNECTOR_IDLE_MS - how long an idle keep-alive connection is kept open (30000).</li>
+     * <li>OUTPUT_BUFFER_BYTES - the response buffer; a body that fits is sent with a
+     * Content-Length, a larger one is chunked (32768).</li>
+     * <li>HTTP2_MAX_STREAMS - requests one HTTP/2 connection may have in progress (128).</li>
+     * </ul>
+     *
+     * @param webappDirLocation the directory holding WEB-INF/web.xml.
+     */
+    public static Server createServer(int port, String webappDirLocation)
+    {
+        final Server server = new Server(createThreadPool(Execution.getMode()));
+        server.addConnector(createConnector(server, port));
         final WebAppContext root = new WebAppContext();
 
         root.setContextPath("/");
@@ -28,13 +76,93 @@ public class Main {
         // Read more here: http://wiki.eclipse.org/Jetty/Reference/Jetty_Classloading
         root.setParentLoaderPriority(true);
 
-        final String webappDirLocation = "src/main/webapp/";
         root.setDescriptor(webappDirLocation + "/WEB-INF/web.xml");
         root.setResourceBase(webappDirLocation);
 
         server.setHandler(root);
+        return server;
+    }
 
-        server.start();
-        server.join();
+    private static ServerConnector createConnector(Server server, int port)
+    {
+        HttpConfiguration config = new HttpConfiguration();
+        config.setOutputBufferSize(Settings.getInt("OUTPUT_BUFFER_BYTES", 32768));
+        ConnectionFactory http1 = new HttpConnectionFactory(config);
+        ConnectionFactory[] factories = { http1 };
+        if(Settings.getBoolean("HTTP2", true))
+        {
+            HTTP2CServerConnectionFactory http2 = new HTTP2CServerConnectionFactory(config);
+            http2.setMaxConcurrentStreams(Settings.getInt("HTTP2_MAX_STREAMS", 128));
+            factories = new ConnectionFactory[] { http1, http2 };
+        }
+        ServerConnector connector = new ServerConnector(server, Settings.getInt("CONNECTOR_ACCEPTORS", -1), Settings.getInt("CONNECTOR_SELECTORS", -1), factories);
+        connector.setIdleTimeout(Settings.getLong("CONNECTOR_IDLE_MS", 30000));
+        connector.setPort(port);
+        return connector;
+    }
+
+    private static ThreadPool createThreadPool(Execution.Mode mode)
+    {
+        if(mode == Execution.Mode.VIRTUAL)
+            return new ExecutorServiceThreadPool(Execution.newVirtualThreadExecutor());
+        int minThreads = Settings.getInt("THREADS_MIN", 8);
+        int maxThreads = Settings.getInt("THREADS_MAX", 200);
+        int idleTimeout = Settings.getInt("THREADS_IDLE_MS", 60000);
+        int queue = Settings.getInt("THREADS_QUEUE", 1024);
+        QueuedThreadPool pool = new QueuedThreadPool(maxThreads, minThreads, idleTimeout, new ArrayBlockingQueue<Runnable>(queue));
+        pool.setName("jetty");
+        return pool;
+    }
+
+    /**
+     * Lets Jetty run on an ExecutorService that is not a ThreadPoolExecutor, which is all
+     * Jetty's own ExecutorThreadPool takes. Such an executor has no fixed threads to count, so
+     * Jetty is told it never runs low.
+     *
+     * Jetty stops it with the server: the executor is shut down, running tasks get the stop
+     * timeout (30000 ms unless set) to end and are then interrupted. join() returns once the
+     * pool has stopped, even if a task ignores the interrupt.
+     */
+    private static final class ExecutorServiceThreadPool extends AbstractLifeCycle implements ThreadPool
+    {
+        private final ExecutorService executor;
+
+        ExecutorServiceThreadPool(ExecutorService executor)
+        {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            this.executor.execute(task);
+        }
+
+        @Override
+        public void join() throws InterruptedException {
+            while(!this.executor.awaitTermination(Math.max(100, this.getStopTimeout()), TimeUnit.MILLISECONDS) && !this.isStopped())
+                ;
+        }
+
+        @Override
+        protected void doStop() throws Exception {
+            this.executor.shutdown();
+            if(!this.executor.awaitTermination(this.getStopTimeout(), TimeUnit.MILLISECONDS))
+                this.executor.shutdownNow();
+        }
+
+        @Override
+        public int getThreads() {
+            return 0;
+        }
+
+        @Override
+        public int getIdleThreads() {
+            return 0;
+        }
+
+        @Override
+        public boolean isLowOnThreads() {
+            return false;
+        }
     }
 }
@@ -0,0 +1,52 @@
+package lk.sliit.dcws.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a JSON array body into the text of its elements, one at a time, without reading the
+ * rest of the body. A caller can then parse every element on its own, report the ones that
+ * cannot be read and stop once it has seen as many as it takes.
+ *
+ * An element is only checked for matching quotes and brackets. A body that is not an array,
+ * or whose brackets do not match, is answered with 400 Bad Request as soon as that is found.
+ */
+public final class JsonArrayReader {
+
+    private final JsonInput in;
+    private boolean started;
+    private boolean ended;
+
+    public JsonArrayReader(InputStream body) {
+        this.in = new JsonInput(body);
+    }
+
+    /**
+     * Moves to the next element without reading it.
+     *
+     * @return false once the array has ended.
+     */
+    public boolean hasNext() throws IOException
+    {
+        if(this.ended)
+            return false;
+        if(!this.started)
+        {
+            if(this.in.peek() != '[')
+                throw this.in.error("an array");
+            this.in.beginArray();
+            this.started = true;
+        }
+        if(!this.in.hasNext())
+            this.ended = true;
+        return !this.ended;
+    }
+
+    /**
+     * @return the text of the element hasNext() moved to.
+     */
+    public String next() throws IOException
+    {
+        return this.in.rawValue();
+    }
+}
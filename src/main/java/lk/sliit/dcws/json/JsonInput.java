@@ -0,0 +1,320 @@
+package lk.sliit.dcws.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.BadRequestException;
+
+/**
+ * Reads JSON one token at a time from a UTF-8 request body, so objects are filled in as their
+ * members go by instead of being parsed into a tree first.
+ *
+ * Like MOXy before it, it is lenient about values: a number, true or false read where a string
+ * is expected gives its text, and whatever follows the first complete value is ignored. Bad
+ * syntax is answered with 400 Bad Request.
+ */
+final class JsonInput {
+
+    private final Reader in;
+    private final char[] buffer = new char[4096];
+    private final StringBuilder text = new StringBuilder(64);
+    private int position;
+    private int limit;
+    private long consumed; // chars before the buffer, for error messages
+    private boolean first = true; // no comma before the next member or element
+
+    JsonInput(InputStream in) {
+        this.in = new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Skips white space and looks at the next character without taking it.
+     *
+     * @return the character, or -1 at the end of the body.
+     */
+    int peek() throws IOException
+    {
+        while(true)
+        {
+            if(this.position == this.limit && !this.fill())
+                return -1;
+            char c = this.buffer[this.position];
+            if(c != ' ' && c != '\t' && c != '\n' && c != '\r')
+                return c;
+            this.position++;
+        }
+    }
+
+    void beginObject() throws IOException
+    {
+        this.expect('{');
+        this.first = true;
+    }
+
+    /**
+     * Moves to the next member of the current object.
+     *
+     * @return its name, with the colon after it already read, or null once the object has ended.
+     */
+    String nextName() throws IOException
+    {
+        if(this.peek() == '}')
+        {
+            this.position++;
+            this.first = false;
+            return null;
+        }
+        if(!this.first)
+            this.expect(',');
+        if(this.peek() != '"')
+            throw this.error("a member name");
+        String name = this.string();
+        this.expect(':');
+        return name;
+    }
+
+    void beginArray() throws IOException
+    {
+        this.expect('[');
+        this.first = true;
+    }
+
+    /**
+     * Moves to the next element of the current array.
+     *
+     * @return false once the array has ended.
+     */
+    boolean hasNext() throws IOException
+    {
+        if(this.peek() == ']')
+        {
+            this.position++;
+            this.first = false;
+            return false;
+        }
+        if(!this.first)
+            this.expect(',');
+        return true;
+    }
+
+    /**
+     * Reads a string, number, true, false or null.
+     *
+     * @return the string or the text of the literal, or null for null.
+     */
+    String scalar() throws IOException
+    {
+        int c = this.peek();
+        this.first = false;
+        if(c == '"')
+            return this.string();
+        if(c == '{' || c == '[' || c == -1)
+            throw this.error("a string, number, true, false or null");
+
+        this.text.setLength(0);
+        while(this.position < this.limit || this.fill())
+        {
+            c = this.buffer[this.position];
+            if(!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || c == '-' || c == '+' || c == '.' || c == 'E'))
+                break;
+            this.text.append((char) c);
+            this.position++;
+        }
+        String literal = this.text.toString();
+        if(literal.equals("null"))
+            return null;
+        if(literal.equals("true") || literal.equals("false") || isNumber(literal))
+            return literal;
+        throw this.error("a string, number, true, false or null");
+    }
+
+    /**
+     * Reads past the next value, whatever it is.
+     */
+    void skipValue() throws IOException
+    {
+        int c = this.peek();
+        if(c == '{')
+        {
+            this.beginObject();
+            while(this.nextName() != null)
+                this.skipValue();
+        }
+        else if(c == '[')
+        {
+            this.beginArray();
+            while(this.hasNext())
+                this.skipValue();
+        }
+        else
+            this.scalar();
+    }
+
+    /**
+     * Reads the next value as text without interpreting it, for a caller that parses it on its
+     * own. Only strings and brackets are looked at, so the text is not necessarily valid JSON,
+     * but brackets that do not match end the body with 400 Bad Request.
+     */
+    String rawValue() throws IOException
+    {
+        this.peek();
+        this.first = false;
+        this.text.setLength(0);
+        StringBuilder open = new StringBuilder(); // closing brackets expected, innermost last
+        while(true)
+        {
+            if(this.position == this.limit && !this.fill())
+                throw this.error("the end of the value");
+            char c = this.buffer[this.position];
+            if(open.length() == 0 && (c == ',' || c == ']' || c == '}' || c == ' ' || c == '\t' || c == '\n' || c == '\r'))
+            {
+                if(this.text.length() == 0)
+                    throw this.error("a value");
+                return this.text.toString(); // the end of a number or literal
+            }
+            this.position++;
+            this.text.append(c);
+            if(c == '"')
+            {
+                this.rawString();
+            }
+            else if(c == '{' || c == '[')
+            {
+                open.append(c == '{' ? '}' : ']');
+            }
+            else if(c == '}' || c == ']')
+            {
+                if(c != open.charAt(open.length() - 1))
+                {
+                    this.position--;
+                    throw this.error("'" + open.charAt(open.length() - 1) + "'");
+                }
+                open.setLength(open.length() - 1);
+                if(open.length() == 0)
+                    return this.text.toString();
+            }
+        }
+    }
+
+    BadRequestException error(String expected)
+    {
+        return new BadRequestException("Expected " + expected + " at character " + (this.consumed + this.position + 1) + " of the JSON body");
+    }
+
+    private String string() throws IOException
+    {
+        this.position++; // the opening quote
+        this.text.setLength(0);
+        while(true)
+        {
+            int start = this.position;
+            while(this.position < this.limit && this.buffer[this.position] != '"' && this.buffer[this.position] != '\\')
+                this.position++;
+            this.text.append(this.buffer, start, this.position - start);
+            if(this.position == this.limit)
+            {
+                if(!this.fill())
+                    throw this.error("the end of the string");
+                continue;
+            }
+            char c = this.buffer[this.position++];
+            if(c == '"')
+                return this.text.toString();
+            this.text.append(this.unescape());
+        }
+    }
+
+    /**
+     * Copies the rest of a string, escapes and all, after its opening quote.
+     */
+    private void rawString() throws IOException
+    {
+        while(true)
+        {
+            char c = this.next();
+            this.text.append(c);
+            if(c == '"')
+                return;
+            if(c == '\\')
+                this.text.append(this.next());
+        }
+    }
+
+    private char unescape() throws IOException
+    {
+        char c = this.next();
+        switch(c)
+        {
+        case '"':
+        case '\\':
+        case '/':
+            return c;
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case 'u':
+            int value = 0;
+            for(int i = 0; i < 4; i++)
+            {
+                int digit = Character.digit(this.next(), 16);
+                if(digit < 0)
+                    throw this.error("four hex digits after \\u");
+                value = value << 4 | digit;
+            }
+            return (char) value;
+        default:
+            throw this.error("an escape sequence");
+        }
+    }
+
+    private char next() throws IOException
+    {
+        if(this.position == this.limit && !this.fill())
+            throw this.error("more of the body");
+        return this.buffer[this.position++];
+    }
+
+    private void expect(char c) throws IOException
+    {
+        if(this.peek() != c)
+            throw this.error("'" + c + "'");
+        this.position++;
+    }
+
+    private boolean fill() throws IOException
+    {
+        this.consumed += this.limit;
+        this.position = 0;
+        this.limit = 0;
+        int read = this.in.read(this.buffer);
+        if(read <= 0)
+            return false;
+        this.limit = read;
+        return true;
+    }
+
+    private static boolean isNumber(String literal)
+    {
+        if(literal.isEmpty() || !(literal.charAt(0) == '-' || Character.isDigit(literal.charAt(0))))
+            return false;
+        try
+        {
+            Double.parseDouble(literal);
+            return true;
+        }
+        catch(NumberFormatException e)
+        {
+            return false;
+        }
+    }
+}
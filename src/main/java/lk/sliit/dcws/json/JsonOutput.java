@@ -0,0 +1,247 @@
+package lk.sliit.dcws.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes JSON as UTF-8 straight into a byte buffer that goes to the output stream whenever it
+ * fills up, without building strings or a tree first. The buffer belongs to the thread and is
+ * reused by every response it writes.
+ *
+ * Strings are escaped exactly as MOXy escapes them, so the bytes match what the service sent
+ * before: the two-character escapes for quote, backslash, \b, \t, \n, \f and \r, and \\uXXXX
+ * with upper case digits for the other control characters, U+007F to U+009F and surrogates.
+ * Everything else is written as plain UTF-8, and '/' is not escaped.
+ */
+final class JsonOutput {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_CHAR_BYTES = 6; // the longest a char gets, as a \\uXXXX escape
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private final OutputStream out;
+    private final byte[] buffer = BUFFERS.get();
+    private int position;
+    private boolean first = true; // no comma before the next value
+
+    JsonOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Encodes a member name, with its quotes and colon, once so it can be copied into every object.
+     */
+    static byte[] name(String name)
+    {
+        return ("\"" + name + "\":").getBytes(StandardCharsets.UTF_8);
+    }
+
+    void beginObject() throws IOException
+    {
+        this.separator();
+        this.write('{');
+        this.first = true;
+    }
+
+    void endObject() throws IOException
+    {
+        this.write('}');
+        this.first = false;
+    }
+
+    void beginArray() throws IOException
+    {
+        this.separator();
+        this.write('[');
+        this.first = true;
+    }
+
+    void endArray() throws IOException
+    {
+        this.write(']');
+        this.first = false;
+    }
+
+    /**
+     * Writes a string member, or nothing at all when the value is null, as MOXy leaves null
+     * members out.
+     */
+    void member(byte[] name, String value) throws IOException
+    {
+        if(value == null)
+            return;
+        this.name(name);
+        this.string(value);
+    }
+
+    void member(byte[] name, int value) throws IOException
+    {
+        this.name(name);
+        this.number(value);
+    }
+
+    /**
+     * Writes the name of a member whose value is written next, such as an array.
+     */
+    void name(byte[] name) throws IOException
+    {
+        this.separator();
+        this.write(name);
+        this.first = true; // the value follows the colon directly
+    }
+
+    void nullValue() throws IOException
+    {
+        this.separator();
+        this.write(NULL);
+    }
+
+    void string(String value) throws IOException
+    {
+        this.separator();
+        this.write('"');
+        byte[] buffer = this.buffer;
+        int length = value.length();
+        for(int i = 0; i < length; i++)
+        {
+            if(this.position + MAX_CHAR_BYTES > buffer.length)
+                this.drain();
+            char c = value.charAt(i);
+            if(c >= 0x20 && c < 0x7F && c != '"' && c != '\\')
+            {
+                buffer[this.position++] = (byte) c;
+                continue;
+            }
+            this.escape(c);
+        }
+        this.write('"');
+    }
+
+    void number(int value) throws IOException
+    {
+        this.separator();
+        if(this.position + 11 > this.buffer.length)
+            this.drain();
+        if(value < 0)
+        {
+            if(value == Integer.MIN_VALUE)
+            {
+                this.write(Integer.toString(value).getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            this.buffer[this.position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for(int rest = value / 10; rest != 0; rest /= 10)
+            digits++;
+        int end = this.position + digits;
+        for(int i = end - 1; i >= this.position; i--)
+        {
+            this.buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        this.position = end;
+    }
+
+    /**
+     * Sends whatever is still buffered to the output stream. The stream itself is not flushed.
+     */
+    void flush() throws IOException
+    {
+        this.drain();
+    }
+
+    private void escape(char c)
+    {
+        byte[] buffer = this.buffer;
+        switch(c)
+        {
+        case '"':
+        case '\\':
+            buffer[this.position++] = '\\';
+            buffer[this.position++] = (byte) c;
+            return;
+        case '\b':
+            buffer[this.position++] = '\\';
+            buffer[this.position++] = 'b';
+            return;
+        case '\t':
+            buffer[this.position++] = '\\';
+            buffer[this.position++] = 't';
+            return;
+        case '\n':
+            buffer[this.position++] = '\\';
+            buffer[this.position++] = 'n';
+            return;
+        case '\f':
+            buffer[this.position++] = '\\';
+            buffer[this.position++] = 'f';
+            return;
+        case '\r':
+            buffer[this.position++] = '\\';
+            buffer[this.position++] = 'r';
+            return;
+        }
+        if(c < 0x20 || (c >= 0x7F && c <= 0x9F) || Character.isSurrogate(c))
+        {
+            buffer[this.position++] = '\\';
+            buffer[this.position++] = 'u';
+            buffer[this.position++] = HEX[c >> 12];
+            buffer[this.position++] = HEX[(c >> 8) & 0xF];
+            buffer[this.position++] = HEX[(c >> 4) & 0xF];
+            buffer[this.position++] = HEX[c & 0xF];
+        }
+        else if(c < 0x800)
+        {
+            buffer[this.position++] = (byte) (0xC0 | (c >> 6));
+            buffer[this.position++] = (byte) (0x80 | (c & 0x3F));
+        }
+        else
+        {
+            buffer[this.position++] = (byte) (0xE0 | (c >> 12));
+            buffer[this.position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[this.position++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void separator() throws IOException
+    {
+        if(this.first)
+            this.first = false;
+        else
+            this.write(',');
+    }
+
+    private void write(char c) throws IOException
+    {
+        if(this.position == this.buffer.length)
+            this.drain();
+        this.buffer[this.position++] = (byte) c;
+    }
+
+    private void write(byte[] bytes) throws IOException
+    {
+        if(this.position + bytes.length > this.buffer.length)
+            this.drain();
+        System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+        this.position += bytes.length;
+    }
+
+    private void drain() throws IOException
+    {
+        if(this.position == 0)
+            return;
+        this.out.write(this.buffer, 0, this.position);
+        this.position = 0;
+    }
+}
@@ -0,0 +1,410 @@
+package lk.sliit.dcws.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import lk.sliit.dcws.Appointment;
+import lk.sliit.dcws.BulkResult;
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.Hospital;
+
+/**
+ * JSON for Doctor, Hospital, Appointment and BulkResult, on their own, in arrays and in lists,
+ * in place of MOXy. Every type has a hand written JsonType, so nothing is looked up by
+ * reflection and objects are written to and read from the stream member by member.
+ *
+ * The output is byte for byte what MOXy wrote: members in declaration order, null members left
+ * out, null array elements written as null and the same string escapes (see JsonOutput).
+ * Reading accepts what MOXy accepted, including its quirks: a single string where the hospitals
+ * array is expected is read as an array of one, an empty hospitals array is read as null and an
+ * appointmentNumber that is not a whole number is ignored.
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class JsonProvider implements MessageBodyWriter<Object>, MessageBodyReader<Object> {
+
+    private static final Map<Class<?>, JsonType<?>> TYPES = new HashMap<Class<?>, JsonType<?>>();
+
+    static
+    {
+        register(new JsonType<Doctor>(Doctor.class) {
+            private final byte[] id = JsonOutput.name("id");
+            private final byte[] name = JsonOutput.name("name");
+            private final byte[] lastName = JsonOutput.name("lastName");
+            private final byte[] specialization = JsonOutput.name("specialization");
+            private final byte[] hospitals = JsonOutput.name("hospitals");
+
+            @Override
+            Doctor create() {
+                return new Doctor();
+            }
+
+            @Override
+            void write(JsonOutput out, Doctor doctor) throws IOException {
+                out.member(this.id, doctor.id);
+                out.member(this.name, doctor.name);
+                out.member(this.lastName, doctor.lastName);
+                out.member(this.specialization, doctor.specialization);
+                if(doctor.hospitals != null)
+                {
+                    out.name(this.hospitals);
+                    out.beginArray();
+                    for(String hospital : doctor.hospitals)
+                    {
+                        if(hospital == null)
+                            out.nullValue();
+                        else
+                            out.string(hospital);
+                    }
+                    out.endArray();
+                }
+            }
+
+            @Override
+            boolean read(JsonInput in, Doctor doctor, String member) throws IOException {
+                switch(member)
+                {
+                case "id":
+                    doctor.id = in.scalar();
+                    return true;
+                case "name":
+                    doctor.name = in.scalar();
+                    return true;
+                case "lastName":
+                    doctor.lastName = in.scalar();
+                    return true;
+                case "specialization":
+                    doctor.specialization = in.scalar();
+                    return true;
+                case "hospitals":
+                    doctor.hospitals = readStrings(in);
+                    return true;
+                default:
+                    return false;
+                }
+            }
+        });
+
+        register(new JsonType<Hospital>(Hospital.class) {
+            private final byte[] id = JsonOutput.name("id");
+            private final byte[] name = JsonOutput.name("name");
+
+            @Override
+            Hospital create() {
+                return new Hospital();
+            }
+
+            @Override
+            void write(JsonOutput out, Hospital hospital) throws IOException {
+                out.member(this.id, hospital.id);
+                out.member(this.name, hospital.name);
+            }
+
+            @Override
+            boolean read(JsonInput in, Hospital hospital, String member) throws IOException {
+                switch(member)
+                {
+                case "id":
+                    hospital.id = in.scalar();
+                    return true;
+                case "name":
+                    hospital.name = in.scalar();
+                    return true;
+                default:
+                    return false;
+                }
+            }
+        });
+
+        register(new JsonType<Appointment>(Appointment.class) {
+            private final byte[] id = JsonOutput.name("id");
+            private final byte[] patientName = JsonOutput.name("patientName");
+            private final byte[] doctorId = JsonOutput.name("doctorId");
+            private final byte[] hospitalId = JsonOutput.name("hospitalId");
+            private final byte[] appointmentDate = JsonOutput.name("appointmentDate");
+            private final byte[] appointmentNumber = JsonOutput.name("appointmentNumber");
+
+            @Override
+            Appointment create() {
+                return new Appointment();
+            }
+
+            @Override
+            void write(JsonOutput out, Appointment appointment) throws IOException {
+                out.member(this.id, appointment.id);
+                out.member(this.patientName, appointment.patientName);
+                out.member(this.doctorId, appointment.doctorId);
+                out.member(this.hospitalId, appointment.hospitalId);
+                out.member(this.appointmentDate, appointment.appointmentDate);
+                out.member(this.appointmentNumber, appointment.appointmentNumber);
+            }
+
+            @Override
+            boolean read(JsonInput in, Appointment appointment, String member) throws IOException {
+                switch(member)
+                {
+                case "id":
+                    appointment.id = in.scalar();
+                    return true;
+                case "patientName":
+                    appointment.patientName = in.scalar();
+                    return true;
+                case "doctorId":
+                    appointment.doctorId = in.scalar();
+                    return true;
+                case "hospitalId":
+                    appointment.hospitalId = in.scalar();
+                    return true;
+                case "appointmentDate":
+                    appointment.appointmentDate = in.scalar();
+                    return true;
+                case "appointmentNumber":
+                    appointment.appointmentNumber = readInt(in, appointment.appointmentNumber);
+                    return true;
+                default:
+                    return false;
+                }
+            }
+        });
+
+        register(new JsonType<BulkResult>(BulkResult.class) {
+            private final byte[] index = JsonOutput.name("index");
+            private final byte[] status = JsonOutput.name("status");
+            private final byte[] id = JsonOutput.name("id");
+            private final byte[] error = JsonOutput.name("error");
+
+            @Override
+            BulkResult create() {
+                return new BulkResult();
+            }
+
+            @Override
+            void write(JsonOutput out, BulkResult result) throws IOException {
+                out.member(this.index, result.index);
+                out.member(this.status, result.status);
+                out.member(this.id, result.id);
+                out.member(this.error, result.error);
+            }
+
+            @Override
+            boolean read(JsonInput in, BulkResult result, String member) throws IOException {
+                switch(member)
+                {
+                case "index":
+                    result.index = readInt(in, result.index);
+                    return true;
+                case "status":
+                    result.status = readInt(in, result.status);
+                    return true;
+                case "id":
+                    result.id = in.scalar();
+                    return true;
+                case "error":
+                    result.error = in.scalar();
+                    return true;
+                default:
+                    return false;
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return jsonTypeOf(type, genericType) != null && MediaType.APPLICATION_JSON_TYPE.isCompatible(mediaType);
+    }
+
+    @Override
+    public long getSize(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        JsonType<Object> json = jsonTypeOf(type, genericType);
+        JsonOutput out = new JsonOutput(entityStream);
+        if(type.isArray())
+        {
+            out.beginArray();
+            for(int i = 0, length = Array.getLength(entity); i < length; i++)
+                json.writeValue(out, Array.get(entity, i));
+            out.endArray();
+        }
+        else if(entity instanceof Collection)
+        {
+            out.beginArray();
+            for(Object item : (Collection<?>) entity)
+                json.writeValue(out, item);
+            out.endArray();
+        }
+        else
+            json.writeValue(out, entity);
+        out.flush();
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return jsonTypeOf(type, genericType) != null && MediaType.APPLICATION_JSON_TYPE.isCompatible(mediaType);
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+        JsonType<Object> json = jsonTypeOf(type, genericType);
+        JsonInput in = new JsonInput(entityStream);
+        if(!type.isArray() && !Collection.class.isAssignableFrom(type))
+        {
+            if(in.peek() != '{')
+                throw in.error("a " + json.type.getSimpleName() + " object");
+            return json.read(in);
+        }
+
+        if(in.peek() != '[')
+            throw in.error("an array of " + json.type.getSimpleName() + " objects");
+        ArrayList<Object> items = new ArrayList<Object>();
+        in.beginArray();
+        while(in.hasNext())
+        {
+            if(in.peek() == '{')
+                items.add(json.read(in));
+            else
+            {
+                in.skipValue(); // null, or anything else that is not an object, as MOXy did
+                items.add(null);
+            }
+        }
+        if(type.isArray())
+            return items.toArray((Object[]) Array.newInstance(json.type, items.size()));
+        return items;
+    }
+
+    /**
+     * Finds the JsonType for a supported class, or for the element type of an array or a
+     * collection of one.
+     */
+    @SuppressWarnings("unchecked")
+    private static JsonType<Object> jsonTypeOf(Class<?> type, Type genericType)
+    {
+        Class<?> element = type;
+        if(type.isArray())
+            element = type.getComponentType();
+        else if(Collection.class.isAssignableFrom(type))
+        {
+            if(!(genericType instanceof ParameterizedType) || !type.isAssignableFrom(ArrayList.class) && !List.class.isAssignableFrom(type))
+                return null;
+            Type argument = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+            if(!(argument instanceof Class))
+                return null;
+            element = (Class<?>) argument;
+        }
+        return (JsonType<Object>) TYPES.get(element);
+    }
+
+    private static String[] readStrings(JsonInput in) throws IOException
+    {
+        if(in.peek() != '[')
+        {
+            String value = in.scalar();
+            return value == null ? null : new String[] { value };
+        }
+        ArrayList<String> values = new ArrayList<String>(4);
+        in.beginArray();
+        while(in.hasNext())
+            values.add(in.scalar());
+        return values.isEmpty() ? null : values.toArray(new String[values.size()]);
+    }
+
+    /**
+     * Reads a whole number, from a number or a string, keeping the current value for anything else.
+     */
+    private static int readInt(JsonInput in, int current) throws IOException
+    {
+        String value = in.scalar();
+        if(value == null)
+            return current;
+        try
+        {
+            return Integer.parseInt(value.trim());
+        }
+        catch(NumberFormatException e)
+        {
+            return current;
+        }
+    }
+
+    private static void register(JsonType<?> json)
+    {
+        TYPES.put(json.type, json);
+    }
+
+    /**
+     * Writes and reads the members of one class.
+     */
+    abstract static class JsonType<T>
+    {
+        final Class<T> type;
+
+        JsonType(Class<T> type)
+        {
+            this.type = type;
+        }
+
+        abstract T create();
+
+        /**
+         * Writes the members of the object, between the braces.
+         */
+        abstract void write(JsonOutput out, T value) throws IOException;
+
+        /**
+         * Reads the value of one member into the object.
+         *
+         * @return false if the member is unknown; its value has then not been read.
+         */
+        abstract boolean read(JsonInput in, T value, String member) throws IOException;
+
+        final void writeValue(JsonOutput out, T value) throws IOException
+        {
+            if(value == null)
+            {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            this.write(out, value);
+            out.endObject();
+        }
+
+        final T read(JsonInput in) throws IOException
+        {
+            T value = this.create();
+            in.beginObject();
+            for(String member = in.nextName(); member != null; member = in.nextName())
+            {
+                if(!this.read(in, value, member))
+                    in.skipValue();
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package lk.sliit.dcws.log;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log writer that never blocks the thread that logs. Records go into a fixed ring of
+ * preallocated slots and a single background thread formats them and writes them out, so request
+ * threads only claim a slot with one compare-and-set and copy a few references into it. When
+ * the ring is full the record is dropped and counted rather than making the caller wait.
+ *
+ * Each line is written as space separated key=value pairs, starting with the time and the
+ * endpoint, e.g. {@code time=2014-05-01T10:15:30.125Z endpoint=doctors.get format=json id=DOC001}.
+ */
+public class AsyncLog {
+
+    /** The most key/value pairs a single record can carry. */
+    static final int MAX_FIELDS = 3;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // only touched by the writer thread
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private long reportedDropped;
+
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(256);
+    private final SimpleDateFormat time = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+    private volatile Thread writer;
+    private volatile boolean closed;
+
+    private static class Slot {
+        volatile long sequence;
+        long timestamp;
+        String endpoint;
+        int count;
+        final String[] keys = new String[MAX_FIELDS];
+        final Object[] values = new Object[MAX_FIELDS];
+    }
+
+    /**
+     * @param capacity the number of records that can wait to be written, rounded up to a power of two.
+     * @param out where the lines go; it is only ever written from the writer thread.
+     */
+    public AsyncLog(int capacity, OutputStream out) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Slot[size];
+        for(int i = 0; i < size; i++)
+        {
+            this.slots[i] = new Slot();
+            this.slots[i].sequence = i;
+        }
+        this.mask = size - 1;
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192);
+        this.time.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Starts the daemon thread that writes queued records.
+     */
+    public synchronized void start()
+    {
+        if(this.writer != null)
+            return;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                AsyncLog.this.run();
+            }
+        }, "async-log");
+        thread.setDaemon(true);
+        this.writer = thread;
+        thread.start();
+    }
+
+    /**
+     * Writes whatever is still queued and stops the writer thread. Records queued after this, for
+     * example by another shutdown hook, are written by the thread that queues them.
+     */
+    public void close()
+    {
+        this.closed = true;
+        Thread thread = this.writer;
+        if(thread != null)
+            LockSupport.unpark(thread);
+        this.drainClosed();
+    }
+
+    /**
+     * Queues a record. Keys and values are taken in pairs and values are formatted with
+     * String.valueOf() on the writer thread, so they must not change after the call.
+     *
+     * @return false if the ring was full and the record was dropped.
+     */
+    boolean offer(String endpoint, int count, String k1, Object v1, String k2, Object v2, String k3, Object v3)
+    {
+        long position = this.tail.get();
+        Slot slot;
+        while(true)
+        {
+            slot = this.slots[(int) position & this.mask];
+            long difference = slot.sequence - position;
+            if(difference == 0)
+            {
+                if(this.tail.compareAndSet(position, position + 1))
+                    break;
+                position = this.tail.get();
+            }
+            else if(difference < 0)
+            {
+                this.dropped.incrementAndGet(); // the writer has not caught up with this slot yet
+                return false;
+            }
+            else
+            {
+                position = this.tail.get(); // another thread claimed it first
+            }
+        }
+
+        slot.timestamp = System.currentTimeMillis();
+        slot.endpoint = endpoint;
+        slot.count = count;
+        slot.keys[0] = k1;
+        slot.values[0] = v1;
+        slot.keys[1] = k2;
+        slot.values[1] = v2;
+        slot.keys[2] = k3;
+        slot.values[2] = v3;
+        slot.sequence = position + 1; // publishes the fields above to the writer
+        if(this.closed)
+            this.drainClosed(); // the writer thread may already be gone
+        return true;
+    }
+
+    /**
+     * Writes every record queued so far and flushes. Called by the writer thread; tests call it
+     * directly on a log that was never started.
+     *
+     * @return the number of records written.
+     */
+    int drain()
+    {
+        int count = 0;
+        try
+        {
+            while(true)
+            {
+                Slot slot = this.slots[(int) this.head & this.mask];
+                if(slot.sequence != this.head + 1)
+                    break;
+                this.format(slot);
+                this.out.append(this.line);
+                slot.endpoint = null;
+                for(int i = 0; i < MAX_FIELDS; i++)
+                {
+                    slot.keys[i] = null;
+                    slot.values[i] = null;
+                }
+                slot.sequence = this.head + this.slots.length; // hands the slot back to the producers
+                this.head++;
+                count++;
+            }
+            long dropped = this.dropped.get();
+            if(dropped != this.reportedDropped)
+            {
+                this.line.setLength(0);
+                this.line.append("time=").append(this.time.format(new Date())).append(" endpoint=log dropped=").append(dropped - this.reportedDropped).append('\n');
+                this.out.append(this.line);
+                this.reportedDropped = dropped;
+                this.out.flush();
+            }
+            else if(count > 0)
+            {
+                this.out.flush();
+            }
+        }
+        catch(IOException e)
+        {
+            System.err.println("Could not write log: " + e);
+        }
+        this.written.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Drains on the calling thread once the writer thread has finished, one caller at a time.
+     */
+    private synchronized void drainClosed()
+    {
+        Thread thread = this.writer;
+        if(thread != null)
+        {
+            try
+            {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if(thread.isAlive())
+                return;
+        }
+        this.drain();
+    }
+
+    public long getDropped()
+    {
+        return this.dropped.get();
+    }
+
+    public long getWritten()
+    {
+        return this.written.get();
+    }
+
+    public int getCapacity()
+    {
+        return this.slots.length;
+    }
+
+    private void run()
+    {
+        while(!this.closed)
+        {
+            if(this.drain() == 0)
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        this.drain();
+    }
+
+    private void format(Slot slot)
+    {
+        StringBuilder line = this.line;
+        line.setLength(0);
+        line.append("time=").append(this.time.format(new Date(slot.timestamp)));
+        line.append(" endpoint=").append(slot.endpoint);
+        for(int i = 0; i < slot.count; i++)
+        {
+            line.append(' ').append(slot.keys[i]).append('=');
+            appendValue(line, String.valueOf(slot.values[i]));
+        }
+        line.append('\n');
+    }
+
+    /**
+     * Quotes values that would otherwise break the key=value format.
+     */
+    private static void appendValue(StringBuilder line, String value)
+    {
+        boolean quote = value.isEmpty();
+        for(int i = 0; i < value.length() && !quote; i++)
+        {
+            char c = value.charAt(i);
+            quote = c <= ' ' || c == '"' || c == '=';
+        }
+        if(!quote)
+        {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if(c == '"' || c == '\\')
+                line.append('\\').append(c);
+            else if(c == '\n')
+                line.append("\\n");
+            else if(c == '\r')
+                line.append("\\r");
+            else
+                line.append(c);
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,59 @@
+package lk.sliit.dcws.log;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Logging handle for one endpoint, such as "doctors.get". Resources keep one in a static field
+ * and call log() with a few key/value pairs. The sampling decision is made before anything else,
+ * so a call that is sampled out costs one random number and nothing is formatted or queued.
+ */
+public final class LogEndpoint {
+
+    private final String name;
+    private final double rate;
+    private final AsyncLog log;
+
+    LogEndpoint(String name, double rate, AsyncLog log) {
+        this.name = name;
+        this.rate = rate;
+        this.log = log;
+    }
+
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * @return the fraction of calls that are logged, from 0 to 1.
+     */
+    public double getRate()
+    {
+        return this.rate;
+    }
+
+    public void log(String k1, Object v1)
+    {
+        if(this.sampled())
+            this.log.offer(this.name, 1, k1, v1, null, null, null, null);
+    }
+
+    public void log(String k1, Object v1, String k2, Object v2)
+    {
+        if(this.sampled())
+            this.log.offer(this.name, 2, k1, v1, k2, v2, null, null);
+    }
+
+    public void log(String k1, Object v1, String k2, Object v2, String k3, Object v3)
+    {
+        if(this.sampled())
+            this.log.offer(this.name, 3, k1, v1, k2, v2, k3, v3);
+    }
+
+    private boolean sampled()
+    {
+        if(this.rate >= 1)
+            return true;
+        return this.rate > 0 && ThreadLocalRandom.current().nextDouble() < this.rate;
+    }
+}
@@ -0,0 +1,98 @@
+package lk.sliit.dcws.log;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import lk.sliit.dcws.Settings;
+
+/**
+ * The application's request log. Resources get a LogEndpoint for each operation with
+ * {@code RequestLog.endpoint("doctors.get")} and log through it; the records are written to
+ * stdout by one background AsyncLog thread, so Heroku still collects them as before.
+ *
+ * Settings:
+ * <ul>
+ * <li>LOG_BUFFER - how many records may wait to be written before new ones are dropped (default 8192).</li>
+ * <li>LOG_SAMPLING - comma separated name=rate pairs, e.g. {@code *=0.01,doctors=0.1,doctors.create=1}.
+ *     An endpoint uses the rate given for its full name, then for the part before the dot,
+ *     then for "*". Endpoints not matched by any of them log every call.</li>
+ * </ul>
+ */
+public final class RequestLog {
+
+    private static final AsyncLog LOG;
+    private static final Map<String, Double> RATES;
+
+    static
+    {
+        LOG = new AsyncLog(Settings.getInt("LOG_BUFFER", 8192), new FileOutputStream(FileDescriptor.out));
+        RATES = parseRates(Settings.getString("LOG_SAMPLING", ""));
+        LOG.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                LOG.close();
+            }
+        }, "async-log-shutdown"));
+    }
+
+    private RequestLog() {
+    }
+
+    public static LogEndpoint endpoint(String name)
+    {
+        return new LogEndpoint(name, rateOf(RATES, name), LOG);
+    }
+
+    /**
+     * @return the number of records dropped because the buffer was full.
+     */
+    public static long dropped()
+    {
+        return LOG.getDropped();
+    }
+
+    /**
+     * @return the number of records written so far.
+     */
+    public static long written()
+    {
+        return LOG.getWritten();
+    }
+
+    static double rateOf(Map<String, Double> rates, String name)
+    {
+        Double rate = rates.get(name);
+        int dot = name.indexOf('.');
+        if(rate == null && dot > 0)
+            rate = rates.get(name.substring(0, dot));
+        if(rate == null)
+            rate = rates.get("*");
+        return rate == null ? 1 : rate;
+    }
+
+    static Map<String, Double> parseRates(String spec)
+    {
+        HashMap<String, Double> rates = new HashMap<String, Double>();
+        for(String entry : spec.split(","))
+        {
+            if(entry.trim().isEmpty())
+                continue;
+            int equals = entry.indexOf('=');
+            if(equals <= 0)
+                throw new IllegalArgumentException("LOG_SAMPLING entries must look like name=rate but found '" + entry + "'");
+            String rate = entry.substring(equals + 1).trim();
+            try
+            {
+                rates.put(entry.substring(0, equals).trim(), Math.max(0, Math.min(1, Double.parseDouble(rate))));
+            }
+            catch(NumberFormatException e)
+            {
+                throw new IllegalArgumentException("LOG_SAMPLING rate for " + entry.substring(0, equals).trim() + " must be a number from 0 to 1 but was '" + rate + "'", e);
+            }
+        }
+        return rates;
+    }
+}
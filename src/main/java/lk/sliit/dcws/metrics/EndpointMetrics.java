@@ -0,0 +1,146 @@
+package lk.sliit.dcws.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * What is recorded for one resource method: a latency histogram, a response size histogram,
+ * response counts by status class, the number of requests currently being handled and how much
+ * compressing its responses saved and cost.
+ */
+public class EndpointMetrics {
+
+    /** Latency bucket bounds, from 100 microseconds to 10 seconds. */
+    static final long[] LATENCY_BOUNDS = nanos(0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10);
+
+    /** Response size bucket bounds, from 100 bytes to 10 MB. */
+    static final long[] SIZE_BOUNDS = { 100, 1000, 10000, 100000, 1000000, 10000000 };
+
+    private final String handler;
+    private final String method;
+    private final String path;
+
+    private final Histogram latency = new Histogram(LATENCY_BOUNDS);
+    private final Histogram size = new Histogram(SIZE_BOUNDS);
+    private final AtomicLongArray statuses = new AtomicLongArray(6); // 1xx to 5xx, by hundreds
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong compressed = new AtomicLong();
+    private final AtomicLong compressedBytesIn = new AtomicLong();
+    private final AtomicLong compressedBytesOut = new AtomicLong();
+    private final AtomicLong compressionNanos = new AtomicLong();
+
+    /**
+     * @param handler the resource class and method, e.g. "DoctorResource.getDoctorJSON".
+     * @param method the HTTP method.
+     * @param path the path template, e.g. "/doctors/{id}".
+     */
+    public EndpointMetrics(String handler, String method, String path) {
+        this.handler = handler;
+        this.method = method;
+        this.path = path;
+    }
+
+    public void started()
+    {
+        this.inFlight.incrementAndGet();
+    }
+
+    /**
+     * Records a finished request.
+     *
+     * @param nanos how long it took, from matching the resource method to writing the last byte.
+     * @param status the response status code.
+     * @param bytes the size of the response body, or -1 if there wasn't one.
+     */
+    public void finished(long nanos, int status, long bytes)
+    {
+        this.inFlight.decrementAndGet();
+        this.latency.record(nanos);
+        if(bytes >= 0)
+            this.size.record(bytes);
+        int statusClass = status / 100;
+        if(statusClass >= 1 && statusClass <= 5)
+            this.statuses.incrementAndGet(statusClass);
+    }
+
+    /**
+     * Records a compressed response body.
+     *
+     * @param bytesIn its size before compression.
+     * @param bytesOut its size after compression.
+     * @param nanos the time spent compressing it, 0 if it was compressed before.
+     */
+    public void compressed(long bytesIn, long bytesOut, long nanos)
+    {
+        this.compressed.incrementAndGet();
+        this.compressedBytesIn.addAndGet(bytesIn);
+        this.compressedBytesOut.addAndGet(bytesOut);
+        this.compressionNanos.addAndGet(nanos);
+    }
+
+    public String getHandler()
+    {
+        return this.handler;
+    }
+
+    public String getMethod()
+    {
+        return this.method;
+    }
+
+    public String getPath()
+    {
+        return this.path;
+    }
+
+    public int getInFlight()
+    {
+        return this.inFlight.get();
+    }
+
+    /**
+     * @return the number of responses with a status of statusClass * 100 to statusClass * 100 + 99.
+     */
+    public long getResponses(int statusClass)
+    {
+        return this.statuses.get(statusClass);
+    }
+
+    public long getCompressed()
+    {
+        return this.compressed.get();
+    }
+
+    /**
+     * @return the bytes compression has left out of the compressed responses so far.
+     */
+    public long getCompressionSaved()
+    {
+        return this.compressedBytesIn.get() - this.compressedBytesOut.get();
+    }
+
+    public long getCompressionNanos()
+    {
+        return this.compressionNanos.get();
+    }
+
+    Histogram getLatency()
+    {
+        return this.latency;
+    }
+
+    Histogram getSize()
+    {
+        return this.size;
+    }
+
+    private static long[] nanos(double... seconds)
+    {
+        long[] nanos = new long[seconds.length];
+        for(int i = 0; i < seconds.length; i++)
+            nanos[i] = Math.round(seconds[i] * TimeUnit.SECONDS.toNanos(1));
+        return nanos;
+    }
+}
@@ -0,0 +1,56 @@
+package lk.sliit.dcws.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts observations into fixed buckets, the way a Prometheus histogram does. Recording is a
+ * binary search over the bucket bounds and two atomic adds, so it never locks and never
+ * allocates. A snapshot read while others record can be off by the observations in flight.
+ */
+public class Histogram {
+
+    private final long[] bounds;
+    private final AtomicLongArray counts;
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * @param bounds the inclusive upper bound of each bucket, in increasing order. Anything above
+     *               the last bound goes into an extra overflow bucket.
+     */
+    public Histogram(long[] bounds) {
+        this.bounds = bounds.clone();
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void record(long value)
+    {
+        int bucket = Arrays.binarySearch(this.bounds, value);
+        if(bucket < 0)
+            bucket = -bucket - 1;
+        this.counts.incrementAndGet(bucket);
+        this.sum.addAndGet(value);
+    }
+
+    long[] getBounds()
+    {
+        return this.bounds;
+    }
+
+    /**
+     * @return the number of observations in each bucket, not cumulative, overflow last.
+     */
+    long[] getCounts()
+    {
+        long[] counts = new long[this.counts.length()];
+        for(int i = 0; i < counts.length; i++)
+            counts[i] = this.counts.get(i);
+        return counts;
+    }
+
+    long getSum()
+    {
+        return this.sum.get();
+    }
+}
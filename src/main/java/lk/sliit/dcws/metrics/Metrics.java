@@ -0,0 +1,232 @@
+package lk.sliit.dcws.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.Path;
+
+import lk.sliit.dcws.ResponseCacheFilter;
+import lk.sliit.dcws.log.RequestLog;
+import lk.sliit.dcws.store.DataStore;
+import lk.sliit.dcws.store.Snapshot;
+
+/**
+ * Holds the EndpointMetrics of every resource method that has been called and writes them out in
+ * the Prometheus text format.
+ */
+public final class Metrics {
+
+    private static final ConcurrentHashMap<Method, EndpointMetrics> ENDPOINTS = new ConcurrentHashMap<Method, EndpointMetrics>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the metrics of a resource method, creating them on its first call.
+     */
+    public static EndpointMetrics forMethod(Class<?> resource, Method method, String httpMethod)
+    {
+        EndpointMetrics metrics = ENDPOINTS.get(method);
+        if(metrics == null)
+        {
+            metrics = new EndpointMetrics(resource.getSimpleName() + "." + method.getName(), httpMethod, path(resource, method));
+            EndpointMetrics raced = ENDPOINTS.putIfAbsent(method, metrics);
+            if(raced != null)
+                metrics = raced;
+        }
+        return metrics;
+    }
+
+    public static List<EndpointMetrics> endpoints()
+    {
+        List<EndpointMetrics> endpoints = new ArrayList<EndpointMetrics>(ENDPOINTS.values());
+        Collections.sort(endpoints, new Comparator<EndpointMetrics>() {
+            @Override
+            public int compare(EndpointMetrics a, EndpointMetrics b) {
+                return a.getHandler().compareTo(b.getHandler());
+            }
+        });
+        return endpoints;
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format, version 0.0.4.
+     */
+    public static void write(Writer out) throws IOException
+    {
+        List<EndpointMetrics> endpoints = endpoints();
+        StringBuilder text = new StringBuilder(4096);
+
+        header(text, "http_request_duration_seconds", "histogram", "Time from matching a resource method to writing the last byte of the response.");
+        for(EndpointMetrics endpoint : endpoints)
+            histogram(text, "http_request_duration_seconds", endpoint, endpoint.getLatency(), TimeUnit.SECONDS.toNanos(1));
+
+        header(text, "http_response_size_bytes", "histogram", "Size of response bodies before compression.");
+        for(EndpointMetrics endpoint : endpoints)
+            histogram(text, "http_response_size_bytes", endpoint, endpoint.getSize(), 1);
+
+        header(text, "http_responses_total", "counter", "Responses sent, by status class.");
+        for(EndpointMetrics endpoint : endpoints)
+        {
+            for(int statusClass = 1; statusClass <= 5; statusClass++)
+            {
+                long count = endpoint.getResponses(statusClass);
+                if(count == 0)
+                    continue;
+                text.append("http_responses_total");
+                labels(text, endpoint).append(",status=\"").append(statusClass).append("xx\"} ").append(count).append('\n');
+            }
+        }
+
+        header(text, "http_requests_in_flight", "gauge", "Requests currently being handled.");
+        for(EndpointMetrics endpoint : endpoints)
+        {
+            text.append("http_requests_in_flight");
+            labels(text, endpoint).append("} ").append(endpoint.getInFlight()).append('\n');
+        }
+
+        header(text, "http_responses_compressed_total", "counter", "Responses sent with gzip or deflate.");
+        for(EndpointMetrics endpoint : endpoints)
+        {
+            if(endpoint.getCompressed() == 0)
+                continue;
+            text.append("http_responses_compressed_total");
+            labels(text, endpoint).append("} ").append(endpoint.getCompressed()).append('\n');
+        }
+
+        header(text, "http_response_compression_saved_bytes_total", "counter", "Bytes left out of response bodies by compression.");
+        for(EndpointMetrics endpoint : endpoints)
+        {
+            if(endpoint.getCompressed() == 0)
+                continue;
+            text.append("http_response_compression_saved_bytes_total");
+            labels(text, endpoint).append("} ").append(endpoint.getCompressionSaved()).append('\n');
+        }
+
+        header(text, "http_response_compression_seconds_total", "counter", "Time spent in the deflater compressing response bodies.");
+        for(EndpointMetrics endpoint : endpoints)
+        {
+            if(endpoint.getCompressed() == 0)
+                continue;
+            text.append("http_response_compression_seconds_total");
+            labels(text, endpoint).append("} ").append(scale(endpoint.getCompressionNanos(), TimeUnit.SECONDS.toNanos(1))).append('\n');
+        }
+
+        header(text, "request_log_written_total", "counter", "Request log records written.");
+        text.append("request_log_written_total ").append(RequestLog.written()).append('\n');
+        header(text, "request_log_dropped_total", "counter", "Request log records dropped because the buffer was full.");
+        text.append("request_log_dropped_total ").append(RequestLog.dropped()).append('\n');
+
+        header(text, "response_cache_hits_total", "counter", "GET answers sent from the response cache.");
+        text.append("response_cache_hits_total ").append(ResponseCacheFilter.hits()).append('\n');
+        header(text, "response_cache_misses_total", "counter", "Cacheable GET answers that had to be built.");
+        text.append("response_cache_misses_total ").append(ResponseCacheFilter.misses()).append('\n');
+        header(text, "response_cache_bytes", "gauge", "Bytes held by the response cache, gzipped copies included.");
+        text.append("response_cache_bytes ").append(ResponseCacheFilter.bytes()).append('\n');
+
+        DataStore store = DataStore.get();
+        header(text, "store_wal_failed", "gauge", "1 if the write-ahead log failed and refuses further changes.");
+        text.append("store_wal_failed ").append(store.log().isFailed() ? 1 : 0).append('\n');
+        header(text, "store_snapshot_failures_total", "counter", "Scheduled snapshots that failed.");
+        text.append("store_snapshot_failures_total ").append(store.getSnapshotFailures()).append('\n');
+
+        snapshot(text, "store_snapshot_load", "loaded at startup", store.getLoadedSnapshot());
+        snapshot(text, "store_snapshot_write", "last written", store.getLastSnapshot());
+
+        out.append(text);
+    }
+
+    private static void snapshot(StringBuilder text, String name, String which, Snapshot snapshot)
+    {
+        if(snapshot == null)
+            return;
+        header(text, name + "_seconds", "gauge", "Time taken by the snapshot " + which + ".");
+        text.append(name).append("_seconds ").append(snapshot.getNanos() / 1e9).append('\n');
+        header(text, name + "_bytes", "gauge", "Size of the snapshot " + which + ".");
+        text.append(name).append("_bytes ").append(snapshot.getBytes()).append('\n');
+    }
+
+    private static void header(StringBuilder text, String name, String type, String help)
+    {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(StringBuilder text, String name, EndpointMetrics endpoint, Histogram histogram, long unit)
+    {
+        long[] bounds = histogram.getBounds();
+        long[] counts = histogram.getCounts();
+        long cumulative = 0;
+        for(int i = 0; i < counts.length; i++)
+        {
+            cumulative += counts[i];
+            text.append(name).append("_bucket");
+            labels(text, endpoint).append(",le=\"");
+            if(i < bounds.length)
+                text.append(scale(bounds[i], unit));
+            else
+                text.append("+Inf");
+            text.append("\"} ").append(cumulative).append('\n');
+        }
+        text.append(name).append("_sum");
+        labels(text, endpoint).append("} ").append(scale(histogram.getSum(), unit)).append('\n');
+        text.append(name).append("_count");
+        labels(text, endpoint).append("} ").append(cumulative).append('\n');
+    }
+
+    private static StringBuilder labels(StringBuilder text, EndpointMetrics endpoint)
+    {
+        text.append("{handler=\"");
+        escape(text, endpoint.getHandler());
+        text.append("\",method=\"");
+        escape(text, endpoint.getMethod());
+        text.append("\",path=\"");
+        escape(text, endpoint.getPath());
+        return text.append('"');
+    }
+
+    private static void escape(StringBuilder text, String value)
+    {
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if(c == '\\' || c == '"')
+                text.append('\\').append(c);
+            else if(c == '\n')
+                text.append("\\n");
+            else
+                text.append(c);
+        }
+    }
+
+    private static String scale(long value, long unit)
+    {
+        return unit == 1 ? Long.toString(value) : Double.toString((double) value / unit);
+    }
+
+    /**
+     * Joins the @Path of the resource class and method into a template such as "/doctors/{id}".
+     */
+    static String path(Class<?> resource, Method method)
+    {
+        StringBuilder path = new StringBuilder();
+        for(Path part : new Path[] { resource.getAnnotation(Path.class), method.getAnnotation(Path.class) })
+        {
+            if(part == null)
+                continue;
+            for(String segment : part.value().split("/"))
+            {
+                if(!segment.isEmpty())
+                    path.append('/').append(segment);
+            }
+        }
+        return path.length() == 0 ? "/" : path.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package lk.sliit.dcws.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Times every request that matches a resource method and records it in that method's
+ * EndpointMetrics. A request with a response body is finished once the body has been written,
+ * so streamed text lists are timed in full and their size is counted as it goes out.
+ */
+@Provider
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+    private static final String ENDPOINT = MetricsFilter.class.getName() + ".endpoint";
+    private static final String START = MetricsFilter.class.getName() + ".start";
+    private static final String STATUS = MetricsFilter.class.getName() + ".status";
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext request) throws IOException {
+        if(this.resourceInfo.getResourceMethod() == null)
+            return;
+        EndpointMetrics endpoint = Metrics.forMethod(this.resourceInfo.getResourceClass(), this.resourceInfo.getResourceMethod(), request.getMethod());
+        endpoint.started();
+        request.setProperty(ENDPOINT, endpoint);
+        request.setProperty(START, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+        EndpointMetrics endpoint = (EndpointMetrics) request.getProperty(ENDPOINT);
+        if(endpoint == null)
+            return;
+        if(response.hasEntity() && !"HEAD".equals(request.getMethod()))
+        {
+            request.setProperty(STATUS, response.getStatus()); // finished by aroundWriteTo()
+            return;
+        }
+        request.removeProperty(ENDPOINT);
+        endpoint.finished(System.nanoTime() - (Long) request.getProperty(START), response.getStatus(), -1);
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        EndpointMetrics endpoint = (EndpointMetrics) context.getProperty(ENDPOINT);
+        if(endpoint == null)
+        {
+            context.proceed();
+            return;
+        }
+        context.removeProperty(ENDPOINT);
+        CountingOutputStream counter = new CountingOutputStream(context.getOutputStream());
+        context.setOutputStream(counter);
+        int status = (Integer) context.getProperty(STATUS);
+        try
+        {
+            context.proceed();
+        }
+        catch(IOException | RuntimeException e)
+        {
+            status = 500;
+            throw e;
+        }
+        finally
+        {
+            endpoint.finished(System.nanoTime() - (Long) context.getProperty(START), status, counter.count);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package lk.sliit.dcws.metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Root resource (exposed at "metrics" path) for Prometheus or any other scraper that reads
+ * its text format.
+ */
+@Path("metrics")
+public class MetricsResource {
+
+    @GET
+    @Produces("text/plain; version=0.0.4; charset=utf-8")
+    public StreamingOutput getMetrics() {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                Writer out = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+                Metrics.write(out);
+                out.flush();
+            }
+        };
+    }
+}
@@ -0,0 +1,190 @@
+package lk.sliit.dcws.store;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lk.sliit.dcws.Appointment;
+
+/**
+ * Hands out appointment numbers per session, one doctor seeing patients at one hospital on one
+ * date, so patients booking at the same moment never get the same number. Every session has its
+ * own AtomicInteger in a ConcurrentHashMap, so bookings for different sessions never touch the
+ * same counter. Numbers start at 1 and, like IDs, are not handed out again after a delete.
+ *
+ * The store takes numbers while it holds its write lock, so a booking that fails after taking
+ * its number can hand it back with release() and the session is left without a gap.
+ *
+ * Sessions are keyed on the epoch day of the date as DateIndex.day() reads it, so 2014-05-01
+ * and 2014-5-1 are one session; a date that is not a date is keyed on its trimmed text.
+ *
+ * Sessions of days before today are dropped by evictPast(), at most once a day, so the map
+ * does not keep a counter for every session there has ever been. A booking for a dropped day
+ * has to count the session again with observe() first; isEvicted() tells when.
+ *
+ * With a capacity, a session hands out the numbers 1 to capacity and then refuses.
+ */
+public class AppointmentNumbers {
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+    private final int capacity;
+    private final Clock clock;
+    private volatile int evictedBefore = DateIndex.NO_DAY;
+
+    /**
+     * @param capacity the most numbers a session hands out, or 0 for no limit.
+     */
+    public AppointmentNumbers(int capacity) {
+        this(capacity, Clock.systemDefaultZone());
+    }
+
+    AppointmentNumbers(int capacity, Clock clock) {
+        this.capacity = Math.max(0, capacity);
+        this.clock = clock;
+    }
+
+    public int getCapacity()
+    {
+        return this.capacity;
+    }
+
+    /**
+     * Takes the next number of the appointment's session.
+     *
+     * @return the number, or -1 if the session is full.
+     */
+    public int next(Appointment appointment)
+    {
+        AtomicInteger counter = this.counter(appointment);
+        while(true)
+        {
+            int last = counter.get();
+            if(this.capacity > 0 && last >= this.capacity)
+                return -1;
+            if(counter.compareAndSet(last, last + 1))
+                return last + 1;
+        }
+    }
+
+    /**
+     * Hands back the number an appointment took with next() when storing it failed. Only the
+     * latest number of a session can be handed back, so a batch releases its numbers in the
+     * reverse of the order it took them.
+     */
+    public void release(Appointment appointment)
+    {
+        AtomicInteger counter = this.sessions.get(key(appointment));
+        if(counter != null && appointment.appointmentNumber > 0)
+            counter.compareAndSet(appointment.appointmentNumber, appointment.appointmentNumber - 1);
+    }
+
+    /**
+     * @return how many numbers the appointment's session has handed out.
+     */
+    public int issued(Appointment appointment)
+    {
+        AtomicInteger counter = this.sessions.get(key(appointment));
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Makes sure the number of an appointment that already exists, for example one restored
+     * from disk, is never handed out again. Restored numbers may go past the capacity.
+     */
+    public void observe(Appointment appointment)
+    {
+        AtomicInteger counter = this.counter(appointment);
+        while(true)
+        {
+            int last = counter.get();
+            if(appointment.appointmentNumber <= last || counter.compareAndSet(last, appointment.appointmentNumber))
+                return;
+        }
+    }
+
+    /**
+     * Drops the sessions of days before today. Does nothing if it already ran today.
+     */
+    public void evictPast()
+    {
+        int today = (int) LocalDate.now(this.clock).toEpochDay();
+        if(today <= this.evictedBefore)
+            return;
+        this.evictedBefore = today;
+        Iterator<Session> sessions = this.sessions.values().iterator();
+        while(sessions.hasNext())
+        {
+            int day = sessions.next().day;
+            if(day != DateIndex.NO_DAY && day < today)
+                sessions.remove();
+        }
+    }
+
+    /**
+     * @return true if the appointment's session was dropped by evictPast() and has not been
+     *     counted again since.
+     */
+    public boolean isEvicted(Appointment appointment)
+    {
+        int day = DateIndex.day(appointment.appointmentDate);
+        return day != DateIndex.NO_DAY && day < this.evictedBefore && !this.sessions.containsKey(key(appointment, day));
+    }
+
+    int size()
+    {
+        return this.sessions.size();
+    }
+
+    private AtomicInteger counter(Appointment appointment)
+    {
+        int day = DateIndex.day(appointment.appointmentDate);
+        String key = key(appointment, day);
+        Session counter = this.sessions.get(key);
+        if(counter == null)
+        {
+            Session created = new Session(day);
+            counter = this.sessions.putIfAbsent(key, created);
+            if(counter == null)
+                counter = created;
+        }
+        return counter;
+    }
+
+    private static String key(Appointment appointment)
+    {
+        return key(appointment, DateIndex.day(appointment.appointmentDate));
+    }
+
+    /**
+     * IDs are folded the way KeyedStore folds them, so doc001 and DOC001 share a session.
+     */
+    private static String key(Appointment appointment, int day)
+    {
+        String date;
+        if(day != DateIndex.NO_DAY)
+            date = Integer.toString(day);
+        else
+            date = '?' + (appointment.appointmentDate == null ? "" : appointment.appointmentDate.trim()); // never the same as a day
+        return fold(appointment.doctorId) + '|' + fold(appointment.hospitalId) + '|' + date;
+    }
+
+    private static String fold(String id)
+    {
+        return id == null ? "" : KeyedStore.key(id.trim());
+    }
+
+    /**
+     * A session's counter and the day it is for, or NO_DAY.
+     */
+    @SuppressWarnings("serial")
+    private static final class Session extends AtomicInteger {
+        final int day;
+
+        Session(int day)
+        {
+            this.day = day;
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package lk.sliit.dcws.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lk.sliit.dcws.Appointment;
+import lk.sliit.dcws.Settings;
+
+/**
+ * Thread-safe home of all Appointment objects and the indexes used to search them.
+ * Reads never lock; writes are serialized so the table and its indexes change together.
+ *
+ * Appointment numbers are given out by the store from AppointmentNumbers, one sequence per
+ * doctor, hospital and date; whatever number the client sent is ignored. SESSION_CAPACITY
+ * limits how many appointments a session takes (default 0, no limit).
+ *
+ * The appointments of each doctor and of each hospital are also indexed by date for range
+ * queries. Dates are parsed to epoch days when an appointment is stored, and again to find its
+ * entries when it is removed, but never while searching. An appointment whose date is not an
+ * ISO date is still stored but is left out of the date indexes.
+ */
+public class AppointmentStore {
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Version version = new Version();
+    private final KeyedStore<Appointment> appointments = new KeyedStore<Appointment>();
+    private final NGramIndex<Appointment> patientNames = new NGramIndex<Appointment>();
+    private final InvertedIndex<Appointment> doctorAppointments = new InvertedIndex<Appointment>();
+    private final DateIndex<Appointment> doctorDates = new DateIndex<Appointment>();
+    private final DateIndex<Appointment> hospitalDates = new DateIndex<Appointment>();
+    private final IdAllocator ids;
+    private final WriteAheadLog log;
+    private final AppointmentNumbers numbers;
+    private final ChangeFeed changes;
+
+    public AppointmentStore(IdAllocator ids) {
+        this(ids, WriteAheadLog.disabled());
+    }
+
+    public AppointmentStore(IdAllocator ids, WriteAheadLog log) {
+        this(ids, log, ChangeFeed.disabled());
+    }
+
+    public AppointmentStore(IdAllocator ids, WriteAheadLog log, ChangeFeed changes) {
+        this(ids, log, new AppointmentNumbers(Settings.getInt("SESSION_CAPACITY", 0)), changes);
+    }
+
+    public AppointmentStore(IdAllocator ids, WriteAheadLog log, AppointmentNumbers numbers) {
+        this(ids, log, numbers, ChangeFeed.disabled());
+    }
+
+    public AppointmentStore(IdAllocator ids, WriteAheadLog log, AppointmentNumbers numbers, ChangeFeed changes) {
+        this.ids = ids;
+        this.log = log;
+        this.numbers = numbers;
+        this.changes = changes;
+    }
+
+    public Appointment get(String id)
+    {
+        return this.appointments.get(id);
+    }
+
+    public List<Appointment> list()
+    {
+        return this.appointments.list();
+    }
+
+    public Page<Appointment> page(String cursor, int limit)
+    {
+        return this.appointments.page(cursor, limit);
+    }
+
+    public Iterable<Appointment> values()
+    {
+        return this.appointments.values();
+    }
+
+    public int size()
+    {
+        return this.appointments.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return this.appointments.isEmpty();
+    }
+
+    /**
+     * @return the version of the appointments, bumped on every change.
+     */
+    public Version getVersion()
+    {
+        return this.version;
+    }
+
+    public List<Appointment> findByPatientName(String name)
+    {
+        return this.patientNames.find(name);
+    }
+
+    public Page<Appointment> findByPatientName(String name, String cursor, int limit)
+    {
+        return this.patientNames.find(name, cursor, limit);
+    }
+
+    public List<Appointment> findByDoctor(String doctorId)
+    {
+        return this.doctorAppointments.find(doctorId);
+    }
+
+    public Page<Appointment> findByDoctor(String doctorId, String cursor, int limit)
+    {
+        return this.doctorAppointments.find(doctorId, cursor, limit);
+    }
+
+    /**
+     * Returns a page of a doctor's appointments from one epoch day to another, both included, in
+     * date order. DateIndex.NO_DAY leaves that end of the range open.
+     */
+    public Page<Appointment> findByDoctorAndDate(String doctorId, int from, int to, String cursor, int limit)
+    {
+        return this.doctorDates.find(doctorId, from, to, cursor, limit);
+    }
+
+    /**
+     * Same as findByDoctorAndDate() for the appointments at a hospital.
+     */
+    public Page<Appointment> findByHospitalAndDate(String hospitalId, int from, int to, String cursor, int limit)
+    {
+        return this.hospitalDates.find(hospitalId, from, to, cursor, limit);
+    }
+
+    /**
+     * Gives the appointment a new ID and the next number of its session and stores it.
+     *
+     * @throws SessionFullException if the session has no numbers left.
+     */
+    public Appointment create(Appointment appointment)
+    {
+        long position;
+        this.writeLock.lock();
+        try
+        {
+            this.numbers.evictPast();
+            appointment.appointmentNumber = this.number(appointment);
+            if(appointment.appointmentNumber < 0)
+                throw new SessionFullException(appointment, this.numbers.getCapacity());
+            appointment.id = this.ids.next();
+            WriteAheadLog.Record record;
+            try
+            {
+                record = this.log.putAppointment(appointment);
+            }
+            catch(RuntimeException e)
+            {
+                this.numbers.release(appointment);
+                throw e;
+            }
+            this.add(appointment);
+            position = this.log.append(record);
+            this.version.bump();
+            this.changes.publish("appointments", ChangeFeed.CREATED, copyOf(appointment));
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+        this.log.commit(position);
+        return appointment;
+    }
+
+    /**
+     * Creates several appointments at once: their IDs come from one reserved range and they are stored
+     * under one lock with one log commit instead of once per item.
+     *
+     * @return the new IDs, in the same order, with null for every appointment whose session was full.
+     */
+    public List<String> createAll(List<Appointment> appointments)
+    {
+        ArrayList<String> created = new ArrayList<String>(appointments.size());
+        long position = 0;
+        this.writeLock.lock();
+        this.log.beginBatch();
+        try
+        {
+            this.numbers.evictPast(); // once, so no session the batch has numbers from is dropped halfway
+            int accepted = 0;
+            for(Appointment appointment: appointments)
+            {
+                appointment.appointmentNumber = this.number(appointment);
+                if(appointment.appointmentNumber > 0)
+                    accepted++;
+            }
+            if(accepted == 0)
+            {
+                for(int i = 0; i < appointments.size(); i++)
+                    created.add(null);
+                return created;
+            }
+
+            long next = this.ids.reserve(accepted);
+            WriteAheadLog.Record[] records = new WriteAheadLog.Record[appointments.size()];
+            try
+            {
+                for(int i = 0; i < records.length; i++)
+                {
+                    Appointment appointment = appointments.get(i);
+                    if(appointment.appointmentNumber < 0)
+                        continue;
+                    appointment.id = this.ids.format(next++);
+                    records[i] = this.log.putAppointment(appointment); // all or nothing: encode every appointment before storing any
+                }
+            }
+            catch(RuntimeException e)
+            {
+                for(int i = appointments.size() - 1; i >= 0; i--)
+                    this.numbers.release(appointments.get(i));
+                throw e;
+            }
+            for(int i = 0; i < records.length; i++)
+            {
+                Appointment appointment = appointments.get(i);
+                if(appointment.appointmentNumber < 0)
+                {
+                    created.add(null);
+                    continue;
+                }
+                this.add(appointment);
+                position = this.log.append(records[i]);
+                created.add(appointment.id);
+                this.changes.publish("appointments", ChangeFeed.CREATED, copyOf(appointment));
+            }
+            this.version.bump();
+        }
+        finally
+        {
+            this.log.endBatch();
+            this.writeLock.unlock();
+        }
+        this.log.commit(position);
+        return created;
+    }
+
+    /**
+     * Applies a PUT to a stored appointment. Only the patient name can be changed.
+     *
+     * @return a copy of the appointment as it was before the change, or null if there is no such ID.
+     */
+    public Appointment update(String id, Appointment changes)
+    {
+        Appointment before;
+        long position;
+        this.writeLock.lock();
+        try
+        {
+            Appointment stored = this.appointments.get(id);
+            if(stored == null)
+                return null;
+            before = copyOf(stored);
+            Appointment updated = copyOf(stored);
+            updated.patientName = changes.patientName;
+            WriteAheadLog.Record record = this.log.putAppointment(updated);
+            stored.patientName = changes.patientName;
+            this.patientNames.put(this.appointments.sequenceOf(id), stored.patientName, stored); // doctorId is unchanged so its index stays as is
+            position = this.log.append(record);
+            this.version.bump();
+            this.changes.publish("appointments", ChangeFeed.UPDATED, copyOf(stored));
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+        this.log.commit(position);
+        return before;
+    }
+
+    public Appointment delete(String id)
+    {
+        Appointment appointment;
+        long position;
+        this.writeLock.lock();
+        try
+        {
+            Appointment existing = this.appointments.get(id);
+            if(existing == null)
+                return null;
+            WriteAheadLog.Record record = this.log.deleteAppointment(existing.id);
+            appointment = this.remove(id);
+            position = this.log.append(record);
+            this.version.bump();
+            this.changes.publish("appointments", ChangeFeed.DELETED, appointment);
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+        this.log.commit(position);
+        return appointment;
+    }
+
+    /**
+     * Puts an appointment read back from disk into the store under its own ID, replacing any
+     * appointment with that ID. Nothing is written to the log.
+     */
+    void restore(Appointment appointment)
+    {
+        this.writeLock.lock();
+        try
+        {
+            this.replace(appointment);
+            this.ids.observe(appointment.id);
+            this.version.bump();
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Restores a whole snapshot section at once, taking the lock and moving the ID counter only once.
+     */
+    void restoreAll(List<Appointment> appointments)
+    {
+        this.writeLock.lock();
+        try
+        {
+            if(this.appointments.isEmpty())
+                this.addAll(appointments);
+            else
+            {
+                for(Appointment appointment: appointments)
+                    this.replace(appointment);
+            }
+            String highest = null;
+            for(Appointment appointment: appointments)
+            {
+                if(this.ids.parse(appointment.id) > this.ids.parse(highest))
+                    highest = appointment.id;
+            }
+            this.ids.observe(highest);
+            this.version.bump();
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+    }
+
+    ReentrantLock writeLock()
+    {
+        return this.writeLock;
+    }
+
+    IdAllocator ids()
+    {
+        return this.ids;
+    }
+
+    /**
+     * Replays a logged delete. Nothing is written to the log.
+     */
+    void restoreDelete(String id)
+    {
+        this.writeLock.lock();
+        try
+        {
+            this.remove(id);
+            this.version.bump();
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next number of the appointment's session. Called with the write lock held, so
+     * a session dropped as past can be counted again from the date index, which then has every
+     * appointment of that day.
+     */
+    private int number(Appointment appointment)
+    {
+        if(this.numbers.isEvicted(appointment))
+        {
+            int day = DateIndex.day(appointment.appointmentDate);
+            for(Appointment stored: this.doctorDates.find(appointment.doctorId, day, day, null, 0).getItems())
+                this.numbers.observe(stored);
+        }
+        return this.numbers.next(appointment);
+    }
+
+    private void replace(Appointment appointment)
+    {
+        Appointment old = this.appointments.get(appointment.id);
+        if(old != null)
+            this.unindex(old, this.appointments.sequenceOf(appointment.id));
+        this.add(appointment); // a replaced appointment keeps its place in the list
+        this.numbers.observe(appointment);
+    }
+
+    /**
+     * Stores appointments with distinct IDs in an empty store. The index entries are collected
+     * first and each posting list is then built in one pass, which is several times faster
+     * than indexing row by row.
+     */
+    private void addAll(List<Appointment> appointments)
+    {
+        PostingLoader<Appointment> names = new PostingLoader<Appointment>();
+        PostingLoader<Appointment> doctors = new PostingLoader<Appointment>();
+        PostingLoader<Appointment> doctorDays = new PostingLoader<Appointment>();
+        PostingLoader<Appointment> hospitalDays = new PostingLoader<Appointment>();
+        for(Appointment appointment: appointments)
+        {
+            long sequence = this.appointments.put(appointment.id, appointment);
+            this.patientNames.put(names, sequence, appointment.patientName, appointment);
+            this.doctorAppointments.add(doctors, appointment.doctorId, sequence, appointment);
+            int day = DateIndex.day(appointment.appointmentDate);
+            this.doctorDates.add(doctorDays, appointment.doctorId, day, sequence, appointment);
+            this.hospitalDates.add(hospitalDays, appointment.hospitalId, day, sequence, appointment);
+            this.numbers.observe(appointment);
+        }
+        this.patientNames.addAll(names);
+        this.doctorAppointments.addAll(doctors);
+        this.doctorDates.addAll(doctorDays);
+        this.hospitalDates.addAll(hospitalDays);
+    }
+
+    private void add(Appointment appointment)
+    {
+        long sequence = this.appointments.put(appointment.id, appointment);
+        this.patientNames.put(sequence, appointment.patientName, appointment);
+        this.doctorAppointments.add(appointment.doctorId, sequence, appointment);
+        int day = DateIndex.day(appointment.appointmentDate);
+        this.doctorDates.add(appointment.doctorId, day, sequence, appointment);
+        this.hospitalDates.add(appointment.hospitalId, day, sequence, appointment);
+    }
+
+    private Appointment remove(String id)
+    {
+        long sequence = this.appointments.sequenceOf(id);
+        Appointment appointment = this.appointments.remove(id);
+        if(appointment != null)
+        {
+            this.patientNames.remove(sequence);
+            this.unindex(appointment, sequence);
+        }
+        return appointment;
+    }
+
+    /**
+     * Takes an appointment out of the indexes keyed by its doctor, hospital and date; none of
+     * them can change after it is created.
+     */
+    private void unindex(Appointment appointment, long sequence)
+    {
+        this.doctorAppointments.remove(appointment.doctorId, sequence);
+        int day = DateIndex.day(appointment.appointmentDate);
+        this.doctorDates.remove(appointment.doctorId, day, sequence);
+        this.hospitalDates.remove(appointment.hospitalId, day, sequence);
+    }
+
+    static Appointment copyOf(Appointment appointment)
+    {
+        Appointment copy = new Appointment();
+        copy.id = appointment.id;
+        copy.patientName = appointment.patientName;
+        copy.doctorId = appointment.doctorId;
+        copy.hospitalId = appointment.hospitalId;
+        copy.appointmentDate = appointment.appointmentDate;
+        copy.appointmentNumber = appointment.appointmentNumber;
+        return copy;
+    }
+}
@@ -0,0 +1,183 @@
+package lk.sliit.dcws.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The most recent creates, updates and deletes of doctors and appointments, numbered in the
+ * order they happened, for the change feed to push to its subscribers.
+ *
+ * The stores publish while they hold their write lock, which costs one slot in a ring of
+ * CHANGE_FEED_SIZE changes (default 4096) and a wake-up of the one thread waiting for changes,
+ * however many clients are subscribed. Readers never take a lock: a change is put in its slot
+ * before its sequence number is made visible, and a reader that finds a slot taken by a newer
+ * change knows it has fallen more than a ring behind.
+ *
+ * Sequence numbers start again from 1 with every process; getBoot() tells runs apart, as in
+ * Version.
+ */
+public class ChangeFeed {
+
+    public static final String CREATED = "created";
+    public static final String UPDATED = "updated";
+    public static final String DELETED = "deleted";
+
+    /**
+     * One change. The item is a copy taken when the change was made, so later changes to the
+     * stored object don't show through; for a delete it is the item as it was removed.
+     */
+    public static final class Change {
+        private final long sequence;
+        private final String collection;
+        private final String action;
+        private final Object item;
+        private final Object previous;
+
+        Change(long sequence, String collection, String action, Object item, Object previous) {
+            this.sequence = sequence;
+            this.collection = collection;
+            this.action = action;
+            this.item = item;
+            this.previous = previous;
+        }
+
+        public long getSequence()
+        {
+            return this.sequence;
+        }
+
+        /**
+         * @return "doctors" or "appointments".
+         */
+        public String getCollection()
+        {
+            return this.collection;
+        }
+
+        /**
+         * @return CREATED, UPDATED or DELETED.
+         */
+        public String getAction()
+        {
+            return this.action;
+        }
+
+        /**
+         * @return a Doctor or an Appointment.
+         */
+        public Object getItem()
+        {
+            return this.item;
+        }
+
+        /**
+         * @return a copy of the item as it was before an update that changed what subscribers
+         *     filter on, such as a doctor's hospitals, or null.
+         */
+        public Object getPrevious()
+        {
+            return this.previous;
+        }
+    }
+
+    private final AtomicReferenceArray<Change> ring;
+    private volatile long last;
+
+    public ChangeFeed(int capacity) {
+        this.ring = capacity > 0 ? new AtomicReferenceArray<Change>(capacity) : null;
+    }
+
+    /**
+     * @return a feed that keeps nothing, for stores that are not behind the web application.
+     */
+    public static ChangeFeed disabled()
+    {
+        return new ChangeFeed(0);
+    }
+
+    public boolean isEnabled()
+    {
+        return this.ring != null;
+    }
+
+    /**
+     * @return how many changes are kept, 0 if the feed is disabled.
+     */
+    public int getCapacity()
+    {
+        return this.ring == null ? 0 : this.ring.length();
+    }
+
+    public static String getBoot()
+    {
+        return Version.BOOT;
+    }
+
+    /**
+     * @return the sequence number of the latest change, 0 before the first.
+     */
+    public long getLast()
+    {
+        return this.last;
+    }
+
+    /**
+     * @return the sequence number of the oldest change still kept.
+     */
+    public long getOldest()
+    {
+        return Math.max(1, this.last - this.ring.length() + 1);
+    }
+
+    /**
+     * @return the changes after the given sequence number, at most max of them, or null if some
+     *     of them have already been overwritten.
+     */
+    public List<Change> after(long sequence, int max)
+    {
+        long last = this.last;
+        List<Change> changes = new ArrayList<Change>((int) Math.min(max, Math.max(0, last - sequence)));
+        for(long next = sequence + 1; next <= last && changes.size() < max; next++)
+        {
+            Change change = this.ring.get((int) (next % this.ring.length()));
+            if(change == null || change.sequence != next)
+                return null;
+            changes.add(change);
+        }
+        return changes;
+    }
+
+    /**
+     * Waits until there is a change after the given sequence number or the timeout passes.
+     *
+     * @return the sequence number of the latest change.
+     */
+    public synchronized long awaitAfter(long sequence, long timeoutMillis) throws InterruptedException
+    {
+        if(this.last <= sequence)
+            this.wait(timeoutMillis);
+        return this.last;
+    }
+
+    /**
+     * Records a change. Called by the stores while they hold their write lock.
+     */
+    void publish(String collection, String action, Object item)
+    {
+        this.publish(collection, action, item, null);
+    }
+
+    /**
+     * Records an update along with the item as it was before it.
+     */
+    synchronized void publish(String collection, String action, Object item, Object previous)
+    {
+        if(this.ring == null)
+            return;
+        long sequence = this.last + 1;
+        this.ring.set((int) (sequence % this.ring.length()), new Change(sequence, collection, action, item, previous));
+        this.last = sequence;
+        this.notifyAll();
+    }
+}
@@ -0,0 +1,77 @@
+package lk.sliit.dcws.store;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes and decodes the opaque cursors handed out with each Page.
+ *
+ * A cursor records the position of the last item on a page rather than an offset, so fetching
+ * the next page is a seek into a sorted map and items inserted before the cursor don't shift the
+ * following pages. Lists ordered by creation only need the item's sequence number, written in
+ * base 36. Prefix searches, which are ordered by value first, add the folded value in hex:
+ * "&lt;sequence&gt;-&lt;hex value&gt;".
+ */
+public final class Cursor {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Cursor() {
+    }
+
+    public static String of(long sequence)
+    {
+        return Long.toString(sequence, 36);
+    }
+
+    public static String of(String value, long sequence)
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        StringBuilder cursor = new StringBuilder(16 + bytes.length * 2);
+        cursor.append(of(sequence)).append('-');
+        for(byte b : bytes)
+            cursor.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+        return cursor.toString();
+    }
+
+    /**
+     * Returns the sequence number stored in a cursor, or -1 for a null cursor (the first page).
+     */
+    public static long sequence(String cursor)
+    {
+        if(cursor == null || cursor.isEmpty())
+            return -1;
+        int dash = cursor.indexOf('-');
+        try
+        {
+            long sequence = Long.parseLong(dash < 0 ? cursor : cursor.substring(0, dash), 36);
+            if(sequence < 0)
+                throw new InvalidCursorException(cursor);
+            return sequence;
+        }
+        catch(NumberFormatException e)
+        {
+            throw new InvalidCursorException(cursor);
+        }
+    }
+
+    /**
+     * Returns the value stored in a prefix search cursor.
+     */
+    public static String value(String cursor)
+    {
+        int dash = cursor.indexOf('-');
+        if(dash < 0 || (cursor.length() - dash - 1) % 2 != 0)
+            throw new InvalidCursorException(cursor);
+
+        byte[] bytes = new byte[(cursor.length() - dash - 1) / 2];
+        for(int i = 0; i < bytes.length; i++)
+        {
+            int high = Character.digit(cursor.charAt(dash + 1 + i * 2), 16);
+            int low = Character.digit(cursor.charAt(dash + 2 + i * 2), 16);
+            if(high < 0 || low < 0)
+                throw new InvalidCursorException(cursor);
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
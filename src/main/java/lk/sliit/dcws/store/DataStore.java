@@ -0,0 +1,238 @@
+package lk.sliit.dcws.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lk.sliit.dcws.Settings;
+import lk.sliit.dcws.log.LogEndpoint;
+import lk.sliit.dcws.log.RequestLog;
+
+/**
+ * The storage layer shared by DoctorResource, HospitalResource and AppointmentResource.
+ * There is one instance per application; the resources look it up with DataStore.get().
+ *
+ * Unless DATA_DIR is "none", every change is recorded in DATA_DIR/wal.log and replayed when
+ * the application starts. WAL_DURABILITY picks how writes wait for the disk: "batch" (the
+ * default) shares one fsync between the writes that arrive together, optionally waiting
+ * WAL_BATCH_WINDOW_MICROS for more, and "sync" fsyncs every write on its own.
+ *
+ * Every SNAPSHOT_INTERVAL_SECONDS (default 600, 0 turns it off) and on shutdown the stores are
+ * also written to DATA_DIR/snapshot.bin, which lets startup load one compact file and replay only
+ * what was logged after it. Snapshots are skipped when nothing has changed since the last one.
+ */
+public class DataStore {
+
+    private static final LogEndpoint WAL_LOG = RequestLog.endpoint("store.wal");
+    private static final LogEndpoint SNAPSHOT_LOG = RequestLog.endpoint("store.snapshot");
+
+    private final DoctorStore doctors;
+    private final HospitalStore hospitals;
+    private final AppointmentStore appointments;
+    private final WriteAheadLog log;
+    private final ChangeFeed changes;
+    private final File snapshotFile;
+
+    private volatile Snapshot loadedSnapshot;
+    private volatile Snapshot lastSnapshot;
+    private long snapshotPosition; // log position covered by the last snapshot, guarded by this
+    private final AtomicLong snapshotFailures = new AtomicLong();
+
+    public static DataStore get()
+    {
+        return Instance.STORE;
+    }
+
+    /**
+     * Opens the application's store the first time get() is called, not when the class is
+     * loaded, so code that only creates stores of its own never touches DATA_DIR.
+     */
+    private static class Instance {
+        static final DataStore STORE = open();
+    }
+
+    public DataStore(IdAllocator doctorIds, IdAllocator hospitalIds, IdAllocator appointmentIds) {
+        this(doctorIds, hospitalIds, appointmentIds, WriteAheadLog.disabled());
+    }
+
+    public DataStore(IdAllocator doctorIds, IdAllocator hospitalIds, IdAllocator appointmentIds, WriteAheadLog log) {
+        this(doctorIds, hospitalIds, appointmentIds, log, null);
+    }
+
+    public DataStore(IdAllocator doctorIds, IdAllocator hospitalIds, IdAllocator appointmentIds, WriteAheadLog log, File snapshotFile) {
+        this(doctorIds, hospitalIds, appointmentIds, log, snapshotFile, ChangeFeed.disabled());
+    }
+
+    /**
+     * Creates the stores, loads the snapshot if there is one and replays the log on top of it
+     * before they take any writes. What is loaded and replayed is not published to the change feed.
+     *
+     * @param snapshotFile where snapshots are read from and written to, or null for none.
+     */
+    public DataStore(IdAllocator doctorIds, IdAllocator hospitalIds, IdAllocator appointmentIds, WriteAheadLog log, File snapshotFile, ChangeFeed changes) {
+        this.doctors = new DoctorStore(doctorIds, log, changes);
+        this.hospitals = new HospitalStore(hospitalIds, this.doctors, log);
+        this.appointments = new AppointmentStore(appointmentIds, log, changes);
+        this.log = log;
+        this.changes = changes;
+        this.snapshotFile = snapshotFile;
+
+        if(snapshotFile != null)
+        {
+            try
+            {
+                this.loadedSnapshot = Snapshot.load(this, snapshotFile);
+            }
+            catch(IOException e)
+            {
+                throw new IllegalStateException("Cannot load snapshot " + snapshotFile, e);
+            }
+            if(this.loadedSnapshot != null)
+                SNAPSHOT_LOG.log("file", snapshotFile, "event", "loaded", "snapshot", this.loadedSnapshot);
+        }
+
+        if(log.isEnabled())
+        {
+            long start = System.nanoTime();
+            int records = log.replay(this);
+            WAL_LOG.log("file", log.getFile(), "replayed", records, "ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            if(records > 0)
+                this.snapshotPosition = -1; // so the next snapshot folds the replayed records in
+        }
+    }
+
+    private static DataStore open()
+    {
+        String dataDir = Settings.getString("DATA_DIR", "data");
+        WriteAheadLog log = WriteAheadLog.disabled();
+        if(!dataDir.equalsIgnoreCase("none"))
+        {
+            WriteAheadLog.Durability durability;
+            try
+            {
+                durability = WriteAheadLog.Durability.valueOf(Settings.getString("WAL_DURABILITY", "batch").toUpperCase(Locale.ROOT));
+            }
+            catch(IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException("WAL_DURABILITY must be sync or batch but was '" + Settings.getString("WAL_DURABILITY", "") + "'", e);
+            }
+            log = WriteAheadLog.open(new File(dataDir, "wal.log"), durability, Settings.getLong("WAL_BATCH_WINDOW_MICROS", 0));
+        }
+        File snapshotFile = log.isEnabled() ? new File(dataDir, "snapshot.bin") : null;
+        ChangeFeed changes = new ChangeFeed(Settings.getInt("CHANGE_FEED_SIZE", 4096));
+        DataStore store = new DataStore(IdAllocator.forPrefix("doc"), IdAllocator.forPrefix("hos"), IdAllocator.forPrefix("app"), log, snapshotFile, changes);
+        long interval = Settings.getLong("SNAPSHOT_INTERVAL_SECONDS", 600);
+        if(snapshotFile != null && interval > 0)
+            store.scheduleSnapshots(interval);
+        return store;
+    }
+
+    /**
+     * Writes a snapshot unless nothing has changed since the last one.
+     *
+     * @return the snapshot written, or null if none was needed or snapshots are off.
+     */
+    public synchronized Snapshot snapshot()
+    {
+        if(this.snapshotFile == null)
+            return null;
+        long position = this.log.position();
+        if(position == this.snapshotPosition)
+            return null;
+
+        try
+        {
+            Snapshot snapshot = Snapshot.write(this, this.log, this.snapshotFile);
+            this.snapshotPosition = position;
+            this.lastSnapshot = snapshot;
+            SNAPSHOT_LOG.log("file", this.snapshotFile, "event", "written", "snapshot", snapshot);
+            return snapshot;
+        }
+        catch(IOException e)
+        {
+            throw new IllegalStateException("Cannot write snapshot " + this.snapshotFile, e);
+        }
+    }
+
+    /**
+     * @return the snapshot loaded at startup, or null if there was none.
+     */
+    public Snapshot getLoadedSnapshot()
+    {
+        return this.loadedSnapshot;
+    }
+
+    /**
+     * @return the last snapshot written by this process, or null if none was written yet.
+     */
+    public Snapshot getLastSnapshot()
+    {
+        return this.lastSnapshot;
+    }
+
+    /**
+     * @return how many scheduled snapshots have failed.
+     */
+    public long getSnapshotFailures()
+    {
+        return this.snapshotFailures.get();
+    }
+
+    public WriteAheadLog log()
+    {
+        return this.log;
+    }
+
+    public DoctorStore doctors()
+    {
+        return this.doctors;
+    }
+
+    public HospitalStore hospitals()
+    {
+        return this.hospitals;
+    }
+
+    public AppointmentStore appointments()
+    {
+        return this.appointments;
+    }
+
+    public ChangeFeed changes()
+    {
+        return this.changes;
+    }
+
+    private void scheduleSnapshots(long intervalSeconds)
+    {
+        Runnable snapshot = new Runnable() {
+            @Override
+            public void run() {
+                try
+                {
+                    DataStore.this.snapshot();
+                }
+                catch(RuntimeException e)
+                {
+                    DataStore.this.snapshotFailures.incrementAndGet();
+                    SNAPSHOT_LOG.log("file", DataStore.this.snapshotFile, "event", "failed", "error", e); // the log still has everything, so try again next time
+                }
+            }
+        };
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(snapshot, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(snapshot, "snapshot-shutdown"));
+    }
+}
@@ -0,0 +1,122 @@
+package lk.sliit.dcws.store;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Maps a case-insensitive key, such as a doctor ID, to its items sorted by date, so the items of
+ * one key between two dates are a single range and a search costs O(log n + matches).
+ *
+ * Dates are ISO dates (2014-05-01, or 2014-5-1 without the zeros) between the years 0000 and
+ * 9999, held as epoch days. Each item is filed under one long that puts the day in the high
+ * bits and the item's KeyedStore sequence number in the low 40, so items of the same day stay
+ * in creation order and the long doubles as the page cursor. The day is shifted to start at 0
+ * for the year 0000 so that the cursor is never negative.
+ *
+ * Lookups never lock. Writers are expected to be serialized by the owning store.
+ */
+public class DateIndex<T> {
+
+    /**
+     * What day() returns for a value that is not a date.
+     */
+    public static final int NO_DAY = Integer.MIN_VALUE;
+
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("uuuu-M-d").withResolverStyle(ResolverStyle.STRICT);
+    private static final long FIRST_DAY = LocalDate.of(0, 1, 1).toEpochDay();
+    private static final long LAST_DAY = LocalDate.of(9999, 12, 31).toEpochDay();
+    private static final int SEQUENCE_BITS = 40;
+
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<Long, T>> postings = new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, T>>();
+
+    /**
+     * @return the epoch day of an ISO date, or NO_DAY if the value is null, not a date or out of
+     *     range. Surrounding whitespace is ignored.
+     */
+    public static int day(String value)
+    {
+        if(value == null)
+            return NO_DAY;
+        try
+        {
+            long day = LocalDate.parse(value.trim(), FORMAT).toEpochDay();
+            return day < FIRST_DAY || day > LAST_DAY ? NO_DAY : (int) day;
+        }
+        catch(DateTimeException e)
+        {
+            return NO_DAY;
+        }
+    }
+
+    public void add(String key, int day, long sequence, T item)
+    {
+        if(key == null || day == NO_DAY)
+            return;
+        String folded = KeyedStore.key(key);
+        ConcurrentSkipListMap<Long, T> posting = this.postings.get(folded);
+        if(posting == null)
+        {
+            posting = new ConcurrentSkipListMap<Long, T>();
+            this.postings.put(folded, posting);
+        }
+        posting.put(position(day, sequence), item);
+    }
+
+    /**
+     * Bulk version of add() for items whose sequence numbers are not in the index yet: files
+     * the item in the loader, and addAll() then adds everything filed there at once.
+     */
+    void add(PostingLoader<T> loader, String key, int day, long sequence, T item)
+    {
+        if(key != null && day != NO_DAY)
+            loader.add(KeyedStore.key(key), position(day, sequence), item);
+    }
+
+    void addAll(PostingLoader<T> loader)
+    {
+        loader.addTo(this.postings);
+    }
+
+    public void remove(String key, int day, long sequence)
+    {
+        if(key == null || day == NO_DAY)
+            return;
+        String folded = KeyedStore.key(key);
+        ConcurrentSkipListMap<Long, T> posting = this.postings.get(folded);
+        if(posting == null)
+            return;
+        posting.remove(position(day, sequence));
+        if(posting.isEmpty())
+            this.postings.remove(folded);
+    }
+
+    /**
+     * Returns up to limit items filed under the key from one day to another, both included,
+     * starting after the cursor. Items are ordered by day, then by creation order. NO_DAY leaves
+     * that end of the range open.
+     */
+    public Page<T> find(String key, int from, int to, String cursor, int limit)
+    {
+        ConcurrentSkipListMap<Long, T> posting = key == null ? null : this.postings.get(KeyedStore.key(key));
+        if(posting == null)
+            return new Page<T>(new ArrayList<T>(), null);
+        long low = from == NO_DAY ? 0 : position(from, 0);
+        long high = to == NO_DAY ? Long.MAX_VALUE : position(to + 1, 0);
+        long after = Cursor.sequence(cursor);
+        if(low >= high || after >= high)
+            return new Page<T>(new ArrayList<T>(), null);
+        if(after >= low)
+            return Page.bySequence(posting.subMap(after, false, high, false), limit);
+        return Page.bySequence(posting.subMap(low, true, high, false), limit);
+    }
+
+    private static long position(long day, long sequence)
+    {
+        return (day - FIRST_DAY) << SEQUENCE_BITS | sequence;
+    }
+}
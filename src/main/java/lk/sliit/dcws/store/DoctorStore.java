@@ -0,0 +1,385 @@
+package lk.sliit.dcws.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lk.sliit.dcws.Doctor;
+
+/**
+ * Thread-safe home of all Doctor objects and the indexes used to search them.
+ *
+ * Reads go straight to the concurrent table and indexes without taking a lock, so they never
+ * wait for a write. Writes take a single lock so the table and its indexes are always updated
+ * together and two writers can't interleave.
+ */
+public class DoctorStore {
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Version version = new Version();
+    private final KeyedStore<Doctor> doctors = new KeyedStore<Doctor>();
+    private final PrefixIndex<Doctor> specializations = new PrefixIndex<Doctor>();
+    private final PrefixIndex<Doctor> lastNames = new PrefixIndex<Doctor>();
+    private final InvertedIndex<Doctor> hospitalDoctors = new InvertedIndex<Doctor>();
+    private final IdAllocator ids;
+    private final WriteAheadLog log;
+    private final ChangeFeed changes;
+
+    public DoctorStore(IdAllocator ids) {
+        this(ids, WriteAheadLog.disabled());
+    }
+
+    public DoctorStore(IdAllocator ids, WriteAheadLog log) {
+        this(ids, log, ChangeFeed.disabled());
+    }
+
+    public DoctorStore(IdAllocator ids, WriteAheadLog log, ChangeFeed changes) {
+        this.ids = ids;
+        this.log = log;
+        this.changes = changes;
+    }
+
+    public Doctor get(String id)
+    {
+        return this.doctors.get(id);
+    }
+
+    public List<Doctor> list()
+    {
+        return this.doctors.list();
+    }
+
+    public Page<Doctor> page(String cursor, int limit)
+    {
+        return this.doctors.page(cursor, limit);
+    }
+
+    public Iterable<Doctor> values()
+    {
+        return this.doctors.values();
+    }
+
+    public int size()
+    {
+        return this.doctors.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return this.doctors.isEmpty();
+    }
+
+    /**
+     * @return the version of the doctors, bumped on every change.
+     */
+    public Version getVersion()
+    {
+        return this.version;
+    }
+
+    public List<Doctor> findBySpecialization(String prefix)
+    {
+        return this.specializations.find(prefix);
+    }
+
+    public Page<Doctor> findBySpecialization(String prefix, String cursor, int limit)
+    {
+        return this.specializations.find(prefix, cursor, limit);
+    }
+
+    public List<Doctor> findByLastName(String prefix)
+    {
+        return this.lastNames.find(prefix);
+    }
+
+    public Page<Doctor> findByLastName(String prefix, String cursor, int limit)
+    {
+        return this.lastNames.find(prefix, cursor, limit);
+    }
+
+    public List<Doctor> findByHospital(String hospitalId)
+    {
+        return this.hospitalDoctors.find(hospitalId);
+    }
+
+    public Page<Doctor> findByHospital(String hospitalId, String cursor, int limit)
+    {
+        return this.hospitalDoctors.find(hospitalId, cursor, limit);
+    }
+
+    /**
+     * Gives the doctor a new ID and stores it.
+     */
+    public Doctor create(Doctor doctor)
+    {
+        long position;
+        this.writeLock.lock();
+        try
+        {
+            doctor.id = this.ids.next();
+            WriteAheadLog.Record record = this.log.putDoctor(doctor);
+            long sequence = this.doctors.put(doctor.id, doctor);
+            this.addToIndexes(doctor, sequence);
+            position = this.log.append(record);
+            this.version.bump();
+            this.changes.publish("doctors", ChangeFeed.CREATED, copyOf(doctor));
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+        this.log.commit(position);
+        return doctor;
+    }
+
+    /**
+     * Creates several doctors at once: their IDs come from one reserved range and they are stored
+     * under one lock with one log commit instead of once per item.
+     *
+     * @return the new IDs, in the same order.
+     */
+    public List<String> createAll(List<Doctor> doctors)
+    {
+        ArrayList<String> created = new ArrayList<String>(doctors.size());
+        if(doctors.isEmpty())
+            return created;
+
+        long position = 0;
+        this.writeLock.lock();
+        this.log.beginBatch();
+        try
+        {
+            long first = this.ids.reserve(doctors.size());
+            WriteAheadLog.Record[] records = new WriteAheadLog.Record[doctors.size()];
+            for(int i = 0; i < records.length; i++)
+            {
+                Doctor doctor = doctors.get(i);
+                doctor.id = this.ids.format(first + i);
+                records[i] = this.log.putDoctor(doctor); // all or nothing: encode every doctor before storing any
+            }
+            for(int i = 0; i < records.length; i++)
+            {
+                Doctor doctor = doctors.get(i);
+                long sequence = this.doctors.put(doctor.id, doctor);
+                this.addToIndexes(doctor, sequence);
+                position = this.log.append(records[i]);
+                created.add(doctor.id);
+                this.changes.publish("doctors", ChangeFeed.CREATED, copyOf(doctor));
+            }
+            this.version.bump();
+        }
+        finally
+        {
+            this.log.endBatch();
+            this.writeLock.unlock();
+        }
+        this.log.commit(position);
+        return created;
+    }
+
+    /**
+     * Applies a PUT to a stored doctor. Only the name can be changed.
+     *
+     * @return a copy of the doctor as it was before the change, or null if there is no such ID.
+     */
+    public Doctor update(String id, Doctor changes)
+    {
+        Doctor before;
+        long position;
+        this.writeLock.lock();
+        try
+        {
+            Doctor stored = this.doctors.get(id);
+            if(stored == null)
+                return null;
+            before = copyOf(stored);
+            Doctor updated = copyOf(stored);
+            updated.name = changes.name;
+            WriteAheadLog.Record record = this.log.putDoctor(updated);
+            stored.name = changes.name; // not an indexed field
+            position = this.log.append(record);
+            this.version.bump();
+            this.changes.publish("doctors", ChangeFeed.UPDATED, copyOf(stored));
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+        this.log.commit(position);
+        return before;
+    }
+
+    public Doctor delete(String id)
+    {
+        Doctor doctor;
+        long position;
+        this.writeLock.lock();
+        try
+        {
+            Doctor existing = this.doctors.get(id);
+            if(existing == null)
+                return null;
+            WriteAheadLog.Record record = this.log.deleteDoctor(existing.id);
+            doctor = this.remove(id);
+            position = this.log.append(record);
+            this.version.bump();
+            this.changes.publish("doctors", ChangeFeed.DELETED, doctor);
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+        this.log.commit(position);
+        return doctor;
+    }
+
+    /**
+     * Puts a doctor read back from disk into the store under its own ID, replacing any doctor
+     * with that ID. Nothing is written to the log.
+     */
+    void restore(Doctor doctor)
+    {
+        this.writeLock.lock();
+        try
+        {
+            this.replace(doctor);
+            this.ids.observe(doctor.id);
+            this.version.bump();
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Restores a whole snapshot section at once, taking the lock and moving the ID counter only once.
+     */
+    void restoreAll(List<Doctor> doctors)
+    {
+        this.writeLock.lock();
+        try
+        {
+            String highest = null;
+            for(Doctor doctor: doctors)
+            {
+                this.replace(doctor);
+                if(this.ids.parse(doctor.id) > this.ids.parse(highest))
+                    highest = doctor.id;
+            }
+            this.ids.observe(highest);
+            this.version.bump();
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+    }
+
+    ReentrantLock writeLock()
+    {
+        return this.writeLock;
+    }
+
+    IdAllocator ids()
+    {
+        return this.ids;
+    }
+
+    /**
+     * Replays a logged delete. Nothing is written to the log.
+     */
+    void restoreDelete(String id)
+    {
+        this.writeLock.lock();
+        try
+        {
+            this.remove(id);
+            this.version.bump();
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Drops a deleted hospital from the index and from the hospital list of every Doctor
+     * that worked there.
+     */
+    void removeHospital(String hospitalId)
+    {
+        this.writeLock.lock();
+        try
+        {
+            for(Doctor doctor: this.hospitalDoctors.removeKey(hospitalId))
+            {
+                Doctor before = copyOf(doctor); // still lists the hospital, so its subscribers see the change
+                ArrayList<String> remaining = new ArrayList<String>();
+                for(String hospital: doctor.hospitals)
+                {
+                    if(!hospitalId.equalsIgnoreCase(hospital))
+                        remaining.add(hospital);
+                }
+                doctor.hospitals = remaining.toArray(new String[remaining.size()]);
+                this.changes.publish("doctors", ChangeFeed.UPDATED, copyOf(doctor), before);
+            }
+            this.version.bump();
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+    }
+
+    private void replace(Doctor doctor)
+    {
+        Doctor old = this.doctors.get(doctor.id);
+        if(old != null)
+            this.removeFromIndexes(old, this.doctors.sequenceOf(doctor.id));
+        long sequence = this.doctors.put(doctor.id, doctor); // a replaced doctor keeps its place in the list
+        this.addToIndexes(doctor, sequence);
+    }
+
+    private Doctor remove(String id)
+    {
+        long sequence = this.doctors.sequenceOf(id);
+        Doctor doctor = this.doctors.remove(id);
+        if(doctor != null)
+            this.removeFromIndexes(doctor, sequence);
+        return doctor;
+    }
+
+    private void addToIndexes(Doctor doctor, long sequence)
+    {
+        this.specializations.add(doctor.specialization, sequence, doctor);
+        this.lastNames.add(doctor.lastName, sequence, doctor);
+        if(doctor.hospitals != null)
+        {
+            for(String hospital: doctor.hospitals)
+                this.hospitalDoctors.add(hospital, sequence, doctor);
+        }
+    }
+
+    private void removeFromIndexes(Doctor doctor, long sequence)
+    {
+        this.specializations.remove(doctor.specialization, sequence);
+        this.lastNames.remove(doctor.lastName, sequence);
+        if(doctor.hospitals != null)
+        {
+            for(String hospital: doctor.hospitals)
+                this.hospitalDoctors.remove(hospital, sequence);
+        }
+    }
+
+    static Doctor copyOf(Doctor doctor)
+    {
+        Doctor copy = new Doctor();
+        copy.id = doctor.id;
+        copy.name = doctor.name;
+        copy.lastName = doctor.lastName;
+        copy.specialization = doctor.specialization;
+        copy.hospitals = doctor.hospitals == null ? null : doctor.hospitals.clone();
+        return copy;
+    }
+}
@@ -0,0 +1,14 @@
+package lk.sliit.dcws.store;
+
+/**
+ * Thrown when a field of a new or changed object is too long to be stored. Nothing has been
+ * changed when it is thrown.
+ */
+public class FieldTooLongException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    public FieldTooLongException(String field, int maxBytes) {
+        super(field + " is longer than the " + maxBytes + " bytes of UTF-8 a field can hold");
+    }
+}
@@ -0,0 +1,279 @@
+package lk.sliit.dcws.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lk.sliit.dcws.Hospital;
+
+/**
+ * Thread-safe home of all Hospital objects. Reads never lock; writes are serialized.
+ * Deleting a hospital also removes it from the doctors that list it.
+ */
+public class HospitalStore {
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Version version = new Version();
+    private final KeyedStore<Hospital> hospitals = new KeyedStore<Hospital>();
+    private final IdAllocator ids;
+    private final DoctorStore doctors;
+    private final WriteAheadLog log;
+
+    public HospitalStore(IdAllocator ids, DoctorStore doctors) {
+        this(ids, doctors, WriteAheadLog.disabled());
+    }
+
+    public HospitalStore(IdAllocator ids, DoctorStore doctors, WriteAheadLog log) {
+        this.ids = ids;
+        this.doctors = doctors;
+        this.log = log;
+    }
+
+    public Hospital get(String id)
+    {
+        return this.hospitals.get(id);
+    }
+
+    public List<Hospital> list()
+    {
+        return this.hospitals.list();
+    }
+
+    public Page<Hospital> page(String cursor, int limit)
+    {
+        return this.hospitals.page(cursor, limit);
+    }
+
+    public Iterable<Hospital> values()
+    {
+        return this.hospitals.values();
+    }
+
+    public int size()
+    {
+        return this.hospitals.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return this.hospitals.isEmpty();
+    }
+
+    /**
+     * @return the version of the hospitals, bumped on every change.
+     */
+    public Version getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * Gives the hospital a new ID and stores it.
+     */
+    public Hospital create(Hospital hospital)
+    {
+        long position;
+        this.writeLock.lock();
+        try
+        {
+            hospital.id = this.ids.next();
+            WriteAheadLog.Record record = this.log.putHospital(hospital);
+            this.hospitals.put(hospital.id, hospital);
+            position = this.log.append(record);
+            this.version.bump();
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+        this.log.commit(position);
+        return hospital;
+    }
+
+    /**
+     * Creates several hospitals at once: their IDs come from one reserved range and they are stored
+     * under one lock with one log commit instead of once per item.
+     *
+     * @return the new IDs, in the same order.
+     */
+    public List<String> createAll(List<Hospital> hospitals)
+    {
+        ArrayList<String> created = new ArrayList<String>(hospitals.size());
+        if(hospitals.isEmpty())
+            return created;
+
+        long position = 0;
+        this.writeLock.lock();
+        this.log.beginBatch();
+        try
+        {
+            long first = this.ids.reserve(hospitals.size());
+            WriteAheadLog.Record[] records = new WriteAheadLog.Record[hospitals.size()];
+            for(int i = 0; i < records.length; i++)
+            {
+                Hospital hospital = hospitals.get(i);
+                hospital.id = this.ids.format(first + i);
+                records[i] = this.log.putHospital(hospital); // all or nothing: encode every hospital before storing any
+            }
+            for(int i = 0; i < records.length; i++)
+            {
+                Hospital hospital = hospitals.get(i);
+                this.hospitals.put(hospital.id, hospital);
+                position = this.log.append(records[i]);
+                created.add(hospital.id);
+            }
+            this.version.bump();
+        }
+        finally
+        {
+            this.log.endBatch();
+            this.writeLock.unlock();
+        }
+        this.log.commit(position);
+        return created;
+    }
+
+    /**
+     * Applies a PUT to a stored hospital. Only the name can be changed.
+     *
+     * @return a copy of the hospital as it was before the change, or null if there is no such ID.
+     */
+    public Hospital update(String id, Hospital changes)
+    {
+        Hospital before;
+        long position;
+        this.writeLock.lock();
+        try
+        {
+            Hospital stored = this.hospitals.get(id);
+            if(stored == null)
+                return null;
+            before = copyOf(stored);
+            Hospital updated = copyOf(stored);
+            updated.name = changes.name;
+            WriteAheadLog.Record record = this.log.putHospital(updated);
+            stored.name = changes.name;
+            position = this.log.append(record);
+            this.version.bump();
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+        this.log.commit(position);
+        return before;
+    }
+
+    /**
+     * Deletes a hospital. The log only records the hospital; replaying it removes the hospital
+     * from the doctors again.
+     */
+    public Hospital delete(String id)
+    {
+        Hospital hospital;
+        long position;
+        this.writeLock.lock();
+        try
+        {
+            Hospital existing = this.hospitals.get(id);
+            if(existing == null)
+                return null;
+            WriteAheadLog.Record record = this.log.deleteHospital(existing.id);
+            hospital = this.remove(id);
+            position = this.log.append(record);
+            this.version.bump();
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+        this.log.commit(position);
+        return hospital;
+    }
+
+    /**
+     * Puts a hospital read back from disk into the store under its own ID, replacing any
+     * hospital with that ID. Nothing is written to the log.
+     */
+    void restore(Hospital hospital)
+    {
+        this.writeLock.lock();
+        try
+        {
+            this.hospitals.put(hospital.id, hospital);
+            this.ids.observe(hospital.id);
+            this.version.bump();
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Restores a whole snapshot section at once, taking the lock and moving the ID counter only once.
+     */
+    void restoreAll(List<Hospital> hospitals)
+    {
+        this.writeLock.lock();
+        try
+        {
+            String highest = null;
+            for(Hospital hospital: hospitals)
+            {
+                this.hospitals.put(hospital.id, hospital);
+                if(this.ids.parse(hospital.id) > this.ids.parse(highest))
+                    highest = hospital.id;
+            }
+            this.ids.observe(highest);
+            this.version.bump();
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+    }
+
+    ReentrantLock writeLock()
+    {
+        return this.writeLock;
+    }
+
+    IdAllocator ids()
+    {
+        return this.ids;
+    }
+
+    /**
+     * Replays a logged delete. Nothing is written to the log.
+     */
+    void restoreDelete(String id)
+    {
+        this.writeLock.lock();
+        try
+        {
+            this.remove(id);
+            this.version.bump();
+        }
+        finally
+        {
+            this.writeLock.unlock();
+        }
+    }
+
+    private Hospital remove(String id)
+    {
+        Hospital hospital = this.hospitals.remove(id);
+        if(hospital != null)
+            this.doctors.removeHospital(hospital.id);
+        return hospital;
+    }
+
+    static Hospital copyOf(Hospital hospital)
+    {
+        Hospital copy = new Hospital();
+        copy.id = hospital.id;
+        copy.name = hospital.name;
+        return copy;
+    }
+}
@@ -0,0 +1,198 @@
+package lk.sliit.dcws.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lk.sliit.dcws.Settings;
+
+/**
+ * Hands out IDs such as doc001, hos001 and app001 from a counter instead of probing the table
+ * for a free number. Every call is an atomic increment, so two concurrent POSTs can never get the
+ * same ID and numbers of deleted objects are never handed out again.
+ *
+ * The high-water mark is kept in DATA_DIR/&lt;prefix&gt;.seq. Rather than writing the file for
+ * every ID, the allocator reserves a block of numbers ahead of time and only rewrites the file
+ * when the block runs out. After a restart it continues after the reserved block, so some numbers
+ * may be skipped but none are reused.
+ */
+public class IdAllocator {
+
+    private static final int BLOCK_SIZE = 1000;
+    private static final int MIN_DIGITS = 3; // matches the "doc000" pattern the resources used to format with
+
+    private static final ConcurrentHashMap<String, IdAllocator> allocators = new ConcurrentHashMap<String, IdAllocator>();
+
+    private final String prefix;
+    private final File stateFile;
+    private final AtomicLong next = new AtomicLong(1);
+    private volatile long reservedUpTo; // numbers below this are covered by the persisted mark
+
+    /**
+     * Returns the shared allocator for the given prefix, creating it on first use.
+     */
+    public static IdAllocator forPrefix(String prefix)
+    {
+        IdAllocator allocator = allocators.get(prefix);
+        if(allocator == null)
+        {
+            String dataDir = Settings.getString("DATA_DIR", "data");
+            File stateFile = dataDir.equalsIgnoreCase("none") ? null : new File(dataDir, prefix + ".seq");
+            IdAllocator created = new IdAllocator(prefix, stateFile);
+            allocator = allocators.putIfAbsent(prefix, created);
+            if(allocator == null)
+                allocator = created;
+        }
+        return allocator;
+    }
+
+    /**
+     * Creates an allocator. Passing a null state file keeps the counter in memory only.
+     */
+    public IdAllocator(String prefix, File stateFile) {
+        this.prefix = prefix;
+        this.stateFile = stateFile;
+
+        long persisted = this.readMark();
+        this.next.set(persisted);
+        this.reservedUpTo = persisted;
+    }
+
+    public String getPrefix()
+    {
+        return this.prefix;
+    }
+
+    /**
+     * Allocates the next ID.
+     */
+    public String next()
+    {
+        return this.format(this.reserve(1));
+    }
+
+    /**
+     * Allocates count consecutive numbers and returns the first one.
+     */
+    public long reserve(int count)
+    {
+        if(count < 1)
+            throw new IllegalArgumentException("count must be at least 1");
+
+        long first = this.next.getAndAdd(count);
+        if(first + count > this.reservedUpTo)
+            this.extendReservation(first + count);
+        return first;
+    }
+
+    /**
+     * Makes sure an ID that already exists (for example one restored from disk) is never
+     * handed out again.
+     */
+    public void observe(String id)
+    {
+        long number = this.parse(id);
+        if(number < 0)
+            return;
+
+        while(true)
+        {
+            long current = this.next.get();
+            if(number < current || this.next.compareAndSet(current, number + 1))
+                break;
+        }
+        if(number + 1 > this.reservedUpTo)
+            this.extendReservation(number + 1);
+    }
+
+    /**
+     * Formats a number the same way DecimalFormat("doc000") would.
+     */
+    public String format(long number)
+    {
+        String digits = Long.toString(number);
+        StringBuilder id = new StringBuilder(this.prefix.length() + Math.max(digits.length(), MIN_DIGITS));
+        id.append(this.prefix);
+        for(int i = digits.length(); i < MIN_DIGITS; i++)
+            id.append('0');
+        return id.append(digits).toString();
+    }
+
+    /**
+     * Returns the number part of an ID with this allocator's prefix, or -1 if it isn't one.
+     */
+    public long parse(String id)
+    {
+        if(id == null || id.length() <= this.prefix.length() || !id.regionMatches(true, 0, this.prefix, 0, this.prefix.length()))
+            return -1;
+        try
+        {
+            return Long.parseLong(id.substring(this.prefix.length()));
+        }
+        catch(NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    private synchronized void extendReservation(long needed)
+    {
+        if(needed <= this.reservedUpTo)
+            return; // another thread already moved the mark past us
+
+        long mark = needed + BLOCK_SIZE;
+        this.writeMark(mark);
+        this.reservedUpTo = mark;
+    }
+
+    private long readMark()
+    {
+        if(this.stateFile == null || !this.stateFile.isFile())
+            return 1;
+
+        try(InputStream in = new FileInputStream(this.stateFile))
+        {
+            byte[] buffer = new byte[32];
+            int length = in.read(buffer);
+            return Long.parseLong(new String(buffer, 0, Math.max(length, 0), StandardCharsets.US_ASCII).trim());
+        }
+        catch(IOException | NumberFormatException e)
+        {
+            throw new IllegalStateException("Cannot read ID sequence from " + this.stateFile, e);
+        }
+    }
+
+    private void writeMark(long mark)
+    {
+        if(this.stateFile == null)
+            return;
+
+        File dir = this.stateFile.getAbsoluteFile().getParentFile();
+        if(!dir.isDirectory() && !dir.mkdirs())
+            throw new IllegalStateException("Cannot create data directory " + dir);
+
+        File temp = new File(dir, this.stateFile.getName() + ".tmp");
+        try(FileOutputStream out = new FileOutputStream(temp))
+        {
+            out.write(Long.toString(mark).getBytes(StandardCharsets.US_ASCII));
+            out.getFD().sync();
+        }
+        catch(IOException e)
+        {
+            throw new IllegalStateException("Cannot write ID sequence to " + temp, e);
+        }
+
+        // rename over the old file so a crash never leaves a half written mark behind
+        if(!temp.renameTo(this.stateFile))
+        {
+            this.stateFile.delete();
+            if(!temp.renameTo(this.stateFile))
+                throw new IllegalStateException("Cannot replace ID sequence file " + this.stateFile);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package lk.sliit.dcws.store;
+
+/**
+ * Thrown when a client sends a cursor that wasn't produced by Cursor.
+ */
+public class InvalidCursorException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    public InvalidCursorException(String cursor) {
+        super("Invalid cursor: " + cursor);
+    }
+}
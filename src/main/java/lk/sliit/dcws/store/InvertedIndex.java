@@ -0,0 +1,88 @@
+package lk.sliit.dcws.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Maps a case-insensitive key, such as a hospital ID, to the set of items that refer to it.
+ * Items are filed under their KeyedStore sequence number, so each one is held once per key
+ * however many times it is added and lookups return the matches in creation order.
+ *
+ * Lookups never lock. Writers are expected to be serialized by the owning store.
+ */
+public class InvertedIndex<T> {
+
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<Long, T>> postings = new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, T>>();
+
+    public void add(String key, long sequence, T item)
+    {
+        if(key == null)
+            return;
+        String folded = KeyedStore.key(key);
+        ConcurrentSkipListMap<Long, T> posting = this.postings.get(folded);
+        if(posting == null)
+        {
+            posting = new ConcurrentSkipListMap<Long, T>();
+            this.postings.put(folded, posting);
+        }
+        posting.put(sequence, item);
+    }
+
+    /**
+     * Bulk version of add() for items whose sequence numbers are not in the index yet: files
+     * the item in the loader, and addAll() then adds everything filed there at once.
+     */
+    void add(PostingLoader<T> loader, String key, long sequence, T item)
+    {
+        if(key != null)
+            loader.add(KeyedStore.key(key), sequence, item);
+    }
+
+    void addAll(PostingLoader<T> loader)
+    {
+        loader.addTo(this.postings);
+    }
+
+    public void remove(String key, long sequence)
+    {
+        if(key == null)
+            return;
+        String folded = KeyedStore.key(key);
+        ConcurrentSkipListMap<Long, T> posting = this.postings.get(folded);
+        if(posting == null)
+            return;
+        posting.remove(sequence);
+        if(posting.isEmpty())
+            this.postings.remove(folded);
+    }
+
+    /**
+     * Drops a key and everything filed under it, returning the items that were there.
+     */
+    public List<T> removeKey(String key)
+    {
+        ConcurrentSkipListMap<Long, T> posting = key == null ? null : this.postings.remove(KeyedStore.key(key));
+        if(posting == null)
+            return new ArrayList<T>();
+        return new ArrayList<T>(posting.values());
+    }
+
+    public List<T> find(String key)
+    {
+        return this.find(key, null, 0).getItems();
+    }
+
+    /**
+     * Returns up to limit items filed under the key, in creation order, starting after the cursor.
+     */
+    public Page<T> find(String key, String cursor, int limit)
+    {
+        long after = Cursor.sequence(cursor);
+        ConcurrentSkipListMap<Long, T> posting = key == null ? null : this.postings.get(KeyedStore.key(key));
+        if(posting == null)
+            return new Page<T>(new ArrayList<T>(), null);
+        return Page.bySequence(posting.tailMap(after, false), limit);
+    }
+}
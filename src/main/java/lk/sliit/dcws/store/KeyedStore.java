@@ -0,0 +1,120 @@
+package lk.sliit.dcws.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory table of objects keyed by their ID. IDs are compared case-insensitively,
+ * the same way the resources always compared them with equalsIgnoreCase(), but lookups
+ * go through a hash map instead of walking a list.
+ *
+ * Every object also gets a sequence number when it is first stored. Iteration follows the
+ * sequence, so list responses come back in the order the objects were created, and indexes
+ * use it to keep their own entries in the same order.
+ *
+ * Reads never lock and may run alongside a write; they see each object either before or after
+ * it was stored or removed. Writers are expected to be serialized by the owning store.
+ */
+public class KeyedStore<T> {
+
+    private final ConcurrentHashMap<String, Slot<T>> byKey = new ConcurrentHashMap<String, Slot<T>>();
+    private final ConcurrentSkipListMap<Long, T> bySequence = new ConcurrentSkipListMap<Long, T>();
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    private static class Slot<T> {
+        final long sequence;
+        final T item;
+
+        Slot(long sequence, T item) {
+            this.sequence = sequence;
+            this.item = item;
+        }
+    }
+
+    /**
+     * Folds an ID into the form used as the map key.
+     */
+    public static String key(String id)
+    {
+        return id.toUpperCase(Locale.ROOT);
+    }
+
+    public T get(String id)
+    {
+        Slot<T> slot = id == null ? null : this.byKey.get(key(id));
+        return slot == null ? null : slot.item;
+    }
+
+    /**
+     * Stores an object and returns its sequence number. Replacing an object keeps the
+     * sequence number of the one it replaces.
+     */
+    public long put(String id, T item)
+    {
+        String key = key(id);
+        Slot<T> old = this.byKey.get(key);
+        long sequence = old == null ? this.nextSequence.getAndIncrement() : old.sequence;
+        this.byKey.put(key, new Slot<T>(sequence, item));
+        this.bySequence.put(sequence, item);
+        return sequence;
+    }
+
+    public T remove(String id)
+    {
+        Slot<T> slot = id == null ? null : this.byKey.remove(key(id));
+        if(slot == null)
+            return null;
+        this.bySequence.remove(slot.sequence);
+        return slot.item;
+    }
+
+    /**
+     * Returns the sequence number of a stored object, or -1 if there is no such ID.
+     */
+    public long sequenceOf(String id)
+    {
+        Slot<T> slot = id == null ? null : this.byKey.get(key(id));
+        return slot == null ? -1 : slot.sequence;
+    }
+
+    public boolean contains(String id)
+    {
+        return id != null && this.byKey.containsKey(key(id));
+    }
+
+    public int size()
+    {
+        return this.byKey.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return this.byKey.isEmpty();
+    }
+
+    public Iterable<T> values()
+    {
+        return this.bySequence.values();
+    }
+
+    /**
+     * Returns up to limit objects in creation order, starting after the cursor.
+     * A null cursor starts at the beginning and a limit of 0 or less returns everything.
+     */
+    public Page<T> page(String cursor, int limit)
+    {
+        return Page.bySequence(this.bySequence.tailMap(Cursor.sequence(cursor), false), limit);
+    }
+
+    /**
+     * Copies the stored objects into a list, in creation order.
+     */
+    public List<T> list()
+    {
+        return new ArrayList<T>(this.bySequence.values());
+    }
+}
@@ -0,0 +1,208 @@
+package lk.sliit.dcws.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Case-insensitive contains() index over one text field. Every upper-cased value is split
+ * into overlapping trigrams and each trigram keeps a posting list of the items containing it.
+ * A search looks up the trigrams of the query, walks the shortest posting list, keeps the items
+ * that appear in all the other lists and finally checks them with contains(), so the result is
+ * exactly what a full scan would return.
+ *
+ * Items are filed under their KeyedStore sequence number and posting lists are sorted by it,
+ * so results come back in creation order just like a scan of the table. Queries shorter than
+ * a trigram fall back to a scan of the index.
+ *
+ * Searches never lock. Writers are expected to be serialized by the owning store.
+ */
+public class NGramIndex<T> {
+
+    private static final int N = 3;
+
+    private final ConcurrentSkipListMap<Long, Entry<T>> entries = new ConcurrentSkipListMap<Long, Entry<T>>();
+    private final ConcurrentHashMap<String, Posting<T>> postings = new ConcurrentHashMap<String, Posting<T>>();
+
+    private static class Entry<T> {
+        final String folded;
+        final T item;
+
+        Entry(String folded, T item) {
+            this.folded = folded;
+            this.item = item;
+        }
+    }
+
+    private static class Posting<T> {
+        final ConcurrentSkipListMap<Long, T> items;
+        volatile int size; // ConcurrentSkipListMap.size() walks the whole list
+
+        Posting() {
+            this.items = new ConcurrentSkipListMap<Long, T>();
+        }
+
+        Posting(SortedMap<Long, T> items) {
+            this.items = new ConcurrentSkipListMap<Long, T>(items);
+            this.size = items.size();
+        }
+    }
+
+    /**
+     * Adds an item, or re-indexes it under a new value if the sequence number is already present.
+     */
+    public void put(long sequence, String value, T item)
+    {
+        this.remove(sequence);
+
+        Entry<T> entry = new Entry<T>(PrefixIndex.fold(value), item);
+        for(String gram : grams(entry.folded))
+        {
+            Posting<T> posting = this.postings.get(gram);
+            if(posting == null)
+            {
+                posting = new Posting<T>();
+                this.postings.put(gram, posting);
+            }
+            posting.items.put(sequence, item);
+            posting.size++;
+        }
+        this.entries.put(sequence, entry);
+    }
+
+    /**
+     * Bulk version of put() for items whose sequence numbers are not in the index yet: files
+     * the item's trigrams in the loader, and addAll() then adds everything filed there at once.
+     */
+    void put(PostingLoader<T> loader, long sequence, String value, T item)
+    {
+        Entry<T> entry = new Entry<T>(PrefixIndex.fold(value), item);
+        for(int i = 0; i + N <= entry.folded.length(); i++)
+            loader.add(entry.folded.substring(i, i + N), sequence, item); // the loader drops a repeated trigram
+        this.entries.put(sequence, entry);
+    }
+
+    void addAll(PostingLoader<T> loader)
+    {
+        for(Map.Entry<String, ? extends SortedMap<Long, T>> loaded : loader.postings().entrySet())
+        {
+            Posting<T> posting = this.postings.get(loaded.getKey());
+            if(posting == null)
+            {
+                this.postings.put(loaded.getKey(), new Posting<T>(loaded.getValue()));
+            }
+            else
+            {
+                posting.items.putAll(loaded.getValue());
+                posting.size += loaded.getValue().size();
+            }
+        }
+        loader.postings().clear();
+    }
+
+    public void remove(long sequence)
+    {
+        Entry<T> old = this.entries.remove(sequence);
+        if(old == null)
+            return;
+        for(String gram : grams(old.folded))
+        {
+            Posting<T> posting = this.postings.get(gram);
+            posting.items.remove(sequence);
+            if(--posting.size == 0)
+                this.postings.remove(gram);
+        }
+    }
+
+    /**
+     * Returns every item whose value contains the query, ignoring case, in creation order.
+     */
+    public List<T> find(String query)
+    {
+        return this.find(query, null, 0).getItems();
+    }
+
+    /**
+     * Returns up to limit items whose value contains the query, in creation order, starting
+     * after the cursor. Only the posting list entries past the cursor are visited.
+     */
+    public Page<T> find(String query, String cursor, int limit)
+    {
+        String folded = PrefixIndex.fold(query);
+        long after = Cursor.sequence(cursor);
+        ArrayList<T> matches = new ArrayList<T>();
+        long last = -1;
+
+        if(folded.length() < N)
+        {
+            for(Map.Entry<Long, Entry<T>> entry : this.entries.tailMap(after, false).entrySet())
+            {
+                if(entry.getValue().folded.contains(folded))
+                {
+                    if(limit > 0 && matches.size() == limit)
+                        return new Page<T>(matches, Cursor.of(last));
+                    matches.add(entry.getValue().item);
+                    last = entry.getKey();
+                }
+            }
+            return new Page<T>(matches, null);
+        }
+
+        LinkedHashSet<String> grams = grams(folded);
+        @SuppressWarnings("unchecked")
+        Posting<T>[] lists = (Posting<T>[]) new Posting<?>[grams.size()];
+        int i = 0;
+        for(String gram : grams)
+        {
+            Posting<T> posting = this.postings.get(gram);
+            if(posting == null)
+                return new Page<T>(matches, null); // some trigram of the query occurs nowhere
+            lists[i++] = posting;
+        }
+        Arrays.sort(lists, new Comparator<Posting<T>>() {
+            @Override
+            public int compare(Posting<T> a, Posting<T> b) {
+                return Integer.compare(a.size, b.size);
+            }
+        });
+
+        candidates:
+        for(Map.Entry<Long, T> candidate : lists[0].items.tailMap(after, false).entrySet())
+        {
+            for(int j = 1; j < lists.length; j++)
+            {
+                if(!lists[j].items.containsKey(candidate.getKey()))
+                    continue candidates;
+            }
+            // every trigram is present but not necessarily next to each other, so verify
+            Entry<T> entry = this.entries.get(candidate.getKey());
+            if(entry != null && entry.folded.contains(folded))
+            {
+                if(limit > 0 && matches.size() == limit)
+                    return new Page<T>(matches, Cursor.of(last));
+                matches.add(entry.item);
+                last = candidate.getKey();
+            }
+        }
+        return new Page<T>(matches, null);
+    }
+
+    public int size()
+    {
+        return this.entries.size();
+    }
+
+    private static LinkedHashSet<String> grams(String folded)
+    {
+        LinkedHashSet<String> grams = new LinkedHashSet<String>();
+        for(int i = 0; i + N <= folded.length(); i++)
+            grams.add(folded.substring(i, i + N));
+        return grams;
+    }
+}
@@ -0,0 +1,49 @@
+package lk.sliit.dcws.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * One page of a list or search result. nextCursor is null on the last page; otherwise passing
+ * it back returns the items that follow, even if other items were added or removed meanwhile.
+ */
+public class Page<T> {
+
+    private final List<T> items;
+    private final String nextCursor;
+
+    public Page(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Takes up to limit items from a map keyed by sequence number that has already been
+     * positioned after the cursor. A limit of 0 or less takes everything.
+     */
+    static <T> Page<T> bySequence(NavigableMap<Long, T> after, int limit)
+    {
+        ArrayList<T> items = new ArrayList<T>(limit > 0 ? Math.min(limit, 256) : 16);
+        long last = -1;
+        for(Map.Entry<Long, T> entry : after.entrySet())
+        {
+            if(limit > 0 && items.size() == limit)
+                return new Page<T>(items, Cursor.of(last));
+            items.add(entry.getValue());
+            last = entry.getKey();
+        }
+        return new Page<T>(items, null);
+    }
+
+    public List<T> getItems()
+    {
+        return this.items;
+    }
+
+    public String getNextCursor()
+    {
+        return this.nextCursor;
+    }
+}
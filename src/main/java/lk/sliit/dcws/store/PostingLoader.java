@@ -0,0 +1,262 @@
+package lk.sliit.dcws.store;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Collects the posting lists of an index during a bulk load, such as a snapshot being restored,
+ * and builds each one in a single pass at the end. Putting items into a ConcurrentSkipListMap
+ * one at a time searches the list from the top for every item, while building it from a sorted
+ * map links the items in order in linear time.
+ *
+ * Each posting list is collected in plain arrays. Items come in sequence order, so most lists
+ * are already sorted and the rest are sorted once before they are built.
+ *
+ * Not thread-safe; a loader is filled and then added to its index by one writer.
+ */
+final class PostingLoader<T> {
+
+    private final HashMap<String, Run<T>> postings = new HashMap<String, Run<T>>();
+
+    /**
+     * Files an item under a key. Filing the same position under a key again replaces the item
+     * if nothing else was filed there in between.
+     */
+    void add(String key, long position, T item)
+    {
+        Run<T> run = this.postings.get(key);
+        if(run == null)
+        {
+            run = new Run<T>();
+            this.postings.put(key, run);
+        }
+        run.add(position, item);
+    }
+
+    /**
+     * @return the collected posting lists, each sorted by position.
+     */
+    Map<String, ? extends SortedMap<Long, T>> postings()
+    {
+        for(Run<T> run: this.postings.values())
+            run.sort();
+        return this.postings;
+    }
+
+    /**
+     * Adds the collected posting lists to an index, merging them into any it already holds.
+     */
+    void addTo(ConcurrentHashMap<String, ConcurrentSkipListMap<Long, T>> index)
+    {
+        for(Map.Entry<String, ? extends SortedMap<Long, T>> entry: this.postings().entrySet())
+        {
+            ConcurrentSkipListMap<Long, T> posting = index.get(entry.getKey());
+            if(posting == null)
+                index.put(entry.getKey(), new ConcurrentSkipListMap<Long, T>(entry.getValue()));
+            else
+                posting.putAll(entry.getValue());
+        }
+        this.postings.clear();
+    }
+
+    /**
+     * One posting list as parallel arrays, seen as a read-only SortedMap once sorted. Its sub,
+     * head and tail maps are Runs over the same arrays, from an offset found by binary search.
+     * Only the Runs the loader makes are added to; views are never.
+     */
+    private static final class Run<T> extends AbstractMap<Long, T> implements SortedMap<Long, T> {
+        long[] positions;
+        Object[] items;
+        int offset;
+        int size;
+        boolean sorted = true;
+
+        Run()
+        {
+            this.positions = new long[4];
+            this.items = new Object[4];
+        }
+
+        private Run(Run<T> run, int from, int to)
+        {
+            this.positions = run.positions;
+            this.items = run.items;
+            this.offset = run.offset + from;
+            this.size = to - from;
+        }
+
+        void add(long position, T item)
+        {
+            if(this.size > 0 && this.positions[this.size - 1] == position)
+            {
+                this.items[this.size - 1] = item;
+                return;
+            }
+            if(this.size == this.positions.length)
+            {
+                this.positions = Arrays.copyOf(this.positions, this.size * 2);
+                this.items = Arrays.copyOf(this.items, this.size * 2);
+            }
+            if(this.size > 0 && this.positions[this.size - 1] > position)
+                this.sorted = false;
+            this.positions[this.size] = position;
+            this.items[this.size] = item;
+            this.size++;
+        }
+
+        void sort()
+        {
+            if(this.sorted)
+                return;
+            Integer[] order = new Integer[this.size];
+            for(int i = 0; i < this.size; i++)
+                order[i] = i;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(Run.this.positions[a], Run.this.positions[b]);
+                }
+            });
+            long[] positions = new long[this.size];
+            Object[] items = new Object[this.size];
+            for(int i = 0; i < this.size; i++)
+            {
+                positions[i] = this.positions[order[i]];
+                items[i] = this.items[order[i]];
+            }
+            this.positions = positions;
+            this.items = items;
+            this.sorted = true;
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public Comparator<? super Long> comparator() {
+            return null;
+        }
+
+        @Override
+        public Long firstKey() {
+            if(this.size == 0)
+                throw new NoSuchElementException();
+            return this.position(0);
+        }
+
+        @Override
+        public Long lastKey() {
+            if(this.size == 0)
+                throw new NoSuchElementException();
+            return this.position(this.size - 1);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Long && this.indexOf((Long) key) >= 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(Object key) {
+            int i = key instanceof Long ? this.indexOf((Long) key) : -1;
+            return i < 0 ? null : (T) this.items[this.offset + i];
+        }
+
+        @Override
+        public SortedMap<Long, T> subMap(Long fromKey, Long toKey) {
+            if(fromKey > toKey)
+                throw new IllegalArgumentException("fromKey > toKey");
+            this.sort();
+            return new Run<T>(this, this.lowerBound(fromKey), this.lowerBound(toKey));
+        }
+
+        @Override
+        public SortedMap<Long, T> headMap(Long toKey) {
+            this.sort();
+            return new Run<T>(this, 0, this.lowerBound(toKey));
+        }
+
+        @Override
+        public SortedMap<Long, T> tailMap(Long fromKey) {
+            this.sort();
+            return new Run<T>(this, this.lowerBound(fromKey), this.size);
+        }
+
+        @Override
+        public Set<Map.Entry<Long, T>> entrySet() {
+            return new AbstractSet<Map.Entry<Long, T>>() {
+                @Override
+                public int size() {
+                    return Run.this.size;
+                }
+
+                @Override
+                public Iterator<Map.Entry<Long, T>> iterator() {
+                    return new Iterator<Map.Entry<Long, T>>() {
+                        int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return this.next < Run.this.size;
+                        }
+
+                        @Override
+                        @SuppressWarnings("unchecked")
+                        public Map.Entry<Long, T> next() {
+                            if(this.next >= Run.this.size)
+                                throw new NoSuchElementException();
+                            int i = this.next++;
+                            return new AbstractMap.SimpleImmutableEntry<Long, T>(Run.this.position(i), (T) Run.this.items[Run.this.offset + i]);
+                        }
+                    };
+                }
+            };
+        }
+
+        private long position(int i)
+        {
+            return this.positions[this.offset + i];
+        }
+
+        /**
+         * @return the index of the first position at or after the key, or size if there is none.
+         */
+        private int lowerBound(long key)
+        {
+            int low = 0;
+            int high = this.size;
+            while(low < high)
+            {
+                int middle = (low + high) >>> 1;
+                if(this.position(middle) < key)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            return low;
+        }
+
+        /**
+         * @return the index of the key, or -1 if it is not in the run.
+         */
+        private int indexOf(long key)
+        {
+            this.sort();
+            int i = this.lowerBound(key);
+            return i < this.size && this.position(i) == key ? i : -1;
+        }
+    }
+}
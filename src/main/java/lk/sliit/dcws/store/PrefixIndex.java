@@ -0,0 +1,110 @@
+package lk.sliit.dcws.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Case-insensitive startsWith() index over one text field. Entries are kept in a sorted map
+ * under the upper-cased value followed by the item's sequence number, so every value starting
+ * with a prefix sits in one contiguous range of keys and a search costs O(log n + matches)
+ * instead of a scan of the whole table.
+ *
+ * Searches never lock. Writers are expected to be serialized by the owning store.
+ */
+public class PrefixIndex<T> {
+
+    private static final char RANGE_END = '\uffff';
+
+    private final ConcurrentSkipListMap<Key, T> entries = new ConcurrentSkipListMap<Key, T>();
+
+    static final class Key implements Comparable<Key> {
+        final String value;
+        final long sequence;
+
+        Key(String value, long sequence) {
+            this.value = value;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int result = this.value.compareTo(other.value);
+            return result != 0 ? result : Long.compare(this.sequence, other.sequence);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && this.compareTo((Key) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.value.hashCode() * 31 + (int) (this.sequence ^ (this.sequence >>> 32));
+        }
+    }
+
+    public static String fold(String value)
+    {
+        return value == null ? "" : value.toUpperCase(Locale.ROOT);
+    }
+
+    public void add(String value, long sequence, T item)
+    {
+        this.entries.put(new Key(fold(value), sequence), item);
+    }
+
+    public void remove(String value, long sequence)
+    {
+        this.entries.remove(new Key(fold(value), sequence));
+    }
+
+    /**
+     * Returns every item whose value starts with the given prefix, ignoring case.
+     * Matches are ordered by value, then by creation order.
+     */
+    public List<T> find(String prefix)
+    {
+        return this.find(prefix, null, 0).getItems();
+    }
+
+    /**
+     * Returns up to limit items whose value starts with the given prefix, starting after the cursor.
+     */
+    public Page<T> find(String prefix, String cursor, int limit)
+    {
+        String folded = fold(prefix);
+        Key from = new Key(folded, Long.MIN_VALUE);
+        Key to = new Key(folded + RANGE_END, Long.MIN_VALUE);
+        boolean inclusive = true;
+        if(cursor != null)
+        {
+            Key last = new Key(Cursor.value(cursor), Cursor.sequence(cursor));
+            if(last.compareTo(to) >= 0)
+                return new Page<T>(new ArrayList<T>(), null);
+            if(last.compareTo(from) >= 0)
+            {
+                from = last;
+                inclusive = false;
+            }
+        }
+
+        ArrayList<T> items = new ArrayList<T>();
+        Key previous = null;
+        for(Map.Entry<Key, T> entry : this.entries.subMap(from, inclusive, to, false).entrySet())
+        {
+            if(limit > 0 && items.size() == limit)
+                return new Page<T>(items, Cursor.of(previous.value, previous.sequence));
+            items.add(entry.getValue());
+            previous = entry.getKey();
+        }
+        return new Page<T>(items, null);
+    }
+
+    public int size()
+    {
+        return this.entries.size();
+    }
+}
@@ -0,0 +1,15 @@
+package lk.sliit.dcws.store;
+
+import lk.sliit.dcws.Appointment;
+
+/**
+ * Thrown when an appointment is booked for a session that has handed out all its numbers.
+ */
+public class SessionFullException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public SessionFullException(Appointment appointment, int capacity) {
+        super("The session of doctor " + appointment.doctorId + " at hospital " + appointment.hospitalId + " on " + appointment.appointmentDate + " is full (" + capacity + " appointments)");
+    }
+}
@@ -0,0 +1,510 @@
+package lk.sliit.dcws.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lk.sliit.dcws.Appointment;
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.Hospital;
+
+/**
+ * Binary image of all three stores, written now and then so a restart loads one compact file
+ * and only replays the part of the write-ahead log written after it.
+ *
+ * The file starts with a fixed header: the magic "DCWS", the format version, the creation time,
+ * the file length and the offset and entry count of the dictionary and of the hospital, doctor
+ * and appointment sections. Each section holds one row per object, in list order. Every string
+ * in a row is an int index into the dictionary, which holds each distinct string once as a
+ * length-prefixed UTF-8 run, so the names, specializations and dates repeated across thousands
+ * of rows are stored and decoded once. IDs in the allocator's own format, such as doc000123,
+ * are stored as their number and take no dictionary entry at all.
+ *
+ * The file is memory-mapped for loading; the dictionary is decoded first and the three sections
+ * are then decoded in parallel.
+ */
+public final class Snapshot {
+
+    private static final int MAGIC = 0x44435753; // "DCWS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 * (8 + 4);
+    private static final int NULL = -1;
+
+    private final long created;
+    private final int hospitals;
+    private final int doctors;
+    private final int appointments;
+    private final long bytes;
+    private final long nanos;
+    private final long decodeNanos;
+
+    private Snapshot(long created, int hospitals, int doctors, int appointments, long bytes, long nanos, long decodeNanos) {
+        this.created = created;
+        this.hospitals = hospitals;
+        this.doctors = doctors;
+        this.appointments = appointments;
+        this.bytes = bytes;
+        this.nanos = nanos;
+        this.decodeNanos = decodeNanos;
+    }
+
+    /**
+     * @return when the snapshot was taken, in milliseconds since the epoch.
+     */
+    public long getCreated()
+    {
+        return this.created;
+    }
+
+    public int getHospitals()
+    {
+        return this.hospitals;
+    }
+
+    public int getDoctors()
+    {
+        return this.doctors;
+    }
+
+    public int getAppointments()
+    {
+        return this.appointments;
+    }
+
+    /**
+     * @return the size of the file.
+     */
+    public long getBytes()
+    {
+        return this.bytes;
+    }
+
+    /**
+     * @return how long writing or loading the snapshot took.
+     */
+    public long getNanos()
+    {
+        return this.nanos;
+    }
+
+    /**
+     * @return for a loaded snapshot, how much of the load time went into mapping and decoding the
+     *         file; the rest is spent rebuilding the indexes. 0 for a written snapshot.
+     */
+    public long getDecodeNanos()
+    {
+        return this.decodeNanos;
+    }
+
+    @Override
+    public String toString() {
+        String text = this.hospitals + " hospitals, " + this.doctors + " doctors, " + this.appointments + " appointments, "
+                + this.bytes + " bytes in " + TimeUnit.NANOSECONDS.toMillis(this.nanos) + " ms";
+        if(this.decodeNanos > 0)
+            text += " (" + TimeUnit.NANOSECONDS.toMillis(this.decodeNanos) + " ms decoding)";
+        return text;
+    }
+
+    /**
+     * Writes a snapshot of the stores to the file, replacing it atomically. All three stores are
+     * locked only while their objects are copied and the log is rotated; encoding and writing
+     * happen after the locks are released. Once the file is on disk the log file it replaces is
+     * deleted.
+     */
+    static Snapshot write(DataStore store, WriteAheadLog log, File file) throws IOException
+    {
+        long start = System.nanoTime();
+        long created = System.currentTimeMillis();
+        ArrayList<Hospital> hospitals = new ArrayList<Hospital>(store.hospitals().size());
+        ArrayList<Doctor> doctors = new ArrayList<Doctor>(store.doctors().size());
+        ArrayList<Appointment> appointments = new ArrayList<Appointment>(store.appointments().size());
+
+        // the same order a hospital delete takes them in
+        ReentrantLock hospitalLock = store.hospitals().writeLock();
+        ReentrantLock doctorLock = store.doctors().writeLock();
+        ReentrantLock appointmentLock = store.appointments().writeLock();
+        hospitalLock.lock();
+        doctorLock.lock();
+        appointmentLock.lock();
+        try
+        {
+            log.rotate();
+            for(Hospital hospital: store.hospitals().values())
+                hospitals.add(HospitalStore.copyOf(hospital));
+            for(Doctor doctor: store.doctors().values())
+                doctors.add(DoctorStore.copyOf(doctor));
+            for(Appointment appointment: store.appointments().values())
+                appointments.add(AppointmentStore.copyOf(appointment));
+        }
+        finally
+        {
+            appointmentLock.unlock();
+            doctorLock.unlock();
+            hospitalLock.unlock();
+        }
+
+        IdAllocator hospitalIds = store.hospitals().ids();
+        IdAllocator doctorIds = store.doctors().ids();
+        IdAllocator appointmentIds = store.appointments().ids();
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create data directory " + dir);
+        File temp = new File(dir, file.getName() + ".tmp");
+        long length;
+        try(FileOutputStream fileOut = new FileOutputStream(temp))
+        {
+            Encoder out = new Encoder(new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16)));
+            out.out.write(new byte[HEADER_SIZE]); // filled in at the end
+
+            long hospitalsAt = out.out.size();
+            for(Hospital hospital: hospitals)
+            {
+                out.id(hospital.id, hospitalIds);
+                out.string(hospital.name);
+            }
+
+            long doctorsAt = out.out.size();
+            for(Doctor doctor: doctors)
+            {
+                out.id(doctor.id, doctorIds);
+                out.string(doctor.name);
+                out.string(doctor.lastName);
+                out.string(doctor.specialization);
+                if(doctor.hospitals == null)
+                {
+                    out.out.writeInt(NULL);
+                }
+                else
+                {
+                    out.out.writeInt(doctor.hospitals.length);
+                    for(String hospital: doctor.hospitals)
+                        out.id(hospital, hospitalIds);
+                }
+            }
+
+            long appointmentsAt = out.out.size();
+            for(Appointment appointment: appointments)
+            {
+                out.id(appointment.id, appointmentIds);
+                out.string(appointment.patientName);
+                out.id(appointment.doctorId, doctorIds);
+                out.id(appointment.hospitalId, hospitalIds);
+                out.string(appointment.appointmentDate);
+                out.out.writeInt(appointment.appointmentNumber);
+            }
+
+            long dictionaryAt = out.out.size();
+            for(String value: out.dictionary)
+            {
+                byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                out.out.writeInt(utf8.length);
+                out.out.write(utf8);
+            }
+            out.out.flush();
+            length = fileOut.getChannel().size(); // out.out.size() stops counting at Integer.MAX_VALUE
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(created).putLong(length);
+            header.putLong(dictionaryAt).putInt(out.dictionary.size());
+            header.putLong(hospitalsAt).putInt(hospitals.size());
+            header.putLong(doctorsAt).putInt(doctors.size());
+            header.putLong(appointmentsAt).putInt(appointments.size());
+            header.flip();
+            while(header.hasRemaining())
+                fileOut.getChannel().write(header, header.position());
+            fileOut.getFD().sync();
+        }
+
+        // load() cannot map a file this large, so check before the old snapshot is replaced and
+        // the log it needs is deleted
+        if(length >= Integer.MAX_VALUE)
+        {
+            temp.delete();
+            throw new IOException("Snapshot would be " + length + " bytes, more than the 2 GB that can be memory-mapped; keeping the previous snapshot and log");
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        log.dropPrevious();
+        return new Snapshot(created, hospitals.size(), doctors.size(), appointments.size(), length, System.nanoTime() - start, 0);
+    }
+
+    /**
+     * Loads a snapshot into empty stores.
+     *
+     * @return what was loaded, or null if there is no snapshot file.
+     */
+    static Snapshot load(final DataStore store, File file) throws IOException
+    {
+        if(!file.isFile())
+            return null;
+
+        long start = System.nanoTime();
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if(size < HEADER_SIZE || size >= Integer.MAX_VALUE)
+                throw new IOException("Snapshot " + file + " has an impossible size of " + size + " bytes");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if(buffer.getInt() != MAGIC)
+                throw new IOException(file + " is not a snapshot");
+            int version = buffer.getInt();
+            if(version != VERSION)
+                throw new IOException("Snapshot " + file + " has version " + version + " but only version " + VERSION + " can be read");
+            long created = buffer.getLong();
+            if(buffer.getLong() != size)
+                throw new IOException("Snapshot " + file + " is truncated");
+            long dictionaryAt = buffer.getLong();
+            int dictionarySize = buffer.getInt();
+            final long hospitalsAt = buffer.getLong();
+            final int hospitalCount = buffer.getInt();
+            final long doctorsAt = buffer.getLong();
+            final int doctorCount = buffer.getInt();
+            final long appointmentsAt = buffer.getLong();
+            final int appointmentCount = buffer.getInt();
+
+            long decoded;
+            try
+            {
+                final String[] dictionary = readDictionary(slice(buffer, dictionaryAt), dictionarySize);
+                final Decoder hospitalRows = new Decoder(slice(buffer, hospitalsAt), dictionary);
+                final Decoder doctorRows = new Decoder(slice(buffer, doctorsAt), dictionary);
+                final Decoder appointmentRows = new Decoder(slice(buffer, appointmentsAt), dictionary);
+
+                ExecutorService pool = Executors.newFixedThreadPool(2);
+                try
+                {
+                    final Future<List<Hospital>> hospitals = pool.submit(new Callable<List<Hospital>>() {
+                        @Override
+                        public List<Hospital> call() {
+                            return readHospitals(hospitalRows, hospitalCount, store.hospitals().ids());
+                        }
+                    });
+                    final Future<List<Doctor>> doctors = pool.submit(new Callable<List<Doctor>>() {
+                        @Override
+                        public List<Doctor> call() {
+                            return readDoctors(doctorRows, doctorCount, store.doctors().ids(), store.hospitals().ids());
+                        }
+                    });
+                    List<Appointment> appointments = readAppointments(appointmentRows, appointmentCount, store);
+                    hospitals.get();
+                    doctors.get();
+                    decoded = System.nanoTime();
+
+                    // building the indexes takes far longer than decoding, so it gets its own round
+                    Future<?> hospitalsRestored = pool.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            store.hospitals().restoreAll(hospitals.get());
+                            return null;
+                        }
+                    });
+                    Future<?> doctorsRestored = pool.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            store.doctors().restoreAll(doctors.get());
+                            return null;
+                        }
+                    });
+                    store.appointments().restoreAll(appointments);
+                    hospitalsRestored.get();
+                    doctorsRestored.get();
+                }
+                finally
+                {
+                    pool.shutdown();
+                }
+            }
+            catch(ExecutionException e)
+            {
+                if(e.getCause() instanceof RuntimeException)
+                    throw corrupt(file, (RuntimeException) e.getCause());
+                throw new IOException("Cannot load snapshot " + file, e.getCause());
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading snapshot " + file, e);
+            }
+            catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e)
+            {
+                throw corrupt(file, e);
+            }
+            return new Snapshot(created, hospitalCount, doctorCount, appointmentCount, size, System.nanoTime() - start, decoded - start);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, long offset)
+    {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position((int) offset);
+        return slice;
+    }
+
+    private static String[] readDictionary(ByteBuffer in, int size)
+    {
+        String[] dictionary = new String[size];
+        byte[] utf8 = new byte[64];
+        for(int i = 0; i < size; i++)
+        {
+            int length = in.getInt();
+            if(utf8.length < length)
+                utf8 = new byte[Math.max(length, utf8.length * 2)];
+            in.get(utf8, 0, length);
+            dictionary[i] = new String(utf8, 0, length, StandardCharsets.UTF_8);
+        }
+        return dictionary;
+    }
+
+    private static List<Hospital> readHospitals(Decoder in, int count, IdAllocator ids)
+    {
+        ArrayList<Hospital> hospitals = new ArrayList<Hospital>(count);
+        for(int i = 0; i < count; i++)
+        {
+            Hospital hospital = new Hospital();
+            hospital.id = in.id(ids);
+            hospital.name = in.string();
+            hospitals.add(hospital);
+        }
+        return hospitals;
+    }
+
+    private static List<Doctor> readDoctors(Decoder in, int count, IdAllocator ids, IdAllocator hospitalIds)
+    {
+        ArrayList<Doctor> doctors = new ArrayList<Doctor>(count);
+        for(int i = 0; i < count; i++)
+        {
+            Doctor doctor = new Doctor();
+            doctor.id = in.id(ids);
+            doctor.name = in.string();
+            doctor.lastName = in.string();
+            doctor.specialization = in.string();
+            int hospitals = in.in.getInt();
+            if(hospitals == NULL)
+            {
+                doctor.hospitals = null;
+            }
+            else
+            {
+                doctor.hospitals = new String[hospitals];
+                for(int j = 0; j < hospitals; j++)
+                    doctor.hospitals[j] = in.id(hospitalIds);
+            }
+            doctors.add(doctor);
+        }
+        return doctors;
+    }
+
+    private static List<Appointment> readAppointments(Decoder in, int count, DataStore store)
+    {
+        IdAllocator ids = store.appointments().ids();
+        IdAllocator doctorIds = store.doctors().ids();
+        IdAllocator hospitalIds = store.hospitals().ids();
+        ArrayList<Appointment> appointments = new ArrayList<Appointment>(count);
+        for(int i = 0; i < count; i++)
+        {
+            Appointment appointment = new Appointment();
+            appointment.id = in.id(ids);
+            appointment.patientName = in.string();
+            appointment.doctorId = in.id(doctorIds);
+            appointment.hospitalId = in.id(hospitalIds);
+            appointment.appointmentDate = in.string();
+            appointment.appointmentNumber = in.in.getInt();
+            appointments.add(appointment);
+        }
+        return appointments;
+    }
+
+    private static IOException corrupt(File file, RuntimeException e)
+    {
+        return new IOException("Snapshot " + file + " is corrupt", e);
+    }
+
+    /**
+     * Writes rows, collecting the dictionary as it goes.
+     */
+    private static class Encoder {
+        final DataOutputStream out;
+        final HashMap<String, Integer> references = new HashMap<String, Integer>();
+        final ArrayList<String> dictionary = new ArrayList<String>();
+
+        Encoder(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void string(String value) throws IOException
+        {
+            if(value == null)
+            {
+                this.out.writeInt(NULL);
+                return;
+            }
+            Integer reference = this.references.get(value);
+            if(reference == null)
+            {
+                reference = this.dictionary.size();
+                this.references.put(value, reference);
+                this.dictionary.add(value);
+            }
+            this.out.writeInt(reference);
+        }
+
+        /**
+         * Writes the number of an ID the allocator would format the same way, or NULL followed
+         * by the ID as a string.
+         */
+        void id(String id, IdAllocator ids) throws IOException
+        {
+            long number = ids.parse(id);
+            if(number >= 0 && ids.format(number).equals(id))
+            {
+                this.out.writeLong(number);
+                return;
+            }
+            this.out.writeLong(NULL);
+            this.string(id);
+        }
+    }
+
+    private static class Decoder {
+        final ByteBuffer in;
+        final String[] dictionary;
+
+        Decoder(ByteBuffer in, String[] dictionary) {
+            this.in = in;
+            this.dictionary = dictionary;
+        }
+
+        String string()
+        {
+            int reference = this.in.getInt();
+            return reference == NULL ? null : this.dictionary[reference];
+        }
+
+        String id(IdAllocator ids)
+        {
+            long number = this.in.getLong();
+            return number == NULL ? this.string() : ids.format(number);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package lk.sliit.dcws.store;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Change counter of one store, used for ETag and Last-Modified headers. The owning store bumps
+ * it after every change, while it still holds its write lock, so a reader that takes the tag
+ * before reading the data never gets data older than the tag.
+ *
+ * Tags carry the time the process started as well as the counter, so a tag handed out before a
+ * restart never matches the data after it.
+ */
+public class Version {
+
+    static final String BOOT = Long.toString(System.currentTimeMillis(), 36);
+
+    private final AtomicLong counter = new AtomicLong();
+    private volatile long lastModified = System.currentTimeMillis();
+
+    void bump()
+    {
+        this.lastModified = System.currentTimeMillis();
+        this.counter.incrementAndGet();
+    }
+
+    public long get()
+    {
+        return this.counter.get();
+    }
+
+    /**
+     * @return when the store last changed, or when it was created, in milliseconds since the epoch.
+     */
+    public long getLastModified()
+    {
+        return this.lastModified;
+    }
+
+    /**
+     * @return the opaque part of an entity tag for the given counter value.
+     */
+    public static String tag(String collection, long version)
+    {
+        return collection + "-" + BOOT + "-" + version;
+    }
+}
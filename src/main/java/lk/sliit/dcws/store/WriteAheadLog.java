@@ -0,0 +1,723 @@
+package lk.sliit.dcws.store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import lk.sliit.dcws.Appointment;
+import lk.sliit.dcws.Doctor;
+import lk.sliit.dcws.Hospital;
+import lk.sliit.dcws.log.LogEndpoint;
+import lk.sliit.dcws.log.RequestLog;
+
+/**
+ * Append-only log of every change made to the stores, replayed into them on startup so data
+ * survives a restart. Each record holds the whole object as it was after a create or update,
+ * or the ID of a deleted one, framed by its length and a CRC32 so a record torn by a crash is
+ * detected and cut off on the next start.
+ *
+ * Stores encode a record before they change anything, so a change the log cannot hold fails
+ * while the stores are still as they were, and append it while they hold their write lock, so
+ * the log order is the order the changes were applied in. They call commit() once they have
+ * released the lock. How commit() waits depends on the durability mode:
+ * <ul>
+ * <li>SYNC - every append is written and fsynced before it returns, one write at a time. The
+ *     records of a bulk create are written and fsynced together when it commits.</li>
+ * <li>BATCH - appends only go to a buffer. The first thread to commit becomes the leader: it
+ *     writes everything buffered so far and fsyncs once, while writers that arrive meanwhile
+ *     queue up behind it and are usually covered by the next single fsync (group commit).</li>
+ * </ul>
+ * Either way a write is on disk before the client gets its response.
+ *
+ * If a write or fsync fails, the records that did not make it are dropped and the file is cut
+ * back to the end of the last fsynced one, so it never holds a partial or reordered write. The
+ * log then refuses every further change until the server restarts: the failed changes are
+ * already visible in memory, and carrying on would log later changes on top of them.
+ *
+ * When a snapshot is taken the log is rotated: the current file becomes wal.log.prev and a new
+ * one is started. The snapshot covers everything in the previous file, which is deleted once
+ * the snapshot is safely on disk. If the process dies in between, startup loads the older
+ * snapshot and replays both files, so nothing is lost either way.
+ */
+public class WriteAheadLog {
+
+    public enum Durability {
+        SYNC, BATCH
+    }
+
+    private static final byte DOCTOR_PUT = 1;
+    private static final byte DOCTOR_DELETE = 2;
+    private static final byte HOSPITAL_PUT = 3;
+    private static final byte HOSPITAL_DELETE = 4;
+    private static final byte APPOINTMENT_PUT = 5;
+    private static final byte APPOINTMENT_DELETE = 6;
+
+    private static final int HEADER_SIZE = 8; // length and CRC
+    private static final int MAX_RECORD_SIZE = 1 << 24;
+    private static final int MAX_STRING_BYTES = 65535; // what writeUTF() can hold
+
+    private static final LogEndpoint LOG = RequestLog.endpoint("store.wal");
+
+    private static final WriteAheadLog DISABLED = new WriteAheadLog(null, null, Durability.BATCH, 0);
+
+    private final File file;
+    private final File previousFile;
+    private final boolean enabled;
+    private FileChannel channel; // replaced by rotate() while holding both locks
+    private final Durability durability;
+    private final long batchWindowNanos;
+
+    private final Object appendLock = new Object();
+    private Buffer pending = new Buffer();   // guarded by appendLock
+    private Buffer writing = new Buffer();   // guarded by syncLock
+    private long appended;                   // guarded by appendLock; bytes appended since open
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final ThreadLocal<Boolean> batching = new ThreadLocal<Boolean>();
+    private volatile long durable;
+    private long synced;                     // file offset up to which the file is fsynced; guarded by the lock held to write
+    private volatile IOException failure;    // set once a write or fsync has failed
+
+    private static class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(8192);
+        }
+
+        ByteBuffer wrap()
+        {
+            return ByteBuffer.wrap(this.buf, 0, this.count);
+        }
+    }
+
+    private WriteAheadLog(File file, FileChannel channel, Durability durability, long batchWindowNanos) {
+        this.file = file;
+        this.previousFile = file == null ? null : new File(file.getPath() + ".prev");
+        this.enabled = channel != null;
+        this.channel = channel;
+        this.durability = durability;
+        this.batchWindowNanos = batchWindowNanos;
+    }
+
+    /**
+     * A log that records nothing, for stores that are kept in memory only.
+     */
+    public static WriteAheadLog disabled()
+    {
+        return DISABLED;
+    }
+
+    /**
+     * Opens the log, creating it and its directory if needed. Call replay() before the stores
+     * take any writes.
+     *
+     * @param batchWindowMicros in BATCH mode, how long a leader waits for more writers before it
+     *                          fsyncs; 0 syncs straight away.
+     */
+    public static WriteAheadLog open(File file, Durability durability, long batchWindowMicros)
+    {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(!dir.isDirectory() && !dir.mkdirs())
+            throw new IllegalStateException("Cannot create data directory " + dir);
+        return new WriteAheadLog(file, openChannel(file), durability, TimeUnit.MICROSECONDS.toNanos(batchWindowMicros));
+    }
+
+    public boolean isEnabled()
+    {
+        return this.enabled;
+    }
+
+    public File getFile()
+    {
+        return this.file;
+    }
+
+    /**
+     * @return true if a write or fsync has failed and the log refuses further changes.
+     */
+    public boolean isFailed()
+    {
+        return this.failure != null;
+    }
+
+    /**
+     * @return the number of bytes appended since the log was opened, across rotations.
+     */
+    long position()
+    {
+        synchronized(this.appendLock)
+        {
+            return this.appended;
+        }
+    }
+
+    /**
+     * Encodes a created or updated doctor. This and the other encoding methods check every field,
+     * even when the log is disabled, so the same data is accepted either way.
+     *
+     * @return the record to append, or null if the log is disabled.
+     * @throws FieldTooLongException if a field is too long to be logged.
+     * @throws IllegalStateException if the log has failed and takes no more changes.
+     */
+    Record putDoctor(Doctor doctor)
+    {
+        check(doctor);
+        if(!this.enabled)
+            return null;
+        this.checkFailure();
+        Record record = new Record(DOCTOR_PUT);
+        record.writeString(doctor.id);
+        record.writeString(doctor.name);
+        record.writeString(doctor.lastName);
+        record.writeString(doctor.specialization);
+        record.writeStrings(doctor.hospitals);
+        return record;
+    }
+
+    Record deleteDoctor(String id)
+    {
+        return this.delete(DOCTOR_DELETE, id);
+    }
+
+    Record putHospital(Hospital hospital)
+    {
+        check(hospital);
+        if(!this.enabled)
+            return null;
+        this.checkFailure();
+        Record record = new Record(HOSPITAL_PUT);
+        record.writeString(hospital.id);
+        record.writeString(hospital.name);
+        return record;
+    }
+
+    Record deleteHospital(String id)
+    {
+        return this.delete(HOSPITAL_DELETE, id);
+    }
+
+    Record putAppointment(Appointment appointment)
+    {
+        check(appointment);
+        if(!this.enabled)
+            return null;
+        this.checkFailure();
+        Record record = new Record(APPOINTMENT_PUT);
+        record.writeString(appointment.id);
+        record.writeString(appointment.patientName);
+        record.writeString(appointment.doctorId);
+        record.writeString(appointment.hospitalId);
+        record.writeString(appointment.appointmentDate);
+        record.writeInt(appointment.appointmentNumber);
+        return record;
+    }
+
+    Record deleteAppointment(String id)
+    {
+        return this.delete(APPOINTMENT_DELETE, id);
+    }
+
+    /**
+     * Adds an encoded record to the log. Called by the stores while they hold their write lock.
+     *
+     * @return the position to pass to commit().
+     */
+    long append(Record record)
+    {
+        if(record == null)
+            return 0;
+        synchronized(this.appendLock)
+        {
+            record.writeTo(this.pending);
+            this.appended += record.size();
+            if(this.durability == Durability.SYNC && this.batching.get() == null)
+                this.sync();
+            return this.appended;
+        }
+    }
+
+    /**
+     * Makes the appends of the calling thread only go to the buffer until endBatch(), even in
+     * SYNC mode, so a batch of records is written and fsynced once by the commit() that follows.
+     */
+    void beginBatch()
+    {
+        this.batching.set(Boolean.TRUE);
+    }
+
+    void endBatch()
+    {
+        this.batching.remove();
+    }
+
+    /**
+     * Waits until every record up to the given position, as returned by an append, is on disk.
+     */
+    void commit(long position)
+    {
+        if(!this.enabled || this.durable >= position)
+            return;
+        this.checkFailure();
+
+        if(this.durability == Durability.SYNC)
+        {
+            // only a batch gets here; it is written the same way as a single SYNC append
+            synchronized(this.appendLock)
+            {
+                this.sync();
+            }
+            return;
+        }
+
+        this.syncLock.lock();
+        try
+        {
+            if(this.durable >= position)
+                return; // the leader before us covered this write as well
+            this.checkFailure(); // the leader before us failed
+            if(this.batchWindowNanos > 0)
+                LockSupport.parkNanos(this.batchWindowNanos);
+
+            long upTo;
+            synchronized(this.appendLock)
+            {
+                Buffer full = this.pending;
+                this.pending = this.writing;
+                this.writing = full;
+                upTo = this.appended;
+            }
+            this.write(this.writing);
+            this.channel.force(false);
+            this.synced = this.channel.position();
+            this.durable = upTo;
+        }
+        catch(IOException e)
+        {
+            throw this.fail(e);
+        }
+        finally
+        {
+            this.syncLock.unlock();
+        }
+    }
+
+    /**
+     * Replays the log into the stores, starting with the file left by an unfinished rotation if
+     * there is one, and positions it for appending after the last complete record. A torn or
+     * corrupt record, which can only be the last one written before a crash, is cut off together
+     * with anything after it.
+     *
+     * @return the number of records replayed.
+     */
+    int replay(DataStore store)
+    {
+        if(!this.enabled)
+            return 0;
+
+        try
+        {
+            int records = 0;
+            if(this.previousFile.isFile())
+                records += replay(this.previousFile, store, new long[1]);
+
+            long[] valid = new long[1];
+            records += replay(this.file, store, valid);
+            if(valid[0] < this.channel.size())
+            {
+                LOG.log("file", this.file, "event", "truncated", "dropped", this.channel.size() - valid[0]); // bytes after the last complete record
+                this.channel.truncate(valid[0]);
+                this.channel.force(true);
+            }
+            this.channel.position(valid[0]);
+            this.synced = valid[0];
+            return records;
+        }
+        catch(IOException e)
+        {
+            throw new IllegalStateException("Cannot replay write-ahead log " + this.file, e);
+        }
+    }
+
+    /**
+     * Starts a new log file and keeps the current one as wal.log.prev until dropPrevious() is
+     * called. The caller must hold every store's write lock, so no append can come in meanwhile.
+     *
+     * @return false if a previous file was still there from a snapshot that never finished; the
+     *         log is then left as it is, and the next snapshot covers both files anyway.
+     */
+    boolean rotate()
+    {
+        if(!this.enabled)
+            return false;
+
+        this.syncLock.lock();
+        try
+        {
+            synchronized(this.appendLock)
+            {
+                if(this.previousFile.exists())
+                    return false;
+                this.checkFailure();
+                this.write(this.pending);
+                this.channel.force(false);
+                this.synced = this.channel.position();
+                this.durable = this.appended;
+                this.channel.close();
+                if(!this.file.renameTo(this.previousFile))
+                {
+                    this.channel = openChannel(this.file); // nothing was lost: carry on with the same file
+                    this.channel.position(this.synced);
+                    throw new IllegalStateException("Cannot rename " + this.file + " to " + this.previousFile);
+                }
+                this.channel = openChannel(this.file);
+                this.synced = 0;
+                return true;
+            }
+        }
+        catch(IOException e)
+        {
+            throw this.fail(e);
+        }
+        finally
+        {
+            this.syncLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the file left by rotate(), once a snapshot holding everything in it is on disk.
+     */
+    void dropPrevious()
+    {
+        if(this.enabled && this.previousFile.exists() && !this.previousFile.delete())
+            throw new IllegalStateException("Cannot delete " + this.previousFile);
+    }
+
+    /**
+     * Applies every complete record in a file to the stores.
+     *
+     * @param valid receives the length of the file up to the end of the last complete record.
+     */
+    private static int replay(File file, DataStore store, long[] valid) throws IOException
+    {
+        int records = 0;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16)))
+        {
+            CRC32 crc = new CRC32();
+            byte[] body = new byte[256];
+            while(true)
+            {
+                int length;
+                int checksum;
+                try
+                {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if(length <= 0 || length > MAX_RECORD_SIZE)
+                        break;
+                    if(body.length < length)
+                        body = new byte[Math.max(length, body.length * 2)];
+                    in.readFully(body, 0, length);
+                }
+                catch(EOFException e)
+                {
+                    break;
+                }
+                crc.reset();
+                crc.update(body, 0, length);
+                if((int) crc.getValue() != checksum)
+                    break;
+
+                apply(store, new DataInputStream(new ByteArrayInputStream(body, 0, length)));
+                valid[0] += HEADER_SIZE + length;
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private static void apply(DataStore store, DataInputStream in) throws IOException
+    {
+        byte type = in.readByte();
+        switch(type)
+        {
+            case DOCTOR_PUT:
+                Doctor doctor = new Doctor();
+                doctor.id = readString(in);
+                doctor.name = readString(in);
+                doctor.lastName = readString(in);
+                doctor.specialization = readString(in);
+                doctor.hospitals = readStrings(in);
+                store.doctors().restore(doctor);
+                break;
+            case DOCTOR_DELETE:
+                store.doctors().restoreDelete(readString(in));
+                break;
+            case HOSPITAL_PUT:
+                Hospital hospital = new Hospital();
+                hospital.id = readString(in);
+                hospital.name = readString(in);
+                store.hospitals().restore(hospital);
+                break;
+            case HOSPITAL_DELETE:
+                store.hospitals().restoreDelete(readString(in));
+                break;
+            case APPOINTMENT_PUT:
+                Appointment appointment = new Appointment();
+                appointment.id = readString(in);
+                appointment.patientName = readString(in);
+                appointment.doctorId = readString(in);
+                appointment.hospitalId = readString(in);
+                appointment.appointmentDate = readString(in);
+                appointment.appointmentNumber = in.readInt();
+                store.appointments().restore(appointment);
+                break;
+            case APPOINTMENT_DELETE:
+                store.appointments().restoreDelete(readString(in));
+                break;
+            default:
+                throw new IOException("Unknown write-ahead log record type " + type);
+        }
+    }
+
+    private Record delete(byte type, String id)
+    {
+        if(!this.enabled)
+            return null;
+        this.checkFailure();
+        Record record = new Record(type);
+        record.writeString(id);
+        return record;
+    }
+
+    /**
+     * Checks every field of a Doctor, Hospital or Appointment the way the encoding methods do,
+     * so a bulk create can turn away the items that would fail before it stores the others in
+     * one batch.
+     *
+     * @throws FieldTooLongException if a field is too long to be logged.
+     */
+    public static void validate(Object item)
+    {
+        if(item instanceof Doctor)
+            check((Doctor) item);
+        else if(item instanceof Hospital)
+            check((Hospital) item);
+        else if(item instanceof Appointment)
+            check((Appointment) item);
+    }
+
+    private static void check(Doctor doctor)
+    {
+        check("name", doctor.name);
+        check("lastName", doctor.lastName);
+        check("specialization", doctor.specialization);
+        if(doctor.hospitals != null)
+        {
+            for(String hospital : doctor.hospitals)
+                check("hospitals", hospital);
+        }
+    }
+
+    private static void check(Hospital hospital)
+    {
+        check("name", hospital.name);
+    }
+
+    private static void check(Appointment appointment)
+    {
+        check("patientName", appointment.patientName);
+        check("doctorId", appointment.doctorId);
+        check("hospitalId", appointment.hospitalId);
+        check("appointmentDate", appointment.appointmentDate);
+    }
+
+    /**
+     * Rejects a string whose modified UTF-8 form, as writeUTF() writes it, is over 64 KB.
+     */
+    private static void check(String field, String value)
+    {
+        if(value == null || value.length() <= MAX_STRING_BYTES / 3)
+            return; // no char takes more than 3 bytes
+        long bytes = 0;
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            bytes += c >= 0x0001 && c <= 0x007f ? 1 : c <= 0x07ff ? 2 : 3;
+        }
+        if(bytes > MAX_STRING_BYTES)
+            throw new FieldTooLongException(field, MAX_STRING_BYTES);
+    }
+
+    /**
+     * Writes and fsyncs everything appended so far. Called with appendLock held.
+     */
+    private void sync()
+    {
+        this.checkFailure();
+        try
+        {
+            this.write(this.pending);
+            this.channel.force(false);
+            this.synced = this.channel.position();
+            this.durable = this.appended;
+        }
+        catch(IOException e)
+        {
+            throw this.fail(e);
+        }
+    }
+
+    private void checkFailure()
+    {
+        if(this.failure != null)
+            throw new IllegalStateException("Write-ahead log " + this.file + " failed earlier and takes no more changes until the server restarts", this.failure);
+    }
+
+    /**
+     * Marks the log as failed after a write or fsync error: drops every record that is not on
+     * disk yet and cuts the file back to the end of the last fsynced one. Called while holding
+     * the lock that was used to write.
+     *
+     * @return the exception to throw.
+     */
+    private IllegalStateException fail(IOException e)
+    {
+        this.failure = e;
+        this.writing.reset();
+        synchronized(this.appendLock)
+        {
+            this.pending.reset();
+        }
+        try
+        {
+            this.channel.truncate(this.synced);
+            this.channel.position(this.synced);
+        }
+        catch(IOException ignored)
+        {
+            // the file is cut back on the next start instead: replay() stops at the first torn record
+        }
+        LOG.log("file", this.file, "event", "failed", "error", e); // and refuses further changes from now on
+        return new IllegalStateException("Cannot write to write-ahead log " + this.file, e);
+    }
+
+    private static FileChannel openChannel(File file)
+    {
+        try
+        {
+            return new RandomAccessFile(file, "rw").getChannel();
+        }
+        catch(IOException e)
+        {
+            throw new IllegalStateException("Cannot open write-ahead log " + file, e);
+        }
+    }
+
+    private void write(Buffer buffer) throws IOException
+    {
+        ByteBuffer bytes = buffer.wrap();
+        while(bytes.hasRemaining())
+            this.channel.write(bytes);
+        buffer.reset();
+    }
+
+    /**
+     * One encoded record: a type byte followed by the fields.
+     */
+    static final class Record {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        private final DataOutputStream out = new DataOutputStream(this.bytes);
+
+        Record(byte type) {
+            this.bytes.write(type);
+        }
+
+        void writeString(String value)
+        {
+            try
+            {
+                this.out.writeBoolean(value != null);
+                if(value != null)
+                    this.out.writeUTF(value);
+            }
+            catch(IOException e)
+            {
+                throw new IllegalStateException(e); // not thrown: check() has let through only what writeUTF takes
+            }
+        }
+
+        void writeStrings(String[] values)
+        {
+            this.writeInt(values == null ? -1 : values.length);
+            if(values != null)
+            {
+                for(String value : values)
+                    this.writeString(value);
+            }
+        }
+
+        void writeInt(int value)
+        {
+            try
+            {
+                this.out.writeInt(value);
+            }
+            catch(IOException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        int size()
+        {
+            return HEADER_SIZE + this.bytes.size();
+        }
+
+        void writeTo(ByteArrayOutputStream target)
+        {
+            byte[] body = this.bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(body, 0, body.length);
+            writeInt(target, body.length);
+            writeInt(target, (int) crc.getValue());
+            target.write(body, 0, body.length);
+        }
+
+        private static void writeInt(ByteArrayOutputStream target, int value)
+        {
+            target.write(value >>> 24);
+            target.write(value >>> 16);
+            target.write(value >>> 8);
+            target.write(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException
+    {
+        int count = in.readInt();
+        if(count < 0)
+            return null;
+        String[] values = new String[count];
+        for(int i = 0; i < count; i++)
+            values[i] = readString(in);
+        return values;
+    }
+}